@@ -1,28 +1,30 @@
  package Agent;
 
 import Bank.ClientAdress;
+import Bank.DirectoryChange;
+import Bank.DirectoryRequest;
+import Bank.DirectorySnapshot;
+import Bank.FrameStream;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 
 /**
  * Represents a user-controlled Agent in the distributed auction system.
- * The Agent connects to the Bank to create an account and discover Auction Houses,
- * then communicates with each Auction House to view and bid on items.
+ * The Agent connects to the Bank to create an account and discover Auction Houses from the
+ * Bank's versioned directory, kept up to date by join and leave changes, then communicates with each Auction House to view and bid on items.
  */
 public class Agent implements Runnable {
     // Network and IO components
     private Socket socket = null;
-    private ObjectInputStream inMessage = null;
-    private ObjectOutputStream outMessage = null;
+    private FrameStream bank = null;
 
     // Agent account and balance tracking
     private int accountId;
@@ -35,6 +37,10 @@ public class Agent implements Runnable {
     // Auction house tracking
     private final HashMap<Integer, ItemWatcher> ah = new HashMap<>();
     private int i = 0;
+    private final HashMap<Integer, ClientAdress> houses = new HashMap<>();
+    private long directoryVersion = -1;
+    private long newestChangeSeen = -1;
+    private long requestedSince = -1;
     private double bidAmount;
 
     public boolean hasBankId = false;
@@ -57,23 +63,21 @@ public class Agent implements Runnable {
         try {
             socket = new Socket(bankAddress, bankPort);
             System.out.println("Connected to Bank");
-            inMessage = new ObjectInputStream(socket.getInputStream());
-            outMessage = new ObjectOutputStream(socket.getOutputStream());
+            bank = new FrameStream(socket, true);
 
-            outMessage.writeObject("Agent");
-            outMessage.writeObject(bankBalance);
-            accountId = (int) inMessage.readObject();
+            bank.send("Agent");
+            bank.send(bankBalance);
+            accountId = (int) bank.read();
             System.out.println("Account number: " + accountId);
 
             while (socket.isConnected()) {
-                Object object = inMessage.readObject();
-                if (object instanceof ClientAdress client) {
-                    Socket auctionSocket = new Socket(client.getipAdress(), client.getPortNumber());
-                    System.out.println("Connected to Auction House" + (i + 1) + ".");
-                    ItemWatcher itemWatcher = new ItemWatcher(auctionSocket, i, accountId);
-                    i++;
-                    ah.put(itemWatcher.getItemNo(), itemWatcher);
-                    (new Thread(itemWatcher)).start();
+                Object object = bank.read();
+                if (object instanceof DirectorySnapshot snapshot) {
+                    applyDirectory(snapshot);
+                } else if (object instanceof DirectoryChange change) {
+                    applyChange(change);
+                } else if (object instanceof ClientAdress client) {
+                    connectToHouse(client);
                 } else {
                     setTotalBalance((double) object);
                 }
@@ -86,12 +90,89 @@ public class Agent implements Runnable {
         }
     }
 
+    /**
+     * Takes the whole directory of auction houses: connects to the houses not known yet and
+     * forgets those that are gone. Changes that arrived before it and are newer are asked for again.
+     */
+    private void applyDirectory(DirectorySnapshot snapshot) throws IOException {
+        if (snapshot.getVersion() < directoryVersion) {
+            return;
+        }
+        directoryVersion = snapshot.getVersion();
+        houses.keySet().retainAll(snapshot.getHouses().keySet());
+        for (Map.Entry<Integer, ClientAdress> house : snapshot.getHouses().entrySet()) {
+            if (houses.putIfAbsent(house.getKey(), house.getValue()) == null) {
+                connectToHouse(house.getValue());
+            }
+        }
+        if (newestChangeSeen > directoryVersion) {
+            requestDirectoryChanges();
+        }
+    }
+
+    /**
+     * Applies the next change of the directory, or asks the Bank for the changes since the known
+     * version if one was missed.
+     */
+    private void applyChange(DirectoryChange change) throws IOException {
+        newestChangeSeen = Math.max(newestChangeSeen, change.getVersion());
+        if (directoryVersion < 0 || change.getVersion() <= directoryVersion) {
+            return;
+        }
+        if (change.getVersion() != directoryVersion + 1) {
+            if (requestedSince != directoryVersion) {
+                requestDirectoryChanges();
+            }
+            return;
+        }
+        directoryVersion = change.getVersion();
+        if (change.isJoin()) {
+            if (houses.putIfAbsent(change.getAccount(), change.getAddress()) == null) {
+                connectToHouse(change.getAddress());
+            }
+        } else if (houses.remove(change.getAccount()) != null) {
+            System.out.println("Auction House #" + change.getAccount() + " left.");
+        }
+    }
+
+    /**
+     * Asks the Bank for the directory changes made after the version this agent knows,
+     * e.g. after missing one or reconnecting.
+     */
+    public void requestDirectoryChanges() throws IOException {
+        requestedSince = directoryVersion;
+        bank.send(new DirectoryRequest(directoryVersion));
+    }
+
+    public long getDirectoryVersion() {
+        return directoryVersion;
+    }
+
+    private void connectToHouse(ClientAdress client) {
+        try {
+            Socket auctionSocket = new Socket(client.getipAdress(), client.getPortNumber());
+            System.out.println("Connected to Auction House" + (i + 1) + ".");
+            ItemWatcher itemWatcher = new ItemWatcher(auctionSocket, i, accountId);
+            i++;
+            ah.put(itemWatcher.getItemNo(), itemWatcher);
+            (new Thread(itemWatcher)).start();
+        } catch (IOException e) {
+            System.out.println("Could not connect to Auction House at " + client.getipAdress() + ":"
+                    + client.getPortNumber());
+        }
+    }
+
     /** Sends a bid for a specific item to the corresponding AuctionHouse. */
     public void sendBid(String item, int i) throws IOException {
         availableBalance -= bidAmount;
         ah.get(i).makeABid(item, (int) bidAmount, accountId);
     }
 
+    /** Tells an AuctionHouse which of its items the agent is looking at, so it sends its updates. */
+    public void viewItem(int i, String item) throws IOException {
+        ah.get(i).view(item);
+    }
+
     /** Checks whether this agent owns the current bid on an item. */
     public boolean checkBidOwner(int i, String item) {
         return ah.get(i).getAuctionIsOtherBid(item, accountId);
@@ -179,8 +260,6 @@ public class Agent implements Runnable {
     public void closeSocket() {
         try {
             if (socket != null) {
-                inMessage.close();
-                outMessage.close();
                 socket.close();
             }
         } catch (IOException e) {
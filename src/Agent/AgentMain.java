@@ -127,6 +127,15 @@ public class AgentMain extends Application {
             }
         }
 
+        // Follow the item on screen, so its auction house sends its updates
+        if (mainStage.hasCurrentItem()) {
+            try {
+                agent.viewItem(mainStage.getCurrentAH(), mainStage.getCurrentItem());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
         // Refund rejected or expired bids
         agent.returnRejectedBid();
     }
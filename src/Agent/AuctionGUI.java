@@ -119,6 +119,13 @@ public class AuctionGUI extends VBox {
         return auctionItemPane.get(itemIndex).getCurrentBid();
     }
 
+    /**
+     * Checks whether this auction has no items to show.
+     */
+    public boolean isEmpty() {
+        return auctionItemPane.isEmpty();
+    }
+
     /**
      * Returns the name of the currently selected auction item.
      */
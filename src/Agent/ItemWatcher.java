@@ -2,19 +2,26 @@ package Agent;
 
 import Auctionhouse.AuctionBidManager;
 import Auctionhouse.BidRejection;
+import Auctionhouse.CatalogPage;
+import Auctionhouse.CatalogRequest;
+import Auctionhouse.LotUpdate;
+import Auctionhouse.SettlementNotice;
+import Auctionhouse.SnapshotRequest;
+import Auctionhouse.Subscription;
+import Bank.FrameStream;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * ItemWatcher manages the socket connection between the Agent and a specific Auction House.
  * It listens for incoming item updates or bid results and maintains the auction state for this house.
+ * The house sends the updates of the lots the agent bids on and of the one it is looking at.
  */
 public class ItemWatcher implements Runnable {
     private final Socket socket;
@@ -22,8 +29,10 @@ public class ItemWatcher implements Runnable {
     private final int accountNumber;
     private final HashMap<String, AuctionBidManager> itemsForAuction = new HashMap<>();
     private final HashMap<String, String> auctionUpdate = new HashMap<>();
-    private ObjectOutputStream outMessage;
-    private ObjectInputStream inMessage;
+    private final HashMap<Long, String> lotNames = new HashMap<>();
+    private final HashSet<String> bidOn = new HashSet<>();
+    private FrameStream auctionHouse;
+    private String viewed;
     private double amountReturn;
     private boolean newItemsRegistered, returnApproved;
 
@@ -38,24 +47,38 @@ public class ItemWatcher implements Runnable {
 
     /**
      * Starts listening for auction updates from the AuctionHouse.
-     * Handles new bid states, item updates, and rejections.
+     * Handles new bid states, item updates, and rejections. Accepted bids arrive as LotUpdates;
+     * when one does not follow the known state of its lot, the full state is requested again.
+     * The catalog arrives in pages, and the next page is requested once one has been applied.
+     * The payment for a won lot is confirmed later by a SettlementNotice.
      */
     @Override
     public void run() {
         try {
-            inMessage = new ObjectInputStream(socket.getInputStream());
-            outMessage = new ObjectOutputStream(socket.getOutputStream());
-            outMessage.writeObject(accountNumber);
+            auctionHouse = new FrameStream(socket, true);
+            auctionHouse.send(accountNumber);
 
             while (socket.isConnected()) {
-                Object object = inMessage.readObject();
+                Object object = auctionHouse.read();
                 if (object instanceof AuctionBidManager item) {
-                    updateItemList(item);
-                    auctionUpdate.put(item.getAuctionItemName(), item.getMessage(accountNumber));
-                    if (!item.isBidOver()) {
-                        amountReturn += item.refundBid(accountNumber);
-                        returnApproved = amountReturn != 0;
+                    applyState(item);
+                } else if (object instanceof CatalogPage page) {
+                    for (AuctionBidManager item : page.getLots()) {
+                        applyState(item);
                     }
+                    if (!page.isLast()) {
+                        auctionHouse.send(new CatalogRequest(page.getNextCursor()));
+                    }
+                } else if (object instanceof LotUpdate update) {
+                    String itemName = lotNames.get(update.getLotKey());
+                    AuctionBidManager known = itemName == null ? null : itemsForAuction.get(itemName);
+                    if (known != null && update.follows(known)) {
+                        applyState(update.applyTo(known));
+                    } else if (known == null || update.getVersion() > known.getVersion()) {
+                        auctionHouse.send(new SnapshotRequest(update.getLotKey()));
+                    }
+                } else if (object instanceof SettlementNotice notice) {
+                    updateAuctionUpdate(notice.getItemName(), notice.getMessage());
                 } else {
                     BidRejection rejection = (BidRejection) object;
                     updateAuctionUpdate(rejection.getItemName(), rejection.getMessage());
@@ -68,6 +91,28 @@ public class ItemWatcher implements Runnable {
         }
     }
 
+    /**
+     * Takes a newer state of a lot, either a full snapshot or one built from a LotUpdate, and
+     * returns this agent's standing bid if the new state replaced it.
+     */
+    private void applyState(AuctionBidManager item) {
+        AuctionBidManager known = itemsForAuction.get(item.getAuctionItemName());
+        if (known != null && known.getLotKey() != item.getLotKey()) {
+            known = null;
+        }
+        if (known != null && item.getVersion() <= known.getVersion()) {
+            return;
+        }
+        lotNames.put(item.getLotKey(), item.getAuctionItemName());
+        updateItemList(item);
+        auctionUpdate.put(item.getAuctionItemName(), item.getMessage(accountNumber));
+        if (known != null && known.getCurrentBidderID() == accountNumber
+                && (item.getCurrentBidderID() != accountNumber || item.getCurrentBid() != known.getCurrentBid())) {
+            amountReturn += known.getCurrentBid();
+            returnApproved = true;
+        }
+    }
+
     /**
      * Updates the bid status message for an item.
      */
@@ -134,7 +179,43 @@ public class ItemWatcher implements Runnable {
      * Sends a bid to the Auction House.
      */
     public void makeABid(String item, int amount, int accountNumber) throws IOException {
-        outMessage.writeObject(new AuctionBidManager(itemsForAuction.get(item), amount, accountNumber, false));
+        bidOn.add(item);
+        auctionHouse.send(new AuctionBidManager(itemsForAuction.get(item), amount, accountNumber, false));
+    }
+
+    /**
+     * Starts receiving the updates of one item, or of every item if the name is null.
+     */
+    public void subscribe(String item) throws IOException {
+        auctionHouse.send(new Subscription(lotKeyOf(item), true));
+    }
+
+    /**
+     * Stops receiving the updates of one item, or of every item if the name is null.
+     * New items are still announced.
+     */
+    public void unsubscribe(String item) throws IOException {
+        auctionHouse.send(new Subscription(lotKeyOf(item), false));
+    }
+
+    /**
+     * Follows the item the agent is looking at instead of the one it looked at before, unless
+     * it bid on that one. Subscribing also brings the item's current state.
+     */
+    public void view(String item) throws IOException {
+        if (item.equals(viewed) || !itemsForAuction.containsKey(item)) {
+            return;
+        }
+        String previous = viewed;
+        viewed = item;
+        subscribe(item);
+        if (previous != null && !bidOn.contains(previous) && itemsForAuction.containsKey(previous)) {
+            unsubscribe(previous);
+        }
+    }
+
+    private long lotKeyOf(String item) {
+        return item == null ? Subscription.ALL : itemsForAuction.get(item).getLotKey();
     }
 
     /**
@@ -78,6 +78,14 @@ public class MainStage extends VBox {
         return tabs.get(getCurrentAH()).getCurrentBid();
     }
 
+    /**
+     * Checks whether the active auction tab shows an item.
+     */
+    public boolean hasCurrentItem() {
+        int index = getCurrentAH();
+        return index >= 0 && index < tabs.size() && !tabs.get(index).isEmpty();
+    }
+
     /**
      * Gets the name of the currently selected item in the active auction tab.
      */
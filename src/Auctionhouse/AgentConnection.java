@@ -0,0 +1,385 @@
+package Auctionhouse;
+
+import Bank.FrameStream;
+import Bank.MessageSink;
+import Bank.SharedFrame;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The outbound side of one agent's connection: a bounded queue drained by the connection's own
+ * writer, so an agent that reads slowly only ever holds up itself and never the bid engine shards.
+ * When the queue is full the OverflowPolicy decides what gives; lots whose updates were dropped
+ * are sent as full snapshots of their latest state once the queue has been written out, but only
+ * while the agent is still subscribed to them.
+ * With a conflation window, LotUpdates are held back and only the latest state of each lot is
+ * sent once per window: the update itself if it was the lot's only one, otherwise a snapshot.
+ * Each lot held back takes a place in the queue's capacity, and the policy drops held back
+ * updates like queued ones. Closing snapshots, new lots and rejections never wait for the window,
+ * and a lot's closing snapshot discards the updates still held back for it. The writer waits on a
+ * ReentrantLock condition rather than a monitor, so an idle agent served on a virtual thread
+ * does not pin its carrier thread.
+ */
+public class AgentConnection implements MessageSink, Runnable {
+    private final FrameStream stream;
+    private final Salesman salesman;
+    private final SubscriptionIndex subscriptions;
+    private final int agentId;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long conflationNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final LinkedHashMap<Long, Conflated> conflated = new LinkedHashMap<>();
+    private long flushDue;
+    private final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+    private final LinkedHashSet<Long> staleLots = new LinkedHashSet<>();
+    private boolean resyncAll;
+    private boolean closed;
+    private long evictions;
+    private long conflatedUpdates;
+
+    public AgentConnection(FrameStream stream, Salesman salesman, SubscriptionIndex subscriptions, int agentId,
+                           int capacity, OverflowPolicy policy) {
+        this(stream, salesman, subscriptions, agentId, capacity, policy, 0);
+    }
+
+    /**
+     * @param subscriptions   the lots each agent follows, which decide what a resync sends
+     * @param agentId         the agent this connection writes to
+     * @param conflationNanos how long LotUpdates are held back to be conflated per lot, 0 for never
+     */
+    public AgentConnection(FrameStream stream, Salesman salesman, SubscriptionIndex subscriptions, int agentId,
+                           int capacity, OverflowPolicy policy, long conflationNanos) {
+        this.stream = stream;
+        this.salesman = salesman;
+        this.subscriptions = subscriptions;
+        this.agentId = agentId;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.conflationNanos = conflationNanos;
+    }
+
+    /**
+     * Queues a message that must reach the agent.
+     */
+    @Override
+    public void send(Object message) throws IOException {
+        offer(new Outbound(message, 0));
+    }
+
+    /**
+     * Queues a shared frame that must reach the agent.
+     */
+    @Override
+    public void sendShared(SharedFrame frame) throws IOException {
+        offer(new Outbound(frame, 0));
+    }
+
+    /**
+     * Queues the snapshot of a lot that closed, which must reach the agent. Updates of the lot
+     * that are still held back or waiting for a resync are dropped, as the snapshot is newer.
+     */
+    public void sendClosing(long lotKey, SharedFrame frame) throws IOException {
+        lock.lock();
+        try {
+            Conflated pending = conflated.remove(lotKey);
+            if (pending != null) {
+                conflatedUpdates += pending.count;
+            }
+            staleLots.remove(lotKey);
+            offer(new Outbound(frame, 0));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a LotUpdate, which may be replaced by a snapshot of the lot if the agent falls behind.
+     */
+    public void sendUpdate(long lotKey, SharedFrame frame) throws IOException {
+        if (conflationNanos > 0) {
+            conflate(lotKey, frame);
+            return;
+        }
+        offer(new Outbound(frame, lotKey));
+    }
+
+    private void conflate(long lotKey, SharedFrame frame) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Agent connection closed");
+            }
+            Conflated pending = conflated.get(lotKey);
+            if (pending != null) {
+                pending.frame = frame;
+                pending.count++;
+                conflatedUpdates++;
+                return;
+            }
+            if (!admit(lotKey)) {
+                return;
+            }
+            if (conflated.isEmpty()) {
+                flushDue = System.nanoTime() + conflationNanos;
+                ready.signal();
+            }
+            conflated.put(lotKey, new Conflated(frame));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void offer(Outbound outbound) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Agent connection closed");
+            }
+            if (!admit(outbound.lotKey)) {
+                return;
+            }
+            queue.add(outbound);
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes room for one more message or held back lot, closing the connection if the policy
+     * cannot. Called with the lock held.
+     *
+     * @param lotKey the lot of a LotUpdate, or 0 for a message that must reach the agent
+     * @return false if the LotUpdate is dropped because its lot will be resynced anyway
+     */
+    private boolean admit(long lotKey) throws IOException {
+        if (lotKey != 0 && (resyncAll || staleLots.contains(lotKey))) {
+            evictions++;
+            return false;
+        }
+        if (queue.size() + conflated.size() >= capacity) {
+            overflow();
+            if (lotKey != 0 && (resyncAll || staleLots.contains(lotKey))) {
+                evictions++;
+                return false;
+            }
+            if (queue.size() + conflated.size() >= capacity) {
+                closeQuietly();
+                throw new IOException("Agent connection closed: outbound queue full");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes room according to the policy. Only LotUpdates are ever removed, queued or held back.
+     */
+    private void overflow() {
+        if (policy == OverflowPolicy.DISCONNECT) {
+            return;
+        }
+        Iterator<Outbound> entries = queue.iterator();
+        while (entries.hasNext()) {
+            Outbound entry = entries.next();
+            if (entry.lotKey != 0) {
+                entries.remove();
+                evictions++;
+                if (policy == OverflowPolicy.CONFLATE) {
+                    staleLots.add(entry.lotKey);
+                }
+            }
+        }
+        evictions += conflated.size();
+        if (policy == OverflowPolicy.CONFLATE) {
+            staleLots.addAll(conflated.keySet());
+        }
+        conflated.clear();
+        if (policy == OverflowPolicy.DROP_AND_RESYNC) {
+            resyncAll = true;
+            staleLots.clear();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Outbound next;
+                Long[] lots = null;
+                boolean all = false;
+                Conflated[] window = null;
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && staleLots.isEmpty() && !resyncAll && !closed && !flushDue()) {
+                        if (conflated.isEmpty()) {
+                            ready.await();
+                        } else {
+                            ready.awaitNanos(flushDue - System.nanoTime());
+                        }
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    if (flushDue()) {
+                        window = conflated.values().toArray(new Conflated[0]);
+                        conflated.clear();
+                    }
+                    next = window == null ? queue.poll() : null;
+                    if (next == null) {
+                        all = resyncAll;
+                        lots = staleLots.toArray(new Long[0]);
+                        resyncAll = false;
+                        staleLots.clear();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (window != null) {
+                    flush(window);
+                } else if (next != null) {
+                    write(next);
+                } else if (all) {
+                    for (AuctionBidManager item : salesman.getValues()) {
+                        if (subscriptions.isSubscribed(agentId, item.getLotKey())) {
+                            stream.send(item);
+                        }
+                    }
+                } else {
+                    for (long lotKey : lots) {
+                        AuctionBidManager item = salesman.getItemByKey(lotKey);
+                        if (item != null && subscriptions.isSubscribed(agentId, lotKey)) {
+                            stream.send(item);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            closeQuietly();
+        }
+    }
+
+    private boolean flushDue() {
+        return !conflated.isEmpty() && System.nanoTime() - flushDue >= 0;
+    }
+
+    /**
+     * Sends the latest state of every lot updated during the window.
+     */
+    private void flush(Conflated[] window) throws IOException {
+        for (Conflated lot : window) {
+            if (lot.count == 1) {
+                stream.sendShared(lot.frame);
+                continue;
+            }
+            AuctionBidManager item = salesman.getItemByKey(((LotUpdate) lot.frame.getMessage()).getLotKey());
+            if (item != null) {
+                stream.send(item);
+            }
+        }
+    }
+
+    private void write(Outbound outbound) throws IOException {
+        if (outbound.message instanceof SharedFrame frame) {
+            stream.sendShared(frame);
+        } else {
+            stream.send(outbound.message);
+        }
+    }
+
+    /**
+     * Stops the writer and closes the agent's socket, which also ends its ClientHandler.
+     */
+    public void close() {
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.clear();
+            conflated.clear();
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns how many messages wait to be written, counting each lot with held back updates once.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size() + conflated.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many LotUpdates were replaced by a later one within the conflation window.
+     */
+    public long getConflatedUpdates() {
+        lock.lock();
+        try {
+            return conflatedUpdates;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * The latest LotUpdate of a lot during the current window, and how many it replaced plus one.
+     */
+    private static final class Conflated {
+        private SharedFrame frame;
+        private int count = 1;
+
+        private Conflated(SharedFrame frame) {
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * One queued message; lotKey is 0 unless it is a LotUpdate that may be dropped.
+     */
+    private static final class Outbound {
+        private final Object message;
+        private final long lotKey;
+
+        private Outbound(Object message, long lotKey) {
+            this.message = message;
+            this.lotKey = lotKey;
+        }
+    }
+}
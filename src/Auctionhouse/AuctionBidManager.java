@@ -2,26 +2,29 @@ package Auctionhouse;
 /**
  * CS-351L
  *  Manages bidding state for a single auction item, tracking current and previous bids
- *  bidders, and timing for bid expiration.
+ *  and bidders. Inside the auction house an AuctionBidManager is a flyweight view over a row
+ *  of the LotStore; anywhere else (agents, messages on the wire) it carries its own immutable
+ *  BidState. Either way bids are accepted atomically and readers never see a torn price/bidder pair.
  */
 
 import Agent.BidMessage;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class AuctionBidManager implements Serializable {
 
     @Serial
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 5L;
+    private static final AtomicReferenceFieldUpdater<AuctionBidManager, BidState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(AuctionBidManager.class, BidState.class, "state");
     private final String auctionItemName;
-    private Integer currentBid;
-    private Integer previousBid;
-    private Integer currentBidderID;
-    private Integer previousBidderId;
-    private transient int remainingTime;
-    private transient boolean timeStarted;
-    private boolean bidOver;
+    private final long lotKey;
+    private volatile BidState state;
+    private transient volatile LotStore store;
+    private transient int lotId;
+    private transient int generation;
 
     /**
      * Constructs a new bid manager for an auction item with an initial starting bid.
@@ -31,24 +34,12 @@ public class AuctionBidManager implements Serializable {
      */
 
     public AuctionBidManager(String auctionItem, int startingBid) {
-        this.auctionItemName = auctionItem;
-        currentBid = startingBid;
-        currentBidderID = 0;
-        previousBid = 0;
-        previousBidderId = 0;
-        bidOver = false;
-        remainingTime = 30;
+        this(auctionItem, new BidState(startingBid, 0, 0, 0, false, 0));
     }
 
     public AuctionBidManager(AuctionBidManager pastBid, int currentBid,
                              int currentBidderID, boolean bidOver) {
-        auctionItemName = pastBid.getAuctionItemName();
-        previousBid = (int)pastBid.getCurrentBid();
-        previousBidderId = pastBid.getCurrentBidderID();
-        this.currentBid = currentBid;
-        this.currentBidderID = currentBidderID;
-        this.bidOver = bidOver;
-        remainingTime = 30;
+        this(pastBid.getAuctionItemName(), pastBid.getLotKey(), pastBid.getState().next(currentBid, currentBidderID, bidOver));
     }
 
     /**
@@ -59,27 +50,67 @@ public class AuctionBidManager implements Serializable {
      */
 
     public AuctionBidManager(AuctionBidManager pastBid, boolean bidOver) {
-        auctionItemName = pastBid.getAuctionItemName();
-        previousBid = (int) pastBid.getPreviousBid();
-        previousBidderId = pastBid.getPreviousBidderId();
-        this.currentBid = (int) pastBid.getCurrentBid();
-        this.currentBidderID = pastBid.getCurrentBidderID();
-        this.bidOver = bidOver;
-        remainingTime = 30;
+        this(pastBid.getAuctionItemName(), pastBid.getLotKey(), pastBid.getState().withBidOver(bidOver));
+    }
+
+    /**
+     * Wraps an existing state snapshot, e.g. to send an accepted bid to the agents.
+     *
+     * @param auctionItem name of the item being auctioned
+     * @param state       bidding state of the item
+     */
+
+    public AuctionBidManager(String auctionItem, BidState state) {
+        this(auctionItem, 0, state);
+    }
+
+    /**
+     * Wraps a state snapshot of a lot the agents know by its key.
+     *
+     * @param auctionItem name of the item being auctioned
+     * @param lotKey      key of the lot in its auction house, 0 if unknown
+     * @param state       bidding state of the item
+     */
+
+    public AuctionBidManager(String auctionItem, long lotKey, BidState state) {
+        this.auctionItemName = auctionItem;
+        this.lotKey = lotKey;
+        this.state = state;
+    }
+
+    /**
+     * Creates a view over a lot kept in the store. Views are made on demand by the store and
+     * answer with the given state once the lot has left it.
+     *
+     * @param auctionItem name of the item being auctioned
+     * @param store       store holding the lot
+     * @param lotId       row of the lot in the store
+     * @param generation  generation of the row when the lot was added
+     * @param state       state of the lot when the view was made
+     */
+
+    AuctionBidManager(String auctionItem, LotStore store, int lotId, int generation, BidState state) {
+        this.auctionItemName = auctionItem;
+        this.lotKey = (long) (generation + 1) << 32 | (lotId & 0xFFFFFFFFL);
+        this.state = state;
+        this.store = store;
+        this.lotId = lotId;
+        this.generation = generation;
     }
 
     public String getMessage(int agentId) {
-        if (currentBidderID.equals(0)) return "No bid.";
-        if (bidOver) {
-            if (currentBidderID.equals(agentId)) {
+        BidState current = getState();
+        if (current.currentBidderID == 0) return "No bid.";
+        if (current.bidOver) {
+            if (current.currentBidderID == agentId) {
                 return BidMessage.WINNER.getMessage();
             } else {
                 return BidMessage.LOSER.getMessage();
             }
         } else {
-            if (currentBidderID.equals(agentId)) {
+            if (current.currentBidderID == agentId) {
                 return BidMessage.ACCEPTED.getMessage();
-            } else if (previousBidderId.equals(agentId)) {
+            } else if (current.previousBidderId == agentId) {
                 return BidMessage.OUTBID.getMessage();
             }
         }
@@ -87,28 +118,60 @@ public class AuctionBidManager implements Serializable {
     }
 
     /**
-     * Updates the bid state with a new bid amount and bidder.
-     * Resets the countdown timer.
+     * Atomically places a bid if it beats the current highest bid and bidding is still open.
      *
-     * @param currentBidderID account ID of the new highest bidder
-     * @param currentBid new highest bid amount
+     * @param bidderID account ID of the bidder
+     * @param amount   amount offered
+     * @return the new state if the bid was accepted, or null if it was rejected
      */
 
-    public void updateBid(Integer currentBidderID, Integer currentBid) {
-        previousBidderId = this.currentBidderID;
-        previousBid = this.currentBid;
-        this.currentBidderID = currentBidderID;
-        this.currentBid = currentBid;
-        remainingTime = 30;
-        timeStarted = true;
+    public BidState tryPlaceBid(int bidderID, int amount) {
+        LotStore lots = store;
+        if (lots != null) {
+            return lots.tryPlaceBid(lotId, generation, bidderID, amount);
+        }
+        while (true) {
+            BidState current = state;
+            if (current.bidOver || amount <= current.currentBid) {
+                return null;
+            }
+            BidState next = current.next(amount, bidderID, false);
+            if (STATE.compareAndSet(this, current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Atomically ends the bidding on this item.
+     *
+     * @return the final state, or null if bidding was already over
+     */
+
+    public BidState close() {
+        LotStore lots = store;
+        if (lots != null) {
+            return lots.setBidOver(lotId, generation, true);
+        }
+        while (true) {
+            BidState current = state;
+            if (current.bidOver) {
+                return null;
+            }
+            BidState closed = current.withBidOver(true);
+            if (STATE.compareAndSet(this, current, closed)) {
+                return closed;
+            }
+        }
     }
 
     public double refundBid(int agentID) {
-        if (currentBidderID.equals(agentID) && bidOver) {
+        BidState current = getState();
+        if (current.currentBidderID == agentID && current.bidOver) {
             return 0;
         }
-        if (previousBidderId.equals(agentID)) {
-            return previousBid;
+        if (current.previousBidderId == agentID) {
+            return current.previousBid;
         }
         return 0;
     }
@@ -117,44 +180,146 @@ public class AuctionBidManager implements Serializable {
         return auctionItemName;
     }
 
+    /**
+     * Returns the current state, read consistently from the store when this is a view.
+     */
+    public BidState getState() {
+        LotStore lots = store;
+        if (lots != null) {
+            BidState current = lots.read(lotId, generation);
+            if (current != null) {
+                return current;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Freezes a view with its last state before the lot leaves the store,
+     * so references that are still around keep answering.
+     */
+    void detach() {
+        LotStore lots = store;
+        if (lots == null) {
+            return;
+        }
+        BidState last = lots.read(lotId, generation);
+        if (last != null) {
+            state = last;
+        }
+        store = null;
+    }
+
+    /**
+     * Returns the key that names this lot in LotUpdates: its store row and the row's generation,
+     * so a reused row gets a new key. Never 0 for a lot of an auction house.
+     */
+    public long getLotKey() {
+        return lotKey;
+    }
+
+    /**
+     * Views are sent as a detached snapshot of their current state.
+     */
+    @Serial
+    private Object writeReplace() {
+        if (store == null) {
+            return this;
+        }
+        return new AuctionBidManager(auctionItemName, lotKey, getState());
+    }
+
     public double getCurrentBid() {
-        return currentBid;
+        return getState().currentBid;
     }
 
     public double getPreviousBid() {
-        return previousBid;
+        return getState().previousBid;
     }
 
     public Integer getCurrentBidderID() {
-        return currentBidderID;
+        return getState().currentBidderID;
     }
 
     public Integer getPreviousBidderId() {
-        return previousBidderId;
+        return getState().previousBidderId;
     }
 
-    public int getRemainingTime() {
-        return remainingTime;
-    }
-
-    public boolean isTimeStarted() {
-        return timeStarted;
+    public long getVersion() {
+        return getState().version;
     }
 
     public boolean isOtherBidder(int accountNumber) {
-        return currentBidderID.equals(accountNumber);
+        return getState().currentBidderID == accountNumber;
     }
 
     public boolean isBidOver() {
-        return bidOver;
+        return getState().bidOver;
     }
 
     public void setBidOver(boolean bidOver) {
-        this.bidOver = bidOver;
+        LotStore lots = store;
+        if (lots != null) {
+            lots.setBidOver(lotId, generation, bidOver);
+            return;
+        }
+        STATE.updateAndGet(this, current -> current.bidOver == bidOver ? current : current.withBidOver(bidOver));
     }
 
-    public synchronized void timeOver() {
-        if (!timeStarted) return;
-        --remainingTime;
+    /**
+     * Immutable snapshot of an item's bidding state. Every change produces a new
+     * snapshot with a higher version, which lets agents order updates for the same item.
+     */
+    public static final class BidState implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final int currentBid;
+        private final int currentBidderID;
+        private final int previousBid;
+        private final int previousBidderId;
+        private final boolean bidOver;
+        private final long version;
+
+        public BidState(int currentBid, int currentBidderID, int previousBid, int previousBidderId,
+                        boolean bidOver, long version) {
+            this.currentBid = currentBid;
+            this.currentBidderID = currentBidderID;
+            this.previousBid = previousBid;
+            this.previousBidderId = previousBidderId;
+            this.bidOver = bidOver;
+            this.version = version;
+        }
+
+        private BidState next(int bid, int bidderID, boolean over) {
+            return new BidState(bid, bidderID, currentBid, currentBidderID, over, version + 1);
+        }
+
+        private BidState withBidOver(boolean over) {
+            return new BidState(currentBid, currentBidderID, previousBid, previousBidderId, over, version + 1);
+        }
+
+        public int getCurrentBid() {
+            return currentBid;
+        }
+
+        public int getCurrentBidderID() {
+            return currentBidderID;
+        }
+
+        public int getPreviousBid() {
+            return previousBid;
+        }
+
+        public int getPreviousBidderId() {
+            return previousBidderId;
+        }
+
+        public boolean isBidOver() {
+            return bidOver;
+        }
+
+        public long getVersion() {
+            return version;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,32 +1,53 @@
 package Auctionhouse;
 
 import Bank.ClientAdress;
+import Bank.FrameStream;
+import Bank.HoldResult;
+import Bank.SettlementAck;
 
 import java.io.*;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Scanner;
+import java.net.SocketException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * CS-351
  * Represents a distributed Auction House that registers with the central Bank,
- * Accepts auction items from a file, and handles incoming Agent connections
+ * Streams auction items from a memory-mapped file, and handles incoming Agent connections
  * To manage and communicate live bidding information.
  */
 public class AuctionHouse implements Runnable{
+    private static final int RING_SIZE = 4096;
+    private static final int LOT_CAPACITY = 1 << 16;
+    private static final int OUTBOUND_CAPACITY = 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
     private Socket socket;
     private ServerSocket server;
-    private HashMap<Integer, ObjectOutputStream> agents = new HashMap<>();
-    private Items items = new Items();
+    private ConcurrentHashMap<Integer, AgentConnection> agents = new ConcurrentHashMap<>();
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final Set<Socket> agentSockets = ConcurrentHashMap.newKeySet();
+    private ExecutorService connections;
+    private final OverflowPolicy overflowPolicy;
+    private volatile long conflationNanos;
     private Salesman salesman;
-    private Client client;
+    private BidEngine client;
+    private SettlementPipeline settlements;
+    private FundHolds holds;
     private int bankId;
     private String currentBids;
     /**
-     * Constructs an AuctionHouse, loads items from a file, connects to the Bank,
+     * Constructs an AuctionHouse, maps the items file, connects to the Bank,
      * registers this AuctionHouse, and starts client and salesman threads.
      *
      * @param serverIp   IP address of the Bank server to connect to
@@ -35,30 +56,51 @@ public class AuctionHouse implements Runnable{
      */
 
     public AuctionHouse(String serverIp, int serverPort, String allItems){
-        try{
-            File itemList = new File(allItems);
+        this(serverIp, serverPort, allItems, Runtime.getRuntime().availableProcessors(), WaitStrategy.PARK, false,
+                OverflowPolicy.CONFLATE);
+    }
 
-            Scanner scan = new Scanner(itemList);
-            while (scan.hasNext()){
-                AuctionBidManager auctionItems = new AuctionBidManager(scan.nextLine(), 50);
-                items.add(auctionItems);
-            }
-            Collections.shuffle(items);
-            scan.close();
+    /**
+     * Constructs an AuctionHouse whose bids are processed by the given number of shards.
+     *
+     * @param serverIp   IP address of the Bank server to connect to
+     * @param serverPort Port number of the Bank server
+     * @param allItems   Path to the text file listing auction item names
+     * @param shardCount number of bid engine shards (threads) to partition the lots over
+     * @param waitStrategy how the shards and bid producers wait on the ring buffers
+     * @param virtualThreads true to run the acceptor and every agent connection on virtual threads
+     * @param overflowPolicy what an agent's outbound queue does when the agent falls behind
+     */
+
+    public AuctionHouse(String serverIp, int serverPort, String allItems, int shardCount,
+                        WaitStrategy waitStrategy, boolean virtualThreads, OverflowPolicy overflowPolicy){
+        this.overflowPolicy = overflowPolicy;
+        connections = newConnectionExecutor(virtualThreads);
+        try{
+            CatalogLoader catalog = new CatalogLoader(Path.of(allItems));
 
             socket = new Socket(serverIp, serverPort);
 
-            ObjectOutputStream bankWriter = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream bankReader = new ObjectInputStream(socket.getInputStream());
+            FrameStream bankWriter = new FrameStream(socket, true);
 
-            bankWriter.writeObject("auction");
-            server = new ServerSocket(5090);
-            bankWriter.writeObject(new ClientAdress(InetAddress.getLocalHost().getHostName(), server.getLocalPort()));
+            bankWriter.send("auction");
+            server = new ServerSocket(5090, ACCEPT_BACKLOG);
+            bankWriter.send(new ClientAdress(InetAddress.getLocalHost().getHostName(), server.getLocalPort()));
 //            bankWriter.writeObject(new ClientAdress("DEIMOS", 5090));//InetAddress.getLocalHost().getHostAddress(), server.getLocalPort()));
-            this.bankId = (Integer) bankReader.readObject();
+            bankWriter.send(identity(Path.of(allItems + ".house")));
+            this.bankId = (Integer) bankWriter.read();
 
-            client = new Client(agents, bankWriter, bankId);
-            salesman = new Salesman(client, items);
+            settlements = new SettlementPipeline(bankWriter, bankId, agents);
+            settlements.start();
+            holds = new FundHolds(bankWriter);
+            holds.start();
+            Thread bankReader = new Thread(() -> readBank(bankWriter));
+            bankReader.setName("Bank-reader");
+            bankReader.setDaemon(true);
+            bankReader.start();
+            client = new BidEngine(agents, subscriptions, settlements, holds, shardCount, RING_SIZE, waitStrategy);
+            LotStore store = new LotStore(LOT_CAPACITY, false);
+            salesman = new Salesman(client, catalog, store);
             client.setSalesman(salesman);
             salesman.getSelleableItems();
             salesman.getSelleableItems();
@@ -66,9 +108,7 @@ public class AuctionHouse implements Runnable{
 
             System.out.println(salesman);
 
-            Thread thread = new Thread(client);
-            thread.setName("Client");
-            thread.start();
+            client.start();
 
             Thread salesmanThread = new Thread(salesman);
             salesmanThread.setName("Salesman");
@@ -78,38 +118,172 @@ public class AuctionHouse implements Runnable{
         }
     }
 
+    /**
+     * Holds back price updates to agents that connect from now on and sends only the latest
+     * state of each lot once per window; 0 sends every update (the default).
+     *
+     * @param millis length of the conflation window, e.g. 5 to 20 ms
+     */
+    public void setConflationWindow(long millis) {
+        this.conflationNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Reads the Bank's answers to settlements and holds and hands each to the one waiting for it.
+     */
+    private void readBank(FrameStream bank) {
+        try {
+            while (true) {
+                Object message = bank.read();
+                if (message instanceof SettlementAck ack) {
+                    settlements.complete(ack);
+                } else if (message instanceof HoldResult result) {
+                    holds.complete(result);
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            System.out.println("Bank Closed");
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts accepting agents on the connection executor.
+     */
+    public void start() {
+        connections.execute(this);
+    }
+
     /**
      * Listens for incoming Agent connections and dispatches each to its own handler.
-     * Continuously accepts client sockets and sends the current auction state.
+     * The acceptor only accepts; sending the current auction state happens on the agent's own task.
      */
 
     @Override
     public void run() {
 
-        while (socket.isConnected()){
+        while (socket.isConnected() && !server.isClosed()){
             try {
                 Socket clientSocket = server.accept();
                 System.out.println("Connected to Agent");
+                agentSockets.add(clientSocket);
+                connections.execute(() -> serveAgent(clientSocket));
+            }catch(IOException e){
+                if (!server.isClosed()){
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
-                ObjectOutputStream writer = new ObjectOutputStream(clientSocket.getOutputStream());
-                ObjectInputStream reader = new ObjectInputStream(clientSocket.getInputStream());
+    /**
+     * Registers one agent, sends it the first page of the items currently for sale, then reads
+     * its bids and requests for further pages until it disconnects. Everything sent to the agent goes through its AgentConnection,
+     * whose writer runs as a separate task. The agent starts out subscribed to no lot; it hears
+     * about the lots it subscribes to or bids on, and about newly drawn lots.
+     */
+    private void serveAgent(Socket clientSocket) {
+        AgentConnection connection = null;
+        int id = 0;
+        try {
+            FrameStream stream = new FrameStream(clientSocket);
 
-                int id = (Integer) reader.readObject();
-                System.out.println("ID#" + id);
-                agents.put(id, writer);
+            id = (Integer) stream.read();
+            System.out.println("ID#" + id);
+            connection = new AgentConnection(stream, salesman, subscriptions, id, OUTBOUND_CAPACITY, overflowPolicy,
+                    conflationNanos);
+            connections.execute(connection);
+            agents.put(id, connection);
 
-                for (AuctionBidManager bidItem : salesman.values()) {
-                    writer.writeObject(bidItem);
-                    System.out.println(bidItem.getAuctionItemName() + "was sent to agent");
-                }
-                ClientHandler handler = new ClientHandler(clientSocket, salesman, client, reader, agents, id);
-                (new Thread(handler)).start();
-            }catch(IOException | ClassNotFoundException e){
-                e.printStackTrace();
+            connection.send(salesman.getPage(0, CatalogPage.PAGE_SIZE));
+            System.out.println("First catalog page was sent to agent");
+            ClientHandler handler = new ClientHandler(clientSocket, salesman, client, stream, agents, connection,
+                    subscriptions, holds, id);
+            handler.run();
+        }catch(IOException | ClassNotFoundException e){
+            e.printStackTrace();
+        }finally{
+            agentSockets.remove(clientSocket);
+            if (connection != null) {
+                agents.remove(id, connection);
+                subscriptions.unsubscribe(id, Subscription.ALL);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Prints how full each agent's outbound queue is and how many updates it has dropped,
+     * and how far the settlement of closed lots has got.
+     */
+    public void printOutboundStats() {
+        for (Map.Entry<Integer, AgentConnection> agent : agents.entrySet()) {
+            System.out.println("Agent #" + agent.getKey() + ": queue depth " + agent.getValue().getQueueDepth()
+                    + ", evictions " + agent.getValue().getEvictions()
+                    + ", conflated " + agent.getValue().getConflatedUpdates());
+        }
+        System.out.println("Settlements: " + settlements.getSettled() + " settled, " + settlements.getRefused()
+                + " refused, " + settlements.getPending() + " pending, " + settlements.getRetries() + " retries");
+    }
+
+    /**
+     * Stops accepting agents, closes every agent connection and waits for their tasks to end.
+     */
+    public void shutdown() {
+        try {
+            server.close();
+            for (Socket agentSocket : agentSockets) {
+                agentSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connections.shutdownNow();
+        try {
+            if (!connections.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.out.println("Agent connections did not stop in time");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
+
     public int getBankId(){
         return this.bankId;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the identity this house registers with at the Bank, kept in the given file so the
+     * house gets its account back when the Bank restarts. A new one is made and saved the first
+     * time; if the file cannot be read or written the house registers as a new one.
+     */
+    private static String identity(Path file) {
+        try {
+            if (Files.exists(file)) {
+                return Files.readString(file).trim();
+            }
+            String identity = UUID.randomUUID().toString();
+            Files.writeString(file, identity);
+            return identity;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    /**
+     * Uses a virtual thread per task when asked and the runtime supports it (Java 21+),
+     * otherwise a pool of platform threads that grows with the number of agents.
+     */
+    private static ExecutorService newConnectionExecutor(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                System.out.println("Virtual threads are not available, using platform threads");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+}
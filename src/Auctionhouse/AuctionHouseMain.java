@@ -1,6 +1,7 @@
 package Auctionhouse;
 import javafx.application.Application;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.layout.FlowPane;
 import javafx.stage.Stage;
@@ -21,7 +22,8 @@ public class AuctionHouseMain extends Application {
 
     /**
      * Initializes the JavaFX stage, reads command-line arguments for Bank connection,
-     * starts the AuctionHouse server thread, and displays the Bank-assigned ID.
+     * starts the AuctionHouse server thread, and displays the Bank-assigned ID and a button that
+     * prints the agents' outbound queues and the settlement progress to the console.
      *
      * @param primaryStage the main window for this application
      * @throws Exception if errors occur while parsing arguments or starting the server
@@ -39,11 +41,32 @@ public class AuctionHouseMain extends Application {
         port = Integer.parseInt(args[1]);  //bank port no
         inventory = args[2]; //.txt file of inventory
 
-        AuctionHouse auctionHouse = new AuctionHouse(ip, port, inventory);
-        (new Thread(auctionHouse)).start();
+        AuctionHouse auctionHouse;
+        if (args.length > 3 && args[3] != null) {
+            WaitStrategy waitStrategy = WaitStrategy.PARK;
+            if (args.length > 4 && args[4] != null) {
+                waitStrategy = WaitStrategy.valueOf(args[4]); //BUSY_SPIN, YIELD or PARK
+            }
+            boolean virtualThreads = args.length > 5 && "virtual".equals(args[5]); //agent connection threads
+            OverflowPolicy overflowPolicy = OverflowPolicy.CONFLATE;
+            if (args.length > 6 && args[6] != null) {
+                overflowPolicy = OverflowPolicy.valueOf(args[6]); //CONFLATE, DROP_AND_RESYNC or DISCONNECT
+            }
+            auctionHouse = new AuctionHouse(ip, port, inventory,
+                    Integer.parseInt(args[3]), waitStrategy, virtualThreads, overflowPolicy); //bid engine shards
+            if (args.length > 7 && args[7] != null) {
+                auctionHouse.setConflationWindow(Long.parseLong(args[7])); //milliseconds
+            }
+        } else {
+            auctionHouse = new AuctionHouse(ip, port, inventory);
+        }
+        auctionHouse.start();
         Label idLabel = new Label("Bank ID#: " + auctionHouse.getBankId());
-        pane.getChildren().addAll(idLabel);
+        Button statsButton = new Button("Print stats");
+        statsButton.setOnAction(event -> auctionHouse.printOutboundStats());
+        pane.getChildren().addAll(idLabel, statsButton);
         primaryStage.setOnCloseRequest(event -> {
+            auctionHouse.shutdown();
             System.exit(0);
         });
 
@@ -0,0 +1,95 @@
+package Auctionhouse;
+
+import Auctionhouse.AuctionBidManager.BidState;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Partitions the auction lots across several Client shards so unrelated lots settle in parallel.
+ * Each lot is hashed by its item name to exactly one shard, and every shard owns its own queue
+ * and thread, so all bids on one lot are still handled in order by a single writer.
+ * Accepted bids and expiries are handed to the shards through preallocated ring buffers.
+ */
+public class BidEngine {
+    private final Client[] shards;
+    private final SubscriptionIndex subscriptions;
+    private final FundHolds holds;
+    private Salesman salesman;
+
+    public BidEngine(ConcurrentHashMap<Integer, AgentConnection> agents, SubscriptionIndex subscriptions,
+                     SettlementPipeline settlements, FundHolds holds, int shardCount, int ringSize, WaitStrategy waitStrategy) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        this.subscriptions = subscriptions;
+        this.holds = holds;
+        shards = new Client[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Client(agents, subscriptions, settlements, holds, new BidRingBuffer(ringSize, waitStrategy));
+        }
+    }
+
+    public void setSalesman(Salesman salesman) {
+        this.salesman = salesman;
+        for (Client shard : shards) {
+            shard.setSalesman(salesman);
+        }
+    }
+
+    /**
+     * Starts one thread per shard.
+     */
+    public void start() {
+        for (int i = 0; i < shards.length; i++) {
+            Thread thread = new Thread(shards[i]);
+            thread.setName("Client-" + i);
+            thread.start();
+        }
+    }
+
+    /**
+     * Places a bid directly on the item with a compare-and-set, then queues the accepted state
+     * on the shard that owns the item for broadcasting as a LotUpdate. Agents order the updates
+     * of one item by the version of its state. A bidder is subscribed to the lot it bid on.
+     * The hold placed for an accepted bid becomes the lot's standing hold, and the hold of
+     * the bid it outbid is released.
+     *
+     * @param auctionItemName name of the item bid on
+     * @param bidderId        account ID of the bidding agent
+     * @param amount          amount offered
+     * @param holdId          the hold placed at the Bank for the amount
+     * @return true if the bid was accepted, false if the item is gone or the bid is too low
+     */
+    public boolean placeBid(String auctionItemName, int bidderId, int amount, long holdId) {
+        AuctionBidManager item = salesman.getItem(auctionItemName);
+        if (item == null) {
+            return false;
+        }
+        BidState accepted = item.tryPlaceBid(bidderId, amount);
+        if (accepted == null) {
+            return false;
+        }
+        holds.accepted(item.getLotKey(), accepted.getVersion(), holdId, bidderId);
+        salesman.startBidTimer(auctionItemName);
+        subscriptions.subscribe(bidderId, item.getLotKey(), lotKey -> salesman.getItemByKey(lotKey) != null);
+        shardFor(auctionItemName).addAccepted(auctionItemName, item.getLotKey(), accepted);
+        return true;
+    }
+
+    /**
+     * Tells the shard that owns the item that its bidding time is over.
+     *
+     * @param auctionItemName name of the expired lot
+     */
+    public void addBidOver(String auctionItemName) {
+        shardFor(auctionItemName).addBidOver(auctionItemName);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private Client shardFor(String auctionItemName) {
+        return shards[Math.floorMod(auctionItemName.hashCode(), shards.length)];
+    }
+}
@@ -0,0 +1,49 @@
+package Auctionhouse;
+
+import Auctionhouse.AuctionBidManager.BidState;
+
+/**
+ * A reusable slot of the BidRingBuffer. Producers fill it in place instead of allocating
+ * a new object per bid, and the consuming shard reads it before handing the slot back.
+ */
+public class BidEvent {
+    private String auctionItemName;
+    private long lotKey;
+    private BidState state;
+    private boolean bidOver;
+
+    /**
+     * Fills this slot with a bid that was already accepted on the item and must be broadcast.
+     */
+    public void setAccepted(String auctionItemName, long lotKey, BidState state) {
+        this.auctionItemName = auctionItemName;
+        this.lotKey = lotKey;
+        this.state = state;
+        this.bidOver = false;
+    }
+
+    /**
+     * Fills this slot with the notice that a lot's bidding time ran out.
+     */
+    public void setBidOver(String auctionItemName) {
+        this.auctionItemName = auctionItemName;
+        this.state = null;
+        this.bidOver = true;
+    }
+
+    public String getAuctionItemName() {
+        return auctionItemName;
+    }
+
+    public long getLotKey() {
+        return lotKey;
+    }
+
+    public BidState getState() {
+        return state;
+    }
+
+    public boolean isBidOver() {
+        return bidOver;
+    }
+}
@@ -0,0 +1,84 @@
+package Auctionhouse;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated multi-producer, single-consumer ring of BidEvent slots.
+ * Producers (agent handlers and the Salesman) claim a sequence, fill the slot and publish it;
+ * the owning shard takes the events in sequence order and releases each slot once it is done.
+ * The capacity must be a power of two so a sequence maps to its slot with a mask.
+ */
+public class BidRingBuffer {
+    private final BidEvent[] slots;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private long nextSequence = 0;
+
+    public BidRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.slots = new BidEvent[capacity];
+        this.published = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new BidEvent();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Claims the next sequence, waiting while the ring is full.
+     *
+     * @return the claimed sequence; the caller must fill get(sequence) and then publish it
+     */
+    public long claim() {
+        long sequence = claimed.incrementAndGet();
+        long wrapPoint = sequence - slots.length;
+        while (wrapPoint > consumed.get()) {
+            waitStrategy.idle();
+        }
+        return sequence;
+    }
+
+    public BidEvent get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    /**
+     * Makes a filled slot visible to the consumer.
+     */
+    public void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+    }
+
+    /**
+     * Waits for the next event in sequence order. Only the owning shard may call this.
+     *
+     * @return the slot holding the event; it stays valid until release() is called
+     */
+    public BidEvent take() {
+        int index = (int) nextSequence & mask;
+        while (published.get(index) != nextSequence) {
+            waitStrategy.idle();
+        }
+        return slots[index];
+    }
+
+    /**
+     * Hands the slot returned by the last take() back to the producers.
+     */
+    public void release() {
+        consumed.lazySet(nextSequence);
+        nextSequence++;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+}
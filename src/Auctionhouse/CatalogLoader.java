@@ -0,0 +1,148 @@
+package Auctionhouse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Streams the item names of an auction house out of its items file in random order.
+ * The file is memory-mapped instead of read into a list, and lines are drawn without replacement
+ * by walking a keyed pseudo-random permutation of the file's byte offsets: an offset that starts
+ * a line yields that line, any other offset is skipped. No line offsets are stored, so heap use and
+ * startup time do not depend on the size of the file, and each draw costs about one line's length.
+ */
+public class CatalogLoader implements Closeable {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final int ROUNDS = 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final int halfBits;
+    private final long halfMask;
+    private final long domain;
+    private final long[] roundKeys = new long[ROUNDS];
+    private long position;
+    private String nextItem;
+
+    /**
+     * Maps the items file; nothing is read until items are drawn.
+     *
+     * @param itemsFile text file with one item name per line
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public CatalogLoader(Path itemsFile) throws IOException {
+        this(itemsFile, new Random().nextLong());
+    }
+
+    /**
+     * Maps the items file with a fixed shuffle seed, so the draw order can be reproduced.
+     */
+    public CatalogLoader(Path itemsFile, long seed) throws IOException {
+        channel = FileChannel.open(itemsFile, StandardOpenOption.READ);
+        size = channel.size();
+        int segmentCount = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+        segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, size - start));
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, size - 1));
+        halfBits = Math.max(1, (bits + 1) / 2);
+        halfMask = (1L << halfBits) - 1;
+        domain = 1L << (2 * halfBits);
+        Random random = new Random(seed);
+        for (int i = 0; i < ROUNDS; i++) {
+            roundKeys[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Checks whether any item has not been drawn yet.
+     */
+    public synchronized boolean hasNext() {
+        while (nextItem == null && position < domain) {
+            long offset = permute(position++);
+            if (offset < size && (offset == 0 || byteAt(offset - 1) == '\n')) {
+                String line = readLine(offset);
+                if (!line.isBlank()) {
+                    nextItem = line;
+                }
+            }
+        }
+        return nextItem != null;
+    }
+
+    /**
+     * Draws the next item name at random.
+     *
+     * @return an item name that has not been drawn before, or null if the file is exhausted
+     */
+    public synchronized String next() {
+        if (!hasNext()) {
+            return null;
+        }
+        String item = nextItem;
+        nextItem = null;
+        return item;
+    }
+
+    public long getFileSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String readLine(long offset) {
+        long end = offset;
+        while (end < size && byteAt(end) != '\n') {
+            end++;
+        }
+        if (end > offset && byteAt(end - 1) == '\r') {
+            end--;
+        }
+        if (end - offset > Integer.MAX_VALUE) {
+            throw new UncheckedIOException(new IOException("Item name at offset " + offset + " is too long"));
+        }
+        byte[] bytes = new byte[(int) (end - offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte byteAt(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Balanced Feistel network over [0, domain): a bijection, so every offset comes up exactly once.
+     */
+    private long permute(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for (long key : roundKeys) {
+            long mixed = mix(right ^ key) & halfMask;
+            long nextRight = left ^ mixed;
+            left = right;
+            right = nextRight;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
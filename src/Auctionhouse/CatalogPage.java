@@ -0,0 +1,34 @@
+package Auctionhouse;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of the lots an auction house has for sale. The cursor names where the next page
+ * starts; an agent asks for it with a CatalogRequest, and a cursor of 0 means this was the last page.
+ */
+public class CatalogPage implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    public static final int PAGE_SIZE = 64;
+    private final List<AuctionBidManager> lots;
+    private final long nextCursor;
+
+    public CatalogPage(List<AuctionBidManager> lots, long nextCursor) {
+        this.lots = lots;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<AuctionBidManager> getLots() {
+        return lots;
+    }
+
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isLast() {
+        return nextCursor == 0;
+    }
+}
@@ -0,0 +1,21 @@
+package Auctionhouse;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Sent by an agent to get the next CatalogPage, starting at the cursor of the previous one.
+ */
+public class CatalogRequest implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long cursor;
+
+    public CatalogRequest(long cursor) {
+        this.cursor = cursor;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+}
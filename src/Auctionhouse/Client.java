@@ -1,78 +1,155 @@
 package Auctionhouse;
 
-import Bank.ClientMessage;
+import Auctionhouse.AuctionBidManager.BidState;
+import Bank.SharedFrame;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 /**
- * Processes incoming auction bids and updates the current highest bid.
- * Broadcasts bid updates and auction completions to all connected agents.
- * Sends a rejection message when a bid does not exceed the current highest bid.
+ * Broadcasts accepted bids and auction completions to all connected agents.
+ * An accepted bid goes out as a small LotUpdate; closed and new lots as full snapshots.
+ * Each broadcast is encoded once and the same bytes are written to every agent subscribed to
+ * the lot; newly drawn lots go to every agent.
+ * Bids are accepted or rejected on the item itself by the agent's ClientHandler;
+ * the shard keeps the broadcasts and the closing of each item in order.
+ * Each Client is one shard of the BidEngine and only sees the lots hashed to it,
+ * A closed lot is handed to the SettlementPipeline with the winner's hold, so the shard never
+ * waits for the Bank.
+ * Agents are written through their AgentConnection queues, which never block the shard.
+ * Bids reach the shard through its own BidRingBuffer.
  */
 
-public class Client extends LinkedBlockingQueue<AuctionBidManager> implements Runnable {
-    private final HashMap<Integer, ObjectOutputStream> agents;
-    private final ObjectOutputStream writer;
-    private final int bankId;
+public class Client implements Runnable {
+    private final ConcurrentHashMap<Integer, AgentConnection> agents;
+    private final SettlementPipeline settlements;
+    private final FundHolds holds;
+    private final BidRingBuffer ringBuffer;
+    private final SubscriptionIndex subscriptions;
     private Salesman salesman;
 
-    public Client(HashMap<Integer, ObjectOutputStream> agents, ObjectOutputStream writer, int bankId){
+    public Client(ConcurrentHashMap<Integer, AgentConnection> agents, SubscriptionIndex subscriptions,
+                  SettlementPipeline settlements, FundHolds holds, BidRingBuffer ringBuffer){
+        this.subscriptions = subscriptions;
         this.agents = agents;
-        this.writer = writer;
-        this.bankId = bankId;
+        this.settlements = settlements;
+        this.holds = holds;
+        this.ringBuffer = ringBuffer;
     }
 
     public void setSalesman(Salesman salesman){
         this.salesman = salesman;
     }
+
+    /**
+     * Publishes a bid that was accepted on one of this shard's items so it gets broadcast in order.
+     */
+    public void addAccepted(String auctionItemName, long lotKey, BidState state){
+        long sequence = ringBuffer.claim();
+        ringBuffer.get(sequence).setAccepted(auctionItemName, lotKey, state);
+        ringBuffer.publish(sequence);
+    }
+
+    /**
+     * Publishes the end of a lot's bidding time to this shard.
+     */
+    public void addBidOver(String auctionItemName){
+        long sequence = ringBuffer.claim();
+        ringBuffer.get(sequence).setBidOver(auctionItemName);
+        ringBuffer.publish(sequence);
+    }
+
     @Override
     public void run() {
         try{
             while (true){
-                AuctionBidManager itemsForBid = this.take();
-                String itemName = itemsForBid.getAuctionItemName();
-                AuctionBidManager existingItem = salesman.get(itemName);
-                double prevBidPrice = existingItem.getCurrentBid();
-                double newBidPrice = itemsForBid.getCurrentBid();
-
-
-                if (itemsForBid.isBidOver()){
-                    AuctionBidManager newItems = new AuctionBidManager(existingItem, true);
-                    salesman.remove(itemName);
-
-                    AuctionBidManager boughtItem = null;
-
-                    if (salesman.itemLeft()){
-                        boughtItem = salesman.getSelleableItems();
-                    }
-
-                    for (ObjectOutputStream out : agents.values()){
-                        out.writeObject(existingItem);
-                        System.out.println("Bid ended");
-
-                        if (boughtItem != null){
-                            out.writeObject(boughtItem);
-                        }
-                    }
-                    ClientMessage msg = new ClientMessage(newItems.getCurrentBidderID(), bankId, (int) newBidPrice);
-                    writer.writeObject(msg);
-                }else if (salesman.containsKey(itemName) || newBidPrice > prevBidPrice){
-                    existingItem.updateBid(itemsForBid.getCurrentBidderID(), (int) newBidPrice);
-
-                    for (ObjectOutputStream out : agents.values()){
-                        out.writeObject(itemsForBid);
-                        System.out.println("Send new bid to someone");
-                    }
-                }else{
-                    agents.get(itemsForBid.getCurrentBidderID()).writeObject(
-                            new BidRejection(itemsForBid.getCurrentBidderID(), "rejection", itemName));
-                    System.out.println("Sent rejection to " + itemsForBid.getCurrentBidderID());
+                BidEvent event = ringBuffer.take();
+                try{
+                    process(event);
+                }finally{
+                    ringBuffer.release();
                 }
             }
-        }catch (InterruptedException | IOException e){
+        }catch (IOException e){
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    private void process(BidEvent event) throws IOException {
+        String itemName = event.getAuctionItemName();
+        AuctionBidManager existingItem = salesman.getItem(itemName);
+        if (existingItem == null){
+            return;
+        }
+
+        if (event.isBidOver()){
+            if (salesman.isBidTimeRunning(itemName)){
+                return;
+            }
+            BidState finalState = existingItem.close();
+            if (finalState == null){
+                return;
+            }
+            AuctionBidManager newItems = new AuctionBidManager(itemName, existingItem.getLotKey(), finalState);
+            salesman.removeItem(itemName);
+
+            AuctionBidManager boughtItem = null;
+
+            if (salesman.itemLeft()){
+                boughtItem = salesman.getSelleableItems();
+            }
+
+            SharedFrame closed = SharedFrame.of(newItems);
+            SharedFrame drawn = boughtItem == null ? null : SharedFrame.of(boughtItem);
+            long lotKey = existingItem.getLotKey();
+            subscriptions.forEachSubscriber(lotKey, agentId -> deliverClosing(agentId, closed, lotKey));
+            subscriptions.removeLot(lotKey);
+            if (drawn != null){
+                for (int agentId : agents.keySet()){
+                    deliver(agentId, drawn, 0);
+                }
+            }
+            settlements.submit(itemName, finalState.getCurrentBidderID(), finalState.getCurrentBid(),
+                    holds.closeLot(lotKey));
+        }else{
+            SharedFrame update = SharedFrame.of(new LotUpdate(event.getLotKey(), event.getState()));
+
+            subscriptions.forEachSubscriber(event.getLotKey(), agentId -> deliver(agentId, update, event.getLotKey()));
+        }
+    }
+
+    /**
+     * Queues a frame for one agent, as a droppable LotUpdate when lotKey is set, and forgets
+     * the agent if its connection is gone.
+     */
+    private void deliver(int agentId, SharedFrame frame, long lotKey){
+        AgentConnection agent = agents.get(agentId);
+        if (agent == null){
+            return;
+        }
+        try{
+            if (lotKey != 0){
+                agent.sendUpdate(lotKey, frame);
+            }else{
+                agent.sendShared(frame);
+            }
+        }catch (IOException e){
+            agents.remove(agentId, agent);
+        }
+    }
+
+    /**
+     * Queues the closing snapshot of a lot for one agent in place of its pending updates of the
+     * lot, and forgets the agent if its connection is gone.
+     */
+    private void deliverClosing(int agentId, SharedFrame frame, long lotKey){
+        AgentConnection agent = agents.get(agentId);
+        if (agent == null){
+            return;
+        }
+        try{
+            agent.sendClosing(lotKey, frame);
+        }catch (IOException e){
+            agents.remove(agentId, agent);
+        }
+    }
+}
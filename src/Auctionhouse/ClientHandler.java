@@ -1,34 +1,46 @@
 package Auctionhouse;
 
+import Bank.FrameStream;
+
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Listens for incoming auction bids from a connected agent and forwards them to the Client queue.
- * Continuously reads AuctionBidManager objects from the socket’s input stream.
+ * Listens for incoming auction bids from a connected agent and places them on the item directly,
+ * once the Bank holds the amount on the agent's account, answering the agent with a rejection
+ * when the lot is unknown or closed, the bid is too low or it does not have the money. Bids on
+ * unknown lots and bids that do not beat the current price are rejected before the Bank is asked
+ * to hold anything. Resends the full state of a lot when the agent asks for it. Subscriptions
+ * from the agent update the house's SubscriptionIndex; subscribing to one lot also sends its
+ * current state. Continuously reads AuctionBidManager frames from the agent's FrameStream.
  * Removes the agent from the registry when the connection is closed or an EOF/socket error occurs.
  */
 
 public class ClientHandler implements Runnable {
     private final Socket socket;
     private final Salesman salesman;
-    private final Client client;
-    private final ObjectInputStream reader;
-    private final HashMap<Integer, ObjectOutputStream> agents;
+    private final BidEngine client;
+    private final FrameStream reader;
+    private final ConcurrentHashMap<Integer, AgentConnection> agents;
+    private final AgentConnection connection;
+    private final SubscriptionIndex subscriptions;
+    private final FundHolds holds;
     private final int bankId;
 
-    public ClientHandler(Socket socket, Salesman salesman, Client client,
-                         ObjectInputStream reader, HashMap<Integer, ObjectOutputStream> agents, int bankId) {
+    public ClientHandler(Socket socket, Salesman salesman, BidEngine client,
+                         FrameStream reader, ConcurrentHashMap<Integer, AgentConnection> agents,
+                         AgentConnection connection, SubscriptionIndex subscriptions, FundHolds holds, int bankId) {
+        this.subscriptions = subscriptions;
+        this.holds = holds;
         this.socket = socket;
         this.salesman = salesman;
         this.client = client;
         this.reader = reader;
         this.agents = agents;
+        this.connection = connection;
         this.bankId = bankId;
     }
 
@@ -36,15 +48,87 @@ public class ClientHandler implements Runnable {
     public void run() {
         try {
             while (true) {
-                AuctionBidManager newItem = (AuctionBidManager) reader.readObject();
-                client.add(newItem);
+                Object message = reader.read();
+                if (message instanceof SnapshotRequest request) {
+                    sendSnapshot(request.getLotKey());
+                    continue;
+                }
+                if (message instanceof CatalogRequest request) {
+                    connection.send(salesman.getPage(request.getCursor(), CatalogPage.PAGE_SIZE));
+                    continue;
+                }
+                if (message instanceof Subscription subscription) {
+                    if (!subscription.isSubscribe()) {
+                        subscriptions.unsubscribe(bankId, subscription.getLotKey());
+                    } else {
+                        subscriptions.subscribe(bankId, subscription.getLotKey(),
+                                lotKey -> salesman.getItemByKey(lotKey) != null);
+                        sendSnapshot(subscription.getLotKey());
+                    }
+                    continue;
+                }
+                AuctionBidManager newItem = (AuctionBidManager) message;
                 System.out.println("Received bid from agent");
+                int amount = (int) newItem.getCurrentBid();
+                String reason = check(newItem.getAuctionItemName(), amount);
+                if (reason != null) {
+                    connection.send(new BidRejection(bankId, reason, newItem.getAuctionItemName()));
+                    System.out.println("Sent rejection to " + bankId);
+                    continue;
+                }
+                long holdId = holds.reserve(bankId, amount);
+                if (holdId == 0) {
+                    connection.send(new BidRejection(bankId, "insufficient funds", newItem.getAuctionItemName()));
+                    System.out.println("Sent rejection to " + bankId);
+                } else if (!client.placeBid(newItem.getAuctionItemName(), bankId, amount, holdId)) {
+                    holds.release(holdId);
+                    connection.send(new BidRejection(bankId, "rejection", newItem.getAuctionItemName()));
+                    System.out.println("Sent rejection to " + bankId);
+                }
 
             }
         } catch (SocketException | EOFException e) {
-            agents.remove(bankId);
+            agents.remove(bankId, connection);
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Checks a bid against the lot's current state before the Bank is asked to hold the amount,
+     * so bids that cannot win cost no round trip. The bid engine checks again once it is held.
+     *
+     * @return why the bid is rejected, or null if it may win
+     */
+    private String check(String itemName, int amount) {
+        AuctionBidManager item = salesman.getItem(itemName);
+        if (item == null) {
+            return "unknown lot";
+        }
+        AuctionBidManager.BidState state = item.getState();
+        if (state.isBidOver()) {
+            return "bidding is over";
+        }
+        if (amount <= state.getCurrentBid()) {
+            return "rejection";
+        }
+        return null;
+    }
+
+    /**
+     * Sends the agent the full state of a lot it could not follow, if the lot is still for sale,
+     * or of every lot for Subscription.ALL.
+     */
+    private void sendSnapshot(long lotKey) throws IOException {
+        if (lotKey == Subscription.ALL) {
+            for (AuctionBidManager item : salesman.getValues()) {
+                connection.send(item);
+            }
+            return;
+        }
+        AuctionBidManager item = salesman.getItemByKey(lotKey);
+        if (item != null) {
+            connection.send(item);
+        }
+    }
 }
\ No newline at end of file
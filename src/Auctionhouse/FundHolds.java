@@ -0,0 +1,215 @@
+package Auctionhouse;
+
+import Bank.FrameStream;
+import Bank.HoldBatch;
+import Bank.HoldResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Holds the agents' money at the Bank while their bids stand, so an agent cannot bid more than
+ * it has across all houses. Before a bid is placed, its amount is held; when the bid is outbid
+ * or cannot be placed, the hold is released, and when the lot closes, the winner's hold is
+ * settled with the payment. Holds and releases from all agents are gathered by a sender thread
+ * into one HoldBatch, so a bid costs a share of one round trip to the Bank. Every hold has a
+ * lease, so the Bank releases it on its own if the house goes away; the hold of each standing
+ * bid is sent again as a hold of nothing well before its lease runs out, which renews the lease
+ * for as long as the bid leads.
+ */
+public class FundHolds {
+    private static final int MAX_BATCH = 256;
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final long RENEW_MILLIS = LEASE_MILLIS / 4;
+    private static final long REPLY_TIMEOUT_MILLIS = 5000;
+
+    private final FrameStream bank;
+    private final LinkedBlockingQueue<Operation> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> waiting = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Standing> standing = new ConcurrentHashMap<>();
+    private long nextBatchId = 1;
+
+    /**
+     * @param bank the auction house's stream to the Bank
+     */
+    public FundHolds(FrameStream bank) {
+        this.bank = bank;
+    }
+
+    /**
+     * Starts the sender and the renewer.
+     */
+    public void start() {
+        Thread sender = new Thread(this::sendBatches);
+        sender.setName("Holds-sender");
+        sender.setDaemon(true);
+        sender.start();
+        Thread renewer = new Thread(this::renewLeases);
+        renewer.setName("Holds-renewer");
+        renewer.setDaemon(true);
+        renewer.start();
+    }
+
+    /**
+     * Holds the amount of a bid on the agent's account and waits for the Bank's answer.
+     *
+     * @return the id of the hold, or 0 if the agent does not have the money or the Bank did not answer
+     */
+    public long reserve(int agent, int amount) {
+        long holdId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        waiting.put(holdId, reply);
+        queue.add(new Operation(true, holdId, agent, amount));
+        try {
+            if (reply.get(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return holdId;
+            }
+        } catch (TimeoutException e) {
+            release(holdId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            waiting.remove(holdId);
+        }
+        return 0;
+    }
+
+    /**
+     * Gives held money back to the agent. Does not wait for the Bank.
+     */
+    public void release(long holdId) {
+        queue.add(new Operation(false, holdId, 0, 0));
+    }
+
+    /**
+     * Records the hold of a bid that was accepted on a lot and releases the hold of the bid it
+     * outbid. Of two bids recorded out of order, the one with the newer version stands.
+     */
+    public void accepted(long lotKey, long version, long holdId, int agent) {
+        Standing bid = new Standing(version, holdId, agent);
+        Standing[] superseded = new Standing[1];
+        standing.compute(lotKey, (key, old) -> {
+            if (old == null || old.version < version) {
+                superseded[0] = old;
+                return bid;
+            }
+            superseded[0] = bid;
+            return old;
+        });
+        if (superseded[0] != null) {
+            release(superseded[0].holdId);
+        }
+    }
+
+    /**
+     * Forgets the standing bid of a closed lot and returns its hold, which the payment settles.
+     *
+     * @return the id of the winner's hold, or 0 if none
+     */
+    public long closeLot(long lotKey) {
+        Standing bid = standing.remove(lotKey);
+        return bid == null ? 0 : bid.holdId;
+    }
+
+    /**
+     * Hands the Bank's answers to the bids waiting for them.
+     */
+    void complete(HoldResult result) {
+        for (int i = 0; i < result.size(); i++) {
+            CompletableFuture<Boolean> reply = waiting.get(result.getHoldId(i));
+            if (reply != null) {
+                reply.complete(result.isDone(i));
+            }
+        }
+    }
+
+    /**
+     * Renews the leases of the standing bids' holds. A renewal that arrives after its hold was
+     * released holds nothing.
+     */
+    private void renewLeases() {
+        try {
+            while (true) {
+                TimeUnit.MILLISECONDS.sleep(RENEW_MILLIS);
+                for (Standing bid : standing.values()) {
+                    queue.add(new Operation(true, bid.holdId, bid.agent, 0));
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void sendBatches() {
+        List<Operation> operations = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                operations.add(queue.take());
+                queue.drainTo(operations, MAX_BATCH - 1);
+                int size = operations.size();
+                boolean[] hold = new boolean[size];
+                long[] holdIds = new long[size];
+                int[] agents = new int[size];
+                int[] amounts = new int[size];
+                for (int i = 0; i < size; i++) {
+                    Operation operation = operations.get(i);
+                    hold[i] = operation.hold;
+                    holdIds[i] = operation.holdId;
+                    agents[i] = operation.agent;
+                    amounts[i] = operation.amount;
+                }
+                try {
+                    bank.send(new HoldBatch(nextBatchId++, LEASE_MILLIS, hold, holdIds, agents, amounts));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                operations.clear();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * One hold or release waiting to be sent.
+     */
+    private static final class Operation {
+        private final boolean hold;
+        private final long holdId;
+        private final int agent;
+        private final int amount;
+
+        private Operation(boolean hold, long holdId, int agent, int amount) {
+            this.hold = hold;
+            this.holdId = holdId;
+            this.agent = agent;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * The hold of the standing bid on a lot, the agent it is for and the version of the lot's
+     * state it belongs to.
+     */
+    private static final class Standing {
+        private final long version;
+        private final long holdId;
+        private final int agent;
+
+        private Standing(long version, long holdId, int agent) {
+            this.version = version;
+            this.holdId = holdId;
+            this.agent = agent;
+        }
+    }
+}
@@ -1,7 +0,0 @@
-package Auctionhouse;
-
-import java.util.ArrayList;
-
-public class Items extends ArrayList<AuctionBidManager> {
-
-}
\ No newline at end of file
@@ -0,0 +1,481 @@
+package Auctionhouse;
+
+import Auctionhouse.AuctionBidManager.BidState;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Struct-of-arrays store for the active lots of an auction house. Every lot gets an int id,
+ * and its prices, bidder ids, deadline, flags and name live in one primitive column each. All
+ * columns, the free list and the name to id index are laid out in a single segment, either on the
+ * Java heap or off-heap in a direct buffer, so the store keeps no object per lot.
+ * Each row is guarded by a sequence lock: writers make the sequence odd while they change the row,
+ * and readers retry until they saw the same even sequence before and after reading, so a reader
+ * never sees a torn price/bidder pair. The sequence also serves as the version of the lot's state.
+ * The name index is an open-addressing hash table guarded the same way by one sequence of its own.
+ */
+public class LotStore {
+    /**
+     * Longest item name, in UTF-8 bytes, that fits in a row's name slot.
+     */
+    public static final int MAX_NAME_BYTES = 63;
+    private static final int NAME_SLOT_BYTES = MAX_NAME_BYTES + 1;
+    private static final int ROW_BYTES = 2 * Long.BYTES + 7 * Integer.BYTES + Byte.BYTES + NAME_SLOT_BYTES;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int INDEX_SEQUENCE = 0;
+
+    private final int capacity;
+    private final boolean offHeap;
+    private final ByteBuffer segment;
+    private final int indexMask;
+    private final int sequences;
+    private final int deadlines;
+    private final int currentBids;
+    private final int currentBidders;
+    private final int previousBids;
+    private final int previousBidders;
+    private final int generations;
+    private final int hashes;
+    private final int freeIds;
+    private final int index;
+    private final int bidOver;
+    private final int names;
+    private int freeCount;
+    private volatile int usedRows;
+    private volatile int size;
+
+    /**
+     * Creates a store with room for a fixed number of active lots.
+     *
+     * @param capacity maximum number of lots that can be active at once
+     * @param offHeap  true to keep the segment in a direct buffer outside the Java heap
+     */
+    public LotStore(int capacity, boolean offHeap) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        int indexSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        long bytes = Long.BYTES + (long) ROW_BYTES * capacity + (long) Integer.BYTES * indexSize;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity " + capacity + " does not fit in one segment");
+        }
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        this.segment = (offHeap ? ByteBuffer.allocateDirect((int) bytes) : ByteBuffer.allocate((int) bytes))
+                .order(ByteOrder.nativeOrder());
+        this.indexMask = indexSize - 1;
+        int offset = Long.BYTES;
+        sequences = offset;
+        offset += capacity * Long.BYTES;
+        deadlines = offset;
+        offset += capacity * Long.BYTES;
+        currentBids = offset;
+        offset += capacity * Integer.BYTES;
+        currentBidders = offset;
+        offset += capacity * Integer.BYTES;
+        previousBids = offset;
+        offset += capacity * Integer.BYTES;
+        previousBidders = offset;
+        offset += capacity * Integer.BYTES;
+        generations = offset;
+        offset += capacity * Integer.BYTES;
+        hashes = offset;
+        offset += capacity * Integer.BYTES;
+        freeIds = offset;
+        offset += capacity * Integer.BYTES;
+        index = offset;
+        offset += indexSize * Integer.BYTES;
+        bidOver = offset;
+        offset += capacity;
+        names = offset;
+    }
+
+    /**
+     * Shortens an item name to the longest prefix that fits in a row's name slot, cutting only
+     * between code points so the name stays valid UTF-8.
+     */
+    public static String truncate(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return name;
+        }
+        int end = MAX_NAME_BYTES;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Adds a lot and opens it for bidding.
+     *
+     * @param name        name of the item
+     * @param startingBid minimum bid of the item
+     * @return the id of the lot's row
+     * @throws IllegalStateException    if the store is full or the name is already active
+     * @throws IllegalArgumentException if the name is longer than MAX_NAME_BYTES
+     */
+    public synchronized int add(String name, int startingBid) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Item name must be 1 to " + MAX_NAME_BYTES + " bytes: " + name);
+        }
+        if (lookup(name) >= 0) {
+            throw new IllegalStateException(name + " is already active");
+        }
+        int id;
+        if (freeCount > 0) {
+            id = segment.getInt(freeIds + --freeCount * Integer.BYTES);
+        } else if (usedRows < capacity) {
+            id = usedRows++;
+        } else {
+            throw new IllegalStateException("Lot store is full (" + capacity + " lots)");
+        }
+        int hash = hash(bytes);
+        long sequence = lock(id);
+        segment.putInt(currentBids + id * Integer.BYTES, startingBid);
+        segment.putInt(currentBidders + id * Integer.BYTES, 0);
+        segment.putInt(previousBids + id * Integer.BYTES, 0);
+        segment.putInt(previousBidders + id * Integer.BYTES, 0);
+        segment.putLong(deadlines + id * Long.BYTES, 0);
+        segment.put(bidOver + id, (byte) 0);
+        segment.putInt(hashes + id * Integer.BYTES, hash);
+        segment.put(names + id * NAME_SLOT_BYTES, (byte) bytes.length);
+        segment.put(names + id * NAME_SLOT_BYTES + 1, bytes);
+        unlock(id, sequence + 2);
+        long indexSequence = lockIndex();
+        int slot = hash & indexMask;
+        while (indexEntry(slot) != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        segment.putInt(index + slot * Integer.BYTES, id + 1);
+        unlockIndex(indexSequence);
+        size++;
+        return id;
+    }
+
+    /**
+     * Removes a lot and frees its row for reuse. Views still holding the old id stop matching
+     * because the row's generation changes.
+     */
+    public synchronized void remove(String name) {
+        int id = lookup(name);
+        if (id < 0) {
+            return;
+        }
+        long indexSequence = lockIndex();
+        int slot = segment.getInt(hashes + id * Integer.BYTES) & indexMask;
+        while (indexEntry(slot) != id + 1) {
+            slot = (slot + 1) & indexMask;
+        }
+        int next = slot;
+        while (true) {
+            next = (next + 1) & indexMask;
+            int entry = indexEntry(next);
+            if (entry == 0) {
+                break;
+            }
+            int home = segment.getInt(hashes + (entry - 1) * Integer.BYTES) & indexMask;
+            boolean between = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!between) {
+                segment.putInt(index + slot * Integer.BYTES, entry);
+                slot = next;
+            }
+        }
+        segment.putInt(index + slot * Integer.BYTES, 0);
+        unlockIndex(indexSequence);
+        long sequence = lock(id);
+        segment.putInt(generations + id * Integer.BYTES, segment.getInt(generations + id * Integer.BYTES) + 1);
+        segment.put(bidOver + id, (byte) 1);
+        segment.put(names + id * NAME_SLOT_BYTES, (byte) 0);
+        unlock(id, sequence + 2);
+        segment.putInt(freeIds + freeCount++ * Integer.BYTES, id);
+        size--;
+    }
+
+    /**
+     * Looks up the row of an active lot.
+     *
+     * @return the lot id, or -1 if no lot with that name is active
+     */
+    public int lookup(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        while (true) {
+            long sequence = (long) LONGS.getVolatile(segment, INDEX_SEQUENCE);
+            if ((sequence & 1) == 0) {
+                int found = -1;
+                for (int slot = hash & indexMask, probes = 0; probes <= indexMask; slot = (slot + 1) & indexMask, probes++) {
+                    int entry = indexEntry(slot);
+                    if (entry == 0) {
+                        break;
+                    }
+                    if (segment.getInt(hashes + (entry - 1) * Integer.BYTES) == hash && nameEquals(entry - 1, bytes)) {
+                        found = entry - 1;
+                        break;
+                    }
+                }
+                VarHandle.acquireFence();
+                if ((long) LONGS.getVolatile(segment, INDEX_SEQUENCE) == sequence) {
+                    return found;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Returns a view of the active lot with the given name, or null if there is none.
+     */
+    public AuctionBidManager find(String name) {
+        int id = lookup(name);
+        if (id < 0) {
+            return null;
+        }
+        AuctionBidManager view = view(id);
+        return view != null && view.getAuctionItemName().equals(name) ? view : null;
+    }
+
+    /**
+     * Returns a view of the lot with the given key if it is still active, or null.
+     */
+    public AuctionBidManager view(long lotKey) {
+        int id = (int) lotKey;
+        if (id < 0 || id >= capacity) {
+            return null;
+        }
+        AuctionBidManager view = view(id);
+        return view != null && view.getLotKey() == lotKey ? view : null;
+    }
+
+    /**
+     * Creates a view of the lot in a row, reading its name and state consistently.
+     *
+     * @return the view, or null if the row is free
+     */
+    public AuctionBidManager view(int id) {
+        byte[] name = new byte[MAX_NAME_BYTES];
+        while (true) {
+            long sequence = (long) LONGS.getVolatile(segment, sequences + id * Long.BYTES);
+            if ((sequence & 1) == 0) {
+                int length = segment.get(names + id * NAME_SLOT_BYTES) & 0xFF;
+                int generation = segment.getInt(generations + id * Integer.BYTES);
+                segment.get(names + id * NAME_SLOT_BYTES + 1, name, 0, Math.min(length, MAX_NAME_BYTES));
+                BidState state = new BidState(segment.getInt(currentBids + id * Integer.BYTES),
+                        segment.getInt(currentBidders + id * Integer.BYTES),
+                        segment.getInt(previousBids + id * Integer.BYTES),
+                        segment.getInt(previousBidders + id * Integer.BYTES),
+                        segment.get(bidOver + id) != 0, sequence >>> 1);
+                VarHandle.acquireFence();
+                if ((long) LONGS.getVolatile(segment, sequences + id * Long.BYTES) == sequence) {
+                    if (length == 0) {
+                        return null;
+                    }
+                    return new AuctionBidManager(new String(name, 0, length, StandardCharsets.UTF_8), this, id,
+                            generation, state);
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Checks whether a row holds an active lot. The answer may be out of date by the time
+     * the caller uses it.
+     */
+    public boolean isActive(int id) {
+        return segment.get(names + id * NAME_SLOT_BYTES) != 0;
+    }
+
+    public int getGeneration(int id) {
+        while (true) {
+            long sequence = (long) LONGS.getVolatile(segment, sequences + id * Long.BYTES);
+            int generation = segment.getInt(generations + id * Integer.BYTES);
+            VarHandle.acquireFence();
+            if ((sequence & 1) == 0 && (long) LONGS.getVolatile(segment, sequences + id * Long.BYTES) == sequence) {
+                return generation;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Reads a consistent snapshot of a lot.
+     *
+     * @param id         row of the lot
+     * @param generation generation the caller's view was created for
+     * @return the lot's state, or null if the row now belongs to another lot
+     */
+    public BidState read(int id, int generation) {
+        while (true) {
+            long sequence = (long) LONGS.getVolatile(segment, sequences + id * Long.BYTES);
+            if ((sequence & 1) == 0) {
+                int rowGeneration = segment.getInt(generations + id * Integer.BYTES);
+                int currentBid = segment.getInt(currentBids + id * Integer.BYTES);
+                int currentBidder = segment.getInt(currentBidders + id * Integer.BYTES);
+                int previousBid = segment.getInt(previousBids + id * Integer.BYTES);
+                int previousBidder = segment.getInt(previousBidders + id * Integer.BYTES);
+                boolean over = segment.get(bidOver + id) != 0;
+                VarHandle.acquireFence();
+                if ((long) LONGS.getVolatile(segment, sequences + id * Long.BYTES) == sequence) {
+                    if (rowGeneration != generation) {
+                        return null;
+                    }
+                    return new BidState(currentBid, currentBidder, previousBid, previousBidder, over,
+                            sequence >>> 1);
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Places a bid if it beats the current highest bid and the lot is still open.
+     *
+     * @return the new state if the bid was accepted, or null if it was rejected or the lot is gone
+     */
+    public BidState tryPlaceBid(int id, int generation, int bidderId, int amount) {
+        BidState seen = read(id, generation);
+        if (seen == null || seen.isBidOver() || amount <= seen.getCurrentBid()) {
+            return null;
+        }
+        long sequence = lock(id);
+        if (segment.getInt(generations + id * Integer.BYTES) != generation || segment.get(bidOver + id) != 0
+                || amount <= segment.getInt(currentBids + id * Integer.BYTES)) {
+            unlock(id, sequence);
+            return null;
+        }
+        int previousBid = segment.getInt(currentBids + id * Integer.BYTES);
+        int previousBidder = segment.getInt(currentBidders + id * Integer.BYTES);
+        segment.putInt(previousBids + id * Integer.BYTES, previousBid);
+        segment.putInt(previousBidders + id * Integer.BYTES, previousBidder);
+        segment.putInt(currentBids + id * Integer.BYTES, amount);
+        segment.putInt(currentBidders + id * Integer.BYTES, bidderId);
+        unlock(id, sequence + 2);
+        return new BidState(amount, bidderId, previousBid, previousBidder, false, (sequence + 2) >>> 1);
+    }
+
+    /**
+     * Sets or clears the bid-over flag of a lot.
+     *
+     * @return the new state, or null if the flag already had that value or the lot is gone
+     */
+    public BidState setBidOver(int id, int generation, boolean over) {
+        long sequence = lock(id);
+        if (segment.getInt(generations + id * Integer.BYTES) != generation || (segment.get(bidOver + id) != 0) == over) {
+            unlock(id, sequence);
+            return null;
+        }
+        segment.put(bidOver + id, (byte) (over ? 1 : 0));
+        BidState state = new BidState(segment.getInt(currentBids + id * Integer.BYTES),
+                segment.getInt(currentBidders + id * Integer.BYTES), segment.getInt(previousBids + id * Integer.BYTES),
+                segment.getInt(previousBidders + id * Integer.BYTES), over, (sequence + 2) >>> 1);
+        unlock(id, sequence + 2);
+        return state;
+    }
+
+    public void setDeadline(int id, long deadlineNanos) {
+        segment.putLong(deadlines + id * Long.BYTES, deadlineNanos);
+    }
+
+    public long getDeadline(int id) {
+        return segment.getLong(deadlines + id * Long.BYTES);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns how many rows were ever handed out; every active lot has a smaller id.
+     */
+    public int getUsedRows() {
+        return usedRows;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Bytes the store uses for each lot it has room for: its row in every column (sequence,
+     * deadline, four price/bidder ints, generation, name hash, free list entry, flags and name
+     * slot) and its share of the name index. Nothing else is kept per lot, on the heap or off it.
+     */
+    public int getBytesPerLot() {
+        return (int) ((getSegmentBytes() + capacity - 1) / capacity);
+    }
+
+    /**
+     * Total bytes of the segment that holds the store.
+     */
+    public long getSegmentBytes() {
+        return segment.capacity();
+    }
+
+    private long lock(int id) {
+        while (true) {
+            long sequence = (long) LONGS.getVolatile(segment, sequences + id * Long.BYTES);
+            if ((sequence & 1) == 0 && LONGS.compareAndSet(segment, sequences + id * Long.BYTES, sequence, sequence + 1)) {
+                return sequence;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private void unlock(int id, long sequence) {
+        LONGS.setVolatile(segment, sequences + id * Long.BYTES, sequence);
+    }
+
+    /**
+     * Makes the index sequence odd while add or remove change the index; both are synchronized,
+     * so only readers have to check it.
+     */
+    private long lockIndex() {
+        long sequence = (long) LONGS.getVolatile(segment, INDEX_SEQUENCE);
+        LONGS.setVolatile(segment, INDEX_SEQUENCE, sequence + 1);
+        VarHandle.storeStoreFence();
+        return sequence;
+    }
+
+    private void unlockIndex(long sequence) {
+        LONGS.setVolatile(segment, INDEX_SEQUENCE, sequence + 2);
+    }
+
+    private int indexEntry(int slot) {
+        return segment.getInt(index + slot * Integer.BYTES);
+    }
+
+    private boolean nameEquals(int id, byte[] bytes) {
+        int slot = names + id * NAME_SLOT_BYTES;
+        if ((segment.get(slot) & 0xFF) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (segment.get(slot + 1 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 0x811C9DC5;
+        for (byte b : bytes) {
+            hash = (hash ^ b) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,65 @@
+package Auctionhouse;
+
+import Auctionhouse.AuctionBidManager.BidState;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Tells the agents that a bid was accepted on a lot: only the lot's key, the version of its new
+ * state and the new price and bidder. An agent that holds the previous version builds the new
+ * state from it; an agent that missed a version or does not know the lot asks for a
+ * full snapshot with a SnapshotRequest.
+ */
+public class LotUpdate implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long lotKey;
+    private final long version;
+    private final int currentBid;
+    private final int currentBidderID;
+
+    public LotUpdate(long lotKey, long version, int currentBid, int currentBidderID) {
+        this.lotKey = lotKey;
+        this.version = version;
+        this.currentBid = currentBid;
+        this.currentBidderID = currentBidderID;
+    }
+
+    public LotUpdate(long lotKey, BidState state) {
+        this(lotKey, state.getVersion(), state.getCurrentBid(), state.getCurrentBidderID());
+    }
+
+    /**
+     * Returns true if this update directly follows the known state of the lot.
+     */
+    public boolean follows(AuctionBidManager known) {
+        return known.getLotKey() == lotKey && known.getVersion() + 1 == version;
+    }
+
+    /**
+     * Builds the lot's new state from the state it follows.
+     */
+    public AuctionBidManager applyTo(AuctionBidManager known) {
+        BidState previous = known.getState();
+        return new AuctionBidManager(known.getAuctionItemName(), lotKey,
+                new BidState(currentBid, currentBidderID, previous.getCurrentBid(), previous.getCurrentBidderID(),
+                        false, version));
+    }
+
+    public long getLotKey() {
+        return lotKey;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCurrentBid() {
+        return currentBid;
+    }
+
+    public int getCurrentBidderID() {
+        return currentBidderID;
+    }
+}
@@ -0,0 +1,14 @@
+package Auctionhouse;
+
+/**
+ * What an AgentConnection does when its outbound queue is full. Closing snapshots, new lots
+ * and rejections are never dropped; only LotUpdates can be.
+ */
+public enum OverflowPolicy {
+    /** Replaces the queued updates of each lot by one snapshot of its latest state. */
+    CONFLATE,
+    /** Drops every queued update and sends the agent the full state of all lots again. */
+    DROP_AND_RESYNC,
+    /** Closes the connection to the agent. */
+    DISCONNECT
+}
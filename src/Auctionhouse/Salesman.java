@@ -1,51 +1,151 @@
 package Auctionhouse;
 /**
  * Manages auction items, timing their bidding periods and dispatching expired items to the Client.
- * Retrieves and registers the next item to sell from the available Items list.
- * Periodically checks each active bid’s remaining time and signals when bidding ends.
+ * Draws the next item to sell at random from the memory-mapped CatalogLoader.
+ * Keeps each bid's deadline in a timing wheel and only signals the lots whose bidding time has ended.
+ * Active lots are rows of a LotStore; AuctionBidManager views over them are made on demand and
+ * dropped by the caller, so nothing is kept on the heap per active lot.
  */
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
-public class Salesman extends HashMap<String, AuctionBidManager> implements Runnable {
-    private final Client client;
-    private double bidPrice;
-    private int bidPeriod;
-    private AuctionBidManager bidItem;
-    private Items items;
+public class Salesman implements Runnable {
+    private static final long TICK_MILLIS = 100;
+    private static final long BID_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int STARTING_BID = 50;
+    private final BidEngine client;
+    private final TimingWheel bidTimer = new TimingWheel(TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS));
+    private final LotStore store;
+    private final CatalogLoader catalog;
 
 
-    public Salesman(Client client, Items items){
+    public Salesman(BidEngine client, CatalogLoader catalog, LotStore store){
         this.client = client;
-        this.items = items;
+        this.catalog = catalog;
+        this.store = store;
     }
 
+    /**
+     * Draws the next item from the catalog and opens it for bidding. A name longer than a lot's
+     * name slot is shortened to fit; an item whose name is already for sale is skipped. While the
+     * lot store is full, nothing is drawn, so no item is lost from the catalog.
+     *
+     * @return the new lot, or null if the catalog is used up or the lot store is full
+     */
     public synchronized AuctionBidManager getSelleableItems(){
-        AuctionBidManager selleableItems = items.remove(0);
-        this.put(selleableItems.getAuctionItemName(), selleableItems);
-        return selleableItems;
+        if (store.isFull()){
+            System.out.println("Lot store is full (" + store.getCapacity() + " lots), no new item is put up for sale");
+            return null;
+        }
+        String itemName = nextItemName();
+        while (itemName != null && store.lookup(itemName) >= 0){
+            itemName = nextItemName();
+        }
+        if (itemName == null){
+            return null;
+        }
+        return store.view(store.add(itemName, STARTING_BID));
+    }
+
+    private String nextItemName(){
+        String itemName = catalog.next();
+        if (itemName == null){
+            return null;
+        }
+        String shortened = LotStore.truncate(itemName);
+        if (!shortened.equals(itemName)){
+            System.out.println("Shortened item name to " + LotStore.MAX_NAME_BYTES + " bytes: " + itemName);
+        }
+        return shortened;
+    }
+
+    public Collection<AuctionBidManager> getValues(){
+        ArrayList<AuctionBidManager> values = new ArrayList<>(store.size());
+        int rows = store.getUsedRows();
+        for (int i = 0; i < rows; i++){
+            AuctionBidManager item = store.view(i);
+            if (item != null){
+                values.add(item);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns one page of the lots for sale, starting at the cursor (0 for the first page).
+     */
+    public CatalogPage getPage(long cursor, int pageSize){
+        ArrayList<AuctionBidManager> lots = new ArrayList<>(pageSize);
+        int rows = store.getUsedRows();
+        int row = (int) Math.max(0, Math.min(cursor, rows));
+        for (; row < rows && lots.size() < pageSize; row++){
+            AuctionBidManager item = store.view(row);
+            if (item != null){
+                lots.add(item);
+            }
+        }
+        while (row < rows && !store.isActive(row)){
+            row++;
+        }
+        return new CatalogPage(lots, row < rows ? row : 0);
     }
 
-    public synchronized Collection<AuctionBidManager> getValues(){
-        return values();
+    public AuctionBidManager getItem(Object key){
+        return store.find((String) key);
     }
 
-    public synchronized AuctionBidManager getItem(Object key){
-        return super.get(key);
+    /**
+     * Returns the lot with the given key if it is still for sale.
+     */
+    public AuctionBidManager getItemByKey(long lotKey){
+        return store.view(lotKey);
     }
+
+    public boolean containsItem(Object key){
+        return store.lookup((String) key) >= 0;
+    }
+
+    public synchronized AuctionBidManager removeItem(Object key){
+        bidTimer.cancel((String) key);
+        AuctionBidManager item = getItem(key);
+        if (item == null){
+            return null;
+        }
+        item.detach();
+        store.remove((String) key);
+        return item;
+    }
+
+    /**
+     * Starts (or restarts) the 30-second bidding window of an item after a new bid.
+     *
+     * @param itemName name of the item that received a bid
+     */
+    public void startBidTimer(String itemName){
+        long deadline = System.nanoTime() + BID_WINDOW_NANOS;
+        int lotId = store.lookup(itemName);
+        if (lotId >= 0){
+            store.setDeadline(lotId, deadline);
+        }
+        bidTimer.schedule(itemName, deadline);
+    }
+
+    /**
+     * Checks whether an item still has bidding time left, e.g. because a bid
+     * restarted its window after the timer had already fired.
+     */
+    public boolean isBidTimeRunning(String itemName){
+        return bidTimer.isScheduled(itemName);
+    }
+
     @Override
     public void run() {
         while (true){
             try{
-                synchronized (this){
-                    wait(1000);
-                    for (AuctionBidManager item : getValues()){
-                        item.timeOver();
-                        if (item.getRemainingTime() == 0){
-                            item.setBidOver(true);
-                            client.add(item);
-                        }
-                    }
+                Thread.sleep(TICK_MILLIS);
+                for (String itemName : bidTimer.advance(System.nanoTime())){
+                    client.addBidOver(itemName);
                 }
             }catch (InterruptedException e){
                 e.printStackTrace();
@@ -53,7 +153,16 @@ public class Salesman extends HashMap<String, AuctionBidManager> implements Runn
         }
     }
 
-    public boolean itemLeft(){
-        return !items.isEmpty();
+    public synchronized boolean itemLeft(){
+        return catalog.hasNext();
+    }
+
+    @Override
+    public String toString(){
+        ArrayList<String> names = new ArrayList<>();
+        for (AuctionBidManager item : getValues()){
+            names.add(item.getAuctionItemName());
+        }
+        return names.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package Auctionhouse;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Tells the winner of a lot that the Bank has settled, or refused, the payment for it.
+ * It arrives some time after the closed lot itself, once the Bank has acknowledged the
+ * settlement.
+ */
+public class SettlementNotice implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final String itemName;
+    private final int amount;
+    private final boolean settled;
+
+    public SettlementNotice(String itemName, int amount, boolean settled) {
+        this.itemName = itemName;
+        this.amount = amount;
+        this.settled = settled;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * Gets the status line the agent shows for the lot.
+     */
+    public String getMessage() {
+        return settled ? "Auction won. Paid " + amount + "." : "Auction won. Payment of " + amount + " refused.";
+    }
+}
@@ -0,0 +1,202 @@
+package Auctionhouse;
+
+import Bank.FrameStream;
+import Bank.Settlement;
+import Bank.SettlementAck;
+import Bank.SettlementBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Settles closed lots with the Bank away from the bidding path. A shard only queues the closed
+ * lot here and moves on, so bidding never waits for the Bank. A sender thread gathers whatever
+ * lots are queued into one SettlementBatch; each SettlementAck the house reads from the Bank is
+ * matched to its batch by the batch id, and every winner is told the outcome with a SettlementNotice.
+ * A batch that is not acknowledged in time is sent again with the same idempotency keys,
+ * so the Bank never charges a winner twice.
+ */
+public class SettlementPipeline {
+    private static final int MAX_BATCH = 256;
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final FrameStream bank;
+    private final int bankId;
+    private final ConcurrentHashMap<Integer, AgentConnection> agents;
+    private final LinkedBlockingQueue<ClosedLot> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentHashMap<Long, Batch> unacknowledged = new ConcurrentHashMap<>();
+    private final AtomicLong settled = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private long nextBatchId = 1;
+
+    /**
+     * @param bank   the auction house's stream to the Bank
+     * @param bankId the auction house's account number at the Bank
+     * @param agents connected agents, by account number, to notify of their settled lots
+     */
+    public SettlementPipeline(FrameStream bank, int bankId, ConcurrentHashMap<Integer, AgentConnection> agents) {
+        this.bank = bank;
+        this.bankId = bankId;
+        this.agents = agents;
+    }
+
+    /**
+     * Starts the sender.
+     */
+    public void start() {
+        Thread sender = new Thread(this::sendBatches);
+        sender.setName("Settlement-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Queues a closed lot for settlement. A lot that closed without a bid has no winner and
+     * is not settled.
+     *
+     * @param itemName name of the closed lot
+     * @param winner   account number of the winning agent, or 0 if nobody bid
+     * @param amount   winning bid
+     * @param holdId   the hold placed for the winning bid, or 0 if none
+     */
+    public void submit(String itemName, int winner, int amount, long holdId) {
+        if (winner == 0) {
+            return;
+        }
+        queue.add(new ClosedLot(ThreadLocalRandom.current().nextLong(), itemName, winner, amount, holdId));
+    }
+
+    public long getSettled() {
+        return settled.get();
+    }
+
+    public long getRefused() {
+        return refused.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Gets the number of closed lots queued or sent but not yet acknowledged.
+     */
+    public int getPending() {
+        int pending = queue.size();
+        for (Batch batch : unacknowledged.values()) {
+            pending += batch.lots.size();
+        }
+        return pending;
+    }
+
+    private void sendBatches() {
+        try {
+            while (true) {
+                ClosedLot first = queue.poll(RETRY_NANOS / 4, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    List<ClosedLot> lots = new ArrayList<>();
+                    lots.add(first);
+                    queue.drainTo(lots, MAX_BATCH - 1);
+                    Batch batch = new Batch(nextBatchId++, lots);
+                    unacknowledged.put(batch.message.getBatchId(), batch);
+                    send(batch);
+                }
+                long now = System.nanoTime();
+                for (Batch batch : unacknowledged.values()) {
+                    if (now - batch.sentAt > RETRY_NANOS) {
+                        retries.incrementAndGet();
+                        System.out.println("Settlement batch " + batch.message.getBatchId() + " sent again");
+                        send(batch);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void send(Batch batch) {
+        batch.sentAt = System.nanoTime();
+        try {
+            bank.send(batch.message);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Tells the winners of an acknowledged batch whether they paid. The acknowledgement of a batch
+     * that was sent twice arrives twice; only the first one is used.
+     */
+    void complete(SettlementAck ack) {
+        Batch batch = unacknowledged.remove(ack.getBatchId());
+        if (batch == null) {
+            return;
+        }
+        Map<Long, ClosedLot> lots = new HashMap<>();
+        for (ClosedLot lot : batch.lots) {
+            lots.put(lot.key, lot);
+        }
+        for (int i = 0; i < ack.size(); i++) {
+            ClosedLot lot = lots.get(ack.getKey(i));
+            if (lot == null) {
+                continue;
+            }
+            (ack.isSettled(i) ? settled : refused).incrementAndGet();
+            AgentConnection winner = agents.get(lot.winner);
+            if (winner != null) {
+                try {
+                    winner.send(new SettlementNotice(lot.itemName, lot.amount, ack.isSettled(i)));
+                } catch (IOException e) {
+                    agents.remove(lot.winner, winner);
+                }
+            }
+        }
+    }
+
+    /**
+     * A closed lot waiting to be settled, with the idempotency key it keeps on every retry.
+     */
+    private static final class ClosedLot {
+        private final long key;
+        private final String itemName;
+        private final int winner;
+        private final int amount;
+        private final long holdId;
+
+        private ClosedLot(long key, String itemName, int winner, int amount, long holdId) {
+            this.key = key;
+            this.itemName = itemName;
+            this.winner = winner;
+            this.amount = amount;
+            this.holdId = holdId;
+        }
+    }
+
+    /**
+     * A batch sent to the Bank and the closed lots it settles.
+     */
+    private final class Batch {
+        private final List<ClosedLot> lots;
+        private final SettlementBatch message;
+        private volatile long sentAt;
+
+        private Batch(long batchId, List<ClosedLot> lots) {
+            this.lots = lots;
+            List<Settlement> settlements = new ArrayList<>(lots.size());
+            for (ClosedLot lot : lots) {
+                settlements.add(new Settlement(lot.key, lot.winner, bankId, lot.amount, lot.holdId));
+            }
+            this.message = new SettlementBatch(batchId, settlements);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package Auctionhouse;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Sent by an agent that cannot apply a LotUpdate, to get the full state of the lot again.
+ */
+public class SnapshotRequest implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long lotKey;
+
+    public SnapshotRequest(long lotKey) {
+        this.lotKey = lotKey;
+    }
+
+    public long getLotKey() {
+        return lotKey;
+    }
+}
@@ -0,0 +1,30 @@
+package Auctionhouse;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Sent by an agent to start or stop receiving the price updates and closing of one lot,
+ * or of every lot with ALL. Agents start out subscribed only to the lots they bid on, and
+ * subscribe to the lots they look at.
+ */
+public class Subscription implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    public static final long ALL = 0;
+    private final long lotKey;
+    private final boolean subscribe;
+
+    public Subscription(long lotKey, boolean subscribe) {
+        this.lotKey = lotKey;
+        this.subscribe = subscribe;
+    }
+
+    public long getLotKey() {
+        return lotKey;
+    }
+
+    public boolean isSubscribe() {
+        return subscribe;
+    }
+}
@@ -0,0 +1,89 @@
+package Auctionhouse;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Which agents want to hear about which lots: a set of agents per lot key, plus the agents
+ * subscribed to every lot. Broadcasts of a lot visit only these agents, so fan-out follows
+ * interest rather than the number of connections.
+ */
+public class SubscriptionIndex {
+    private final ConcurrentHashMap<Long, Set<Integer>> byLot = new ConcurrentHashMap<>();
+    private final Set<Integer> everything = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Subscribes an agent to a lot, or to every lot with Subscription.ALL.
+     */
+    public void subscribe(int agentId, long lotKey) {
+        if (lotKey == Subscription.ALL) {
+            everything.add(agentId);
+        } else {
+            byLot.computeIfAbsent(lotKey, key -> ConcurrentHashMap.newKeySet()).add(agentId);
+        }
+    }
+
+    /**
+     * Subscribes an agent to a lot that may close at any moment. The lot is checked again once
+     * the agent is added: if it is no longer for sale, removeLot may already have run, so its
+     * subscribers are dropped here instead.
+     *
+     * @param forSale tells whether a lot key still belongs to a lot for sale
+     */
+    public void subscribe(int agentId, long lotKey, LongPredicate forSale) {
+        subscribe(agentId, lotKey);
+        if (lotKey != Subscription.ALL && !forSale.test(lotKey)) {
+            removeLot(lotKey);
+        }
+    }
+
+    /**
+     * Unsubscribes an agent from a lot, or from the whole house with Subscription.ALL,
+     * which also drops its subscriptions to single lots.
+     */
+    public void unsubscribe(int agentId, long lotKey) {
+        if (lotKey != Subscription.ALL) {
+            Set<Integer> agents = byLot.get(lotKey);
+            if (agents != null) {
+                agents.remove(agentId);
+            }
+            return;
+        }
+        everything.remove(agentId);
+        for (Set<Integer> agents : byLot.values()) {
+            agents.remove(agentId);
+        }
+    }
+
+    public boolean isSubscribed(int agentId, long lotKey) {
+        Set<Integer> agents = byLot.get(lotKey);
+        return everything.contains(agentId) || (agents != null && agents.contains(agentId));
+    }
+
+    /**
+     * Visits every agent subscribed to the lot once.
+     */
+    public void forEachSubscriber(long lotKey, IntConsumer action) {
+        for (int agentId : everything) {
+            action.accept(agentId);
+        }
+        Set<Integer> agents = byLot.get(lotKey);
+        if (agents == null) {
+            return;
+        }
+        for (int agentId : agents) {
+            if (!everything.contains(agentId)) {
+                action.accept(agentId);
+            }
+        }
+    }
+
+    /**
+     * Forgets the subscribers of a lot that is no longer for sale.
+     */
+    public void removeLot(long lotKey) {
+        byLot.remove(lotKey);
+    }
+}
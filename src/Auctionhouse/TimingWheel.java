@@ -0,0 +1,182 @@
+package Auctionhouse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel that tracks when each lot's bidding time runs out.
+ * Deadlines are absolute System.nanoTime() values rounded up to a tick. Scheduling, resetting
+ * and cancelling a lot are O(1), and advancing the wheel only touches the bucket that is due
+ * (plus one cascade of a coarser bucket every 64 ticks), never the whole catalog.
+ */
+public class TimingWheel {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Entry[][] buckets = new Entry[LEVELS][WHEEL_SIZE];
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private long currentTick;
+
+    /**
+     * Creates a wheel whose resolution is one tick.
+     *
+     * @param tickNanos length of one tick in nanoseconds
+     */
+    public TimingWheel(long tickNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive");
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = System.nanoTime();
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                Entry head = new Entry(null);
+                head.prev = head;
+                head.next = head;
+                buckets[level][slot] = head;
+            }
+        }
+    }
+
+    /**
+     * Schedules a lot to expire at the given deadline, replacing any deadline it already had.
+     *
+     * @param lot           name of the lot
+     * @param deadlineNanos absolute deadline on the System.nanoTime() clock
+     */
+    public synchronized void schedule(String lot, long deadlineNanos) {
+        long elapsed = deadlineNanos - startNanos;
+        long deadlineTick = elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+        if (deadlineTick <= currentTick) {
+            deadlineTick = currentTick + 1;
+        }
+        Entry entry = entries.get(lot);
+        if (entry == null) {
+            entry = new Entry(lot);
+            entries.put(lot, entry);
+        } else {
+            unlink(entry);
+        }
+        entry.deadlineTick = deadlineTick;
+        place(entry);
+    }
+
+    /**
+     * Removes a lot from the wheel if it is scheduled.
+     */
+    public synchronized void cancel(String lot) {
+        Entry entry = entries.remove(lot);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    public synchronized boolean isScheduled(String lot) {
+        return entries.containsKey(lot);
+    }
+
+    /**
+     * Moves the wheel forward to the given time and removes every lot that is now due.
+     *
+     * @param nowNanos current System.nanoTime() value
+     * @return the lots whose deadline has passed, in deadline order
+     */
+    public synchronized List<String> advance(long nowNanos) {
+        List<String> expired = new ArrayList<>();
+        long targetTick = Math.max(0, (nowNanos - startNanos) / tickNanos);
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            Entry head = buckets[0][(int) (currentTick & WHEEL_MASK)];
+            Entry entry = head.next;
+            while (entry != head) {
+                Entry next = entry.next;
+                if (entry.deadlineTick <= currentTick) {
+                    unlink(entry);
+                    entries.remove(entry.lot);
+                    expired.add(entry.lot);
+                }
+                entry = next;
+            }
+        }
+        return expired;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Redistributes the coarser buckets whose time window starts at the current tick,
+     * highest level first so entries can fall through several levels in one step.
+     */
+    private void cascade() {
+        int top = 0;
+        while (top + 1 < LEVELS && ((currentTick >>> (top * WHEEL_BITS)) & WHEEL_MASK) == 0) {
+            top++;
+        }
+        for (int level = top; level >= 1; level--) {
+            Entry head = buckets[level][(int) ((currentTick >>> (level * WHEEL_BITS)) & WHEEL_MASK)];
+            Entry entry = head.next;
+            head.next = head;
+            head.prev = head;
+            while (entry != head) {
+                Entry next = entry.next;
+                place(entry);
+                entry = next;
+            }
+        }
+    }
+
+    private void place(Entry entry) {
+        long deadlineTick = entry.deadlineTick;
+        if (deadlineTick - currentTick < WHEEL_SIZE) {
+            link(buckets[0][(int) (deadlineTick & WHEEL_MASK)], entry);
+            return;
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = level * WHEEL_BITS;
+            if ((deadlineTick >>> shift) - (currentTick >>> shift) < WHEEL_SIZE) {
+                link(buckets[level][(int) ((deadlineTick >>> shift) & WHEEL_MASK)], entry);
+                return;
+            }
+        }
+        // Beyond the wheel's range: park in the last top-level bucket and re-place on cascade.
+        int shift = (LEVELS - 1) * WHEEL_BITS;
+        link(buckets[LEVELS - 1][(int) (((currentTick >>> shift) + WHEEL_MASK) & WHEEL_MASK)], entry);
+    }
+
+    private void link(Entry head, Entry entry) {
+        entry.prev = head.prev;
+        entry.next = head;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+
+    private void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private static class Entry {
+        private final String lot;
+        private long deadlineTick;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(String lot) {
+            this.lot = lot;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package Auctionhouse;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits on a BidRingBuffer, either for a free slot (producers)
+ * or for the next published event (the shard consuming it).
+ */
+public enum WaitStrategy {
+    /** Spins on the CPU; lowest latency, keeps one core busy per waiting thread. */
+    BUSY_SPIN,
+    /** Gives the core back to the scheduler between checks. */
+    YIELD,
+    /** Parks the thread for a short time between checks; cheapest when bids are idle. */
+    PARK;
+
+    private static final long PARK_NANOS = 50_000;
+
+    public void idle() {
+        switch (this) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELD -> Thread.yield();
+            case PARK -> LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * The balances of the bank accounts, in long minor units (cents). A Ledger keeps every account
+ * in one place; a ShardedLedger spreads the accounts over several Ledger shards and routes each
+ * call to the shard, or shards, that own the accounts.
+ */
+
+import java.util.function.IntConsumer;
+
+public interface AccountStore {
+
+    /**
+     * Starts recording every change in the journal. Restore the recovered accounts first.
+     */
+    void setJournal(TransferJournal journal);
+
+    /**
+     * Sets who is told the account numbers whose balance changed. It is called on the thread
+     * that made the change and must not block.
+     */
+    void setListener(IntConsumer listener);
+
+    /**
+     * Opens an account with a starting balance, unless it already exists.
+     *
+     * @return true if the account was opened
+     */
+    boolean open(int account, long minorUnits);
+
+    boolean contains(int account);
+
+    /**
+     * Returns the balance of an account, or 0 if it does not exist.
+     */
+    long balance(int account);
+
+    /**
+     * Returns the part of an account's balance that is not held.
+     */
+    long available(int account);
+
+    /**
+     * Adds money to an account.
+     *
+     * @return false if the account does not exist
+     */
+    boolean deposit(int account, long minorUnits);
+
+    /**
+     * Takes money out of an account if it has enough that is not held.
+     *
+     * @return false if the account does not exist or the balance is too low
+     */
+    boolean withdraw(int account, long minorUnits);
+
+    /**
+     * Atomically moves money between two accounts if the payer has enough that is not held.
+     *
+     * @return false if either account does not exist or the payer's balance is too low
+     */
+    boolean transfer(int from, int to, long minorUnits);
+
+    /**
+     * Releases money held on the payer's account and moves the amount to the payee.
+     * The hold is released even if the transfer is refused.
+     *
+     * @param heldUnits amount held for this payment, 0 if none
+     * @return false if either account does not exist or the payer's balance is too low
+     */
+    boolean transferHeld(int from, int to, long heldUnits, long minorUnits);
+
+    /**
+     * Like transferHeld, for a request with an idempotency key such as a settlement. The key is
+     * journaled with the transfer, or as refused, so a restarted Bank still knows the result.
+     *
+     * @param key idempotency key of the request, or 0 if it has none
+     */
+    boolean transferHeld(long key, int from, int to, long heldUnits, long minorUnits);
+
+    /**
+     * Applies many transfers together, each checked against what its payer has left after the
+     * transfers before it, and journals each applied one with its idempotency key.
+     *
+     * @param heldUnits for each transfer the amount held for it, or null if nothing is held
+     * @param keys      for each transfer its idempotency key or 0, or null if none has one
+     * @return for each transfer, whether it was applied
+     */
+    boolean[] transferBatch(int[] from, int[] to, long[] minorUnits, long[] heldUnits, long[] keys);
+
+    /**
+     * Holds money on an account so it cannot be spent elsewhere.
+     *
+     * @return false if the account does not exist or has less than that which is not held
+     */
+    boolean hold(int account, long minorUnits);
+
+    /**
+     * Releases money held on an account.
+     */
+    void release(int account, long minorUnits);
+
+    /**
+     * Puts back an account recovered from a snapshot and the journal, without journaling it again.
+     */
+    void restore(int account, long minorUnits);
+
+    int size();
+}
@@ -0,0 +1,81 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Pushes balance changes to the agents from its own thread, so the settlement threads never
+ * write to an agent's socket and a slow agent cannot hold up transfers. The Ledger only marks
+ * an account as changed; an account that changes again before its update is sent is sent
+ * once, with the balance it has at that moment.
+ */
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BalanceNotifier implements Runnable {
+    private final AccountStore ledger;
+    private final ConcurrentHashMap<Integer, MessageSink> clients;
+    private final Set<Integer> changed = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param ledger  where the balances are read
+     * @param clients connected agents by account number
+     */
+    public BalanceNotifier(AccountStore ledger, ConcurrentHashMap<Integer, MessageSink> clients) {
+        this.ledger = ledger;
+        this.clients = clients;
+    }
+
+    /**
+     * Marks the balance of an account as changed. Never blocks.
+     */
+    public void changed(int account) {
+        if (!clients.containsKey(account)) {
+            return;
+        }
+        if (changed.add(account)) {
+            queue.add(account);
+        } else {
+            coalesced.incrementAndGet();
+        }
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Sends the current balance of every changed account to its agent. The account is unmarked
+     * before its balance is read, so a change made while it is being sent is sent again.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                int account = queue.take();
+                changed.remove(account);
+                MessageSink client = clients.get(account);
+                if (client == null) {
+                    continue;
+                }
+                try {
+                    client.send(Ledger.toMajorUnits(ledger.balance(account)));
+                    sent.incrementAndGet();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -22,6 +22,11 @@ import javafx.scene.layout.AnchorPane;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
 
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 public class BankMain extends Application {
     public static void main(String[] args) {
         launch(args);
@@ -29,7 +34,29 @@ public class BankMain extends Application {
 
     @Override
     public void start(Stage primaryStage) throws Exception {
-        BankManager manager = new BankManager();
+        List<String> args = getParameters().getRaw();
+        BankManager manager;
+        if (args.size() > 4 && args.get(4).contains(":")) {
+            List<InetSocketAddress> nodes = new ArrayList<>(); //shard nodes as host:port,host:port
+            for (String node : args.get(4).split(",")) {
+                String[] hostAndPort = node.split(":");
+                nodes.add(new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+            }
+            manager = new BankManager(Integer.parseInt(args.get(0)), Path.of(args.get(1)),
+                    Durability.valueOf(args.get(2)), nodes);
+            manager.setNettingWindow(Long.parseLong(args.get(3)));
+        } else if (args.size() > 2) {
+            manager = new BankManager(Integer.parseInt(args.get(0)), Path.of(args.get(1)), //journal file
+                    Durability.valueOf(args.get(2)), //NONE, ASYNC or SYNC
+                    args.size() > 4 ? Integer.parseInt(args.get(4)) : 1); //ledger shards in this process
+            if (args.size() > 3) {
+                manager.setNettingWindow(Long.parseLong(args.get(3))); //netting window in ms, 0 for none
+            }
+        } else if (!args.isEmpty()) {
+            manager = new BankManager(Integer.parseInt(args.get(0))); //selector I/O threads
+        } else {
+            manager = new BankManager();
+        }
         Thread managerThread = new Thread(manager);
         managerThread.start();
 
@@ -6,33 +6,153 @@ package Bank;
  * In the Distributed Auction System, BankManager is the main server class. Through the
  * assignment of distinct account numbers, the management of financial transfers, and the
  * maintenance of client account records, it oversees all correspondence between agents and
- * auction houses. For every agent or auction house that connects, the class generates a unique
- * ClientAccount thread and uses a server socket on port 9090 to wait for incoming connections.
- * Additionally, BankManager quickly transfers money between agent and auction house accounts
- * by processing ClientMessage objects that are stored in a shared message queue using a separate
- * handler thread. Effective communication and transaction management throughout the distributed
- * system are made possible by its usage of hash maps to hold active client accounts, client
- * network addresses, and output streams.
+ * auction houses. It waits for connections on port 9090 and serves each one through a
+ * ClientAccount, on its own thread or from a few selector threads of the BankSelectorServer.
+ * Settlement threads, or in netting mode a NettingSettler, apply the transfers queued as
+ * ClientMessages to a striped Ledger, which may be spread over several ledger shards. Balance
+ * changes and the directory of auction houses are pushed to the agents, and the HoldBook
+ * releases the holds of bids whose lease runs out. On startup it loads the latest ledger
+ * snapshot and replays only the journal written since.
  *
  */
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Random;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class BankManager implements Runnable{
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 60;
+    private static final int SETTLEMENT_KEYS = 1 << 16;
+    private static final long SETTLEMENT_RETENTION_MINUTES = 10;
+    private static final int WORKER_THREADS = 16;
     private String ipAddress;
     private int portNo;
-    private final HashMap<Integer, ClientAccount> clientAccountHashMap = new HashMap<>();
-    private final LinkedBlockingQueue<ClientMessage> messageQueue = new LinkedBlockingQueue<>();
-    private final HashMap<Integer, ClientAdress> addressHashMap = new HashMap<>();
-    private final HashMap<Integer, ObjectOutputStream> clients = new HashMap<>();
+    private final ConcurrentHashMap<Integer, ClientAccount> clientAccountHashMap = new ConcurrentHashMap<>();
+    private final AccountStore ledger;
+    private final LinkedBlockingQueue<Object> messageQueue = new LinkedBlockingQueue<>();
+    private final SettlementLog settlementLog = new SettlementLog(SETTLEMENT_KEYS,
+            TimeUnit.MINUTES.toNanos(SETTLEMENT_RETENTION_MINUTES));
+    private final HouseDirectory addressHashMap = new HouseDirectory();
+    private final ConcurrentHashMap<Integer, MessageSink> clients = new ConcurrentHashMap<>();
+    private final BalanceNotifier balances;
+    private final HoldBook holds;
+    private final int ioThreads;
+    private final Path journalFile;
+    private final Durability durability;
+    private volatile long nettingNanos;
     private ServerSocket serverSocket;
+    private ExecutorService workers;
+
+    /**
+     * Creates a Bank that serves every connection on its own thread.
+     */
+    public BankManager() {
+        this(0);
+    }
+
+    /**
+     * Creates a Bank that serves its connections from the given number of selector threads,
+     * or one thread per connection when ioThreads is 0.
+     */
+    public BankManager(int ioThreads) {
+        this(ioThreads, Path.of("bank.journal"), Durability.SYNC);
+    }
+
+    /**
+     * Creates a Bank that journals every ledger change to the given file.
+     *
+     * @param ioThreads   selector threads, or 0 for one thread per connection
+     * @param journalFile file of the transfer journal; its snapshot is kept next to it as journalFile.snapshot
+     *                    and loaded on startup, followed by the journal records written after it
+     * @param durability  how the journal is forced to disk
+     */
+    public BankManager(int ioThreads, Path journalFile, Durability durability) {
+        this(ioThreads, journalFile, durability, 1);
+    }
+
+    /**
+     * Creates a Bank whose accounts are spread over the given number of ledger shards by
+     * consistent hashing of the account number. Transfers between accounts on different shards
+     * run in two phases.
+     *
+     * @param ioThreads   selector threads, or 0 for one thread per connection
+     * @param journalFile file of the transfer journal
+     * @param durability  how the journal is forced to disk
+     * @param shards      number of ledger shards, 1 for a single ledger
+     */
+    public BankManager(int ioThreads, Path journalFile, Durability durability, int shards) {
+        this(ioThreads, journalFile, durability, shards > 1 ? new ShardedLedger(shards) : new Ledger());
+    }
+
+    /**
+     * Creates a Bank whose accounts are served by ShardNodes at the given addresses. Each node
+     * journals its own accounts; the Bank's journal keeps the decisions of transfers between
+     * nodes until both have applied them.
+     *
+     * @param ioThreads   selector threads, or 0 for one thread per connection
+     * @param journalFile file of the transfer journal
+     * @param durability  how the journal is forced to disk
+     * @param shardNodes  addresses of the shard nodes, always in the same order
+     */
+    public BankManager(int ioThreads, Path journalFile, Durability durability, List<InetSocketAddress> shardNodes) {
+        this(ioThreads, journalFile, durability, new ShardedLedger(shardNodes));
+    }
+
+    private BankManager(int ioThreads, Path journalFile, Durability durability, AccountStore ledger) {
+        this.ioThreads = ioThreads;
+        this.journalFile = journalFile;
+        this.durability = durability;
+        this.ledger = ledger;
+        this.balances = new BalanceNotifier(ledger, clients);
+        this.holds = new HoldBook(ledger);
+    }
+
+    /**
+     * Settles transfers in netted batches, gathering requests for the given window and applying
+     * each batch with one ledger update per account; 0 settles every transfer on its own (the
+     * default). Call before the Bank is started.
+     *
+     * @param millis length of the netting window, e.g. 1 to 10 ms
+     */
+    public void setNettingWindow(long millis) {
+        this.nettingNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Adds a ledger shard while the Bank runs and moves to it the accounts it now owns.
+     *
+     * @return the id of the new shard, or -1 if the Bank was started with a single ledger
+     */
+    public int addShard() {
+        if (ledger instanceof ShardedLedger sharded) {
+            return sharded.addShard();
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the ShardNode at the given address while the Bank runs and moves to it the accounts
+     * it now owns.
+     *
+     * @return the id of the new shard, or -1 if the Bank was started with a single ledger
+     */
+    public int addShard(String host, int port) throws IOException {
+        if (ledger instanceof ShardedLedger sharded) {
+            return sharded.addShard(host, port);
+        }
+        return -1;
+    }
 
     public int getPortNo() {
         return portNo;
@@ -45,7 +165,47 @@ public class BankManager implements Runnable{
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket(9090);
+            TransferJournal journal = new TransferJournal(journalFile, durability);
+            LedgerSnapshot snapshot = LedgerSnapshot.load(journalFile.resolveSibling(journalFile.getFileName() + ".snapshot"));
+            long snapshotSequence = snapshot.getSequence();
+            int replayed = journal.replay(snapshotSequence, snapshot::apply);
+            System.out.println("Loaded snapshot at journal record " + snapshotSequence + ", replayed " + replayed
+                    + " journal records");
+            snapshot.restoreInto(ledger, addressHashMap);
+            snapshot.getSettlements().forEach(settlementLog::record);
+            if (ledger instanceof ShardedLedger sharded) {
+                for (TransferJournal.Record decision : snapshot.getDecided()) {
+                    sharded.restoreDecision(decision);
+                }
+            }
+            snapshot.start(journal, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            journal.start();
+            ledger.setJournal(journal);
+            ledger.setListener(balances::changed);
+            if (ledger instanceof ShardedLedger sharded) {
+                sharded.start();
+            }
+            Thread notifier = new Thread(balances);
+            notifier.setName("BalanceNotifier");
+            notifier.start();
+            Thread leases = new Thread(holds);
+            leases.setName("HoldLeases");
+            leases.start();
+            addressHashMap.setJournal(journal);
+            DirectoryPublisher directory = new DirectoryPublisher(clients);
+            addressHashMap.setListener(directory::publish);
+            Thread publisher = new Thread(directory);
+            publisher.setName("DirectoryPublisher");
+            publisher.start();
+
+            ServerSocketChannel serverChannel = null;
+            if (ioThreads > 0) {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.bind(new InetSocketAddress(9090));
+                serverSocket = serverChannel.socket();
+            } else {
+                serverSocket = new ServerSocket(9090);
+            }
             portNo = serverSocket.getLocalPort();
 //            ipAddress = InetAddress.getLocalHost().getHostAddress();
             ipAddress = "64.106.21.162";
@@ -55,29 +215,40 @@ public class BankManager implements Runnable{
             Runnable handler = () ->{
                 try{
                     while(true){
-                        ClientMessage msg = messageQueue.take();
-                        ClientAccount fromAcct = clientAccountHashMap.get(msg.getAgentAcctNo());
-                        ClientAccount toAcct = clientAccountHashMap.get(msg.getAucHouseAccNo());
-                        int transferAmount = msg.getTransferAmount();
-
-                        fromAcct.withdraw(transferAmount);
-                        toAcct.deposit(transferAmount);
-                        System.out.println("Amount has been transfered");
+                        Object msg = messageQueue.take();
+                        if (msg instanceof SettlementBatch batch){
+                            settle(batch);
+                        }else{
+                            settle((ClientMessage) msg);
+                        }
                     }
-                }catch(NullPointerException | InterruptedException e){
+                }catch(InterruptedException e){
                     e.printStackTrace();
                 }
             };
-            Thread thread = new Thread(handler);
-            thread.start();
+            if (nettingNanos > 0) {
+                Thread thread = new Thread(new NettingSettler(ledger, holds, messageQueue, settlementLog,
+                        clientAccountHashMap, nettingNanos));
+                thread.setName("Settlement-netting");
+                thread.start();
+            } else {
+                for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+                    Thread thread = new Thread(handler);
+                    thread.setName("Settlement-" + i);
+                    thread.start();
+                }
+            }
+
+            if (serverChannel != null) {
+                workers = Executors.newFixedThreadPool(WORKER_THREADS);
+                new BankSelectorServer(serverChannel, this, ioThreads).run();
+                return;
+            }
 
             while (true){
                 Socket skt;
                 skt = serverSocket.accept();
-                ClientAccount acct = new ClientAccount(skt, messageQueue, makeClientAccount(), addressHashMap,
-                        clients, clientAccountHashMap);
-                clientAccountHashMap.put(acct.getAcctNumber(), acct);
-                Thread thread1 = new Thread(acct);
+                Thread thread1 = new Thread(openAccount(skt));
                 thread1.start();
             }
         } catch (IOException e) {
@@ -85,12 +256,65 @@ public class BankManager implements Runnable{
         }
     }
 
-    private int makeClientAccount(){
-        Random rand = new Random();
-        int accountNumber = -1;
-        while (clientAccountHashMap.containsKey(accountNumber) && accountNumber < 0) {
-            accountNumber = rand.nextInt(10000, 99999);
+    /**
+     * Moves the amount of a closed auction from the agent's account to the auction house's
+     * account. Several settlement threads run this at once; the ledger keeps each transfer atomic,
+     * and the BalanceNotifier tells the agent its new balance.
+     */
+    private void settle(ClientMessage msg){
+        long transferAmount = Ledger.toMinorUnits(msg.getTransferAmount());
+        if (!ledger.transfer(msg.getAgentAcctNo(), msg.getAucHouseAccNo(), transferAmount)){
+            System.out.println("Transfer of " + msg.getTransferAmount() + " from #" + msg.getAgentAcctNo()
+                    + " to #" + msg.getAucHouseAccNo() + " was refused");
+            return;
         }
+        System.out.println("Amount has been transfered");
+    }
+
+    /**
+     * Settles a batch of closed auctions for one auction house and acknowledges each of them
+     * by its idempotency key. A settlement that was already applied is acknowledged with its
+     * first result and not transferred again, so the house can safely send a batch twice.
+     * The hold the house placed for the winning bid is released by the same transfer.
+     */
+    private void settle(SettlementBatch batch){
+        List<Settlement> settlements = batch.getSettlements();
+        long[] keys = new long[settlements.size()];
+        boolean[] settled = new boolean[settlements.size()];
+        int houseAcct = 0;
+        for (int i = 0; i < keys.length; i++){
+            Settlement settlement = settlements.get(i);
+            houseAcct = settlement.getAucHouseAccNo();
+            keys[i] = settlement.getIdempotencyKey();
+            long key = keys[i];
+            settled[i] = settlementLog.apply(key, () -> ledger.transferHeld(key, settlement.getAgentAcctNo(),
+                    settlement.getAucHouseAccNo(),
+                    holds.take(settlement.getHoldId(), settlement.getAucHouseAccNo(), settlement.getAgentAcctNo()),
+                    Ledger.toMinorUnits(settlement.getTransferAmount())));
+        }
+        ClientAccount house = clientAccountHashMap.get(houseAcct);
+        if (house != null){
+            house.send(new SettlementAck(batch.getBatchId(), keys, settled));
+        }
+    }
+
+    /**
+     * Opens an account for a new connection.
+     *
+     * @param skt the client's socket, or null when the selector server owns the connection
+     */
+    ClientAccount openAccount(Socket skt){
+        ClientAccount acct = new ClientAccount(skt, ledger, balances, holds, messageQueue, makeClientAccount(),
+                addressHashMap, clients, clientAccountHashMap, skt == null ? workers : null);
+        clientAccountHashMap.put(acct.getAcctNumber(), acct);
+        return acct;
+    }
+
+    private int makeClientAccount(){
+        int accountNumber;
+        do {
+            accountNumber = ThreadLocalRandom.current().nextInt(10000, 99999);
+        } while (clientAccountHashMap.containsKey(accountNumber) || ledger.contains(accountNumber));
         return accountNumber;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Non-blocking server mode of the Bank. One acceptor thread hands every new connection to one of
+ * a small, fixed set of I/O threads, and each I/O thread serves all of its connections with a
+ * single Selector. Frames are read and written without blocking, so idle agents cost a buffer
+ * and a selection key instead of a thread each.
+ */
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class BankSelectorServer implements Runnable {
+    private final ServerSocketChannel serverChannel;
+    private final BankManager manager;
+    private final IoLoop[] loops;
+
+    /**
+     * @param serverChannel bound server channel to accept connections on
+     * @param manager       bank that opens an account for every connection
+     * @param ioThreads     number of selector threads serving the connections
+     */
+    public BankSelectorServer(ServerSocketChannel serverChannel, BankManager manager, int ioThreads) throws IOException {
+        this.serverChannel = serverChannel;
+        this.manager = manager;
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop(Selector.open());
+        }
+    }
+
+    /**
+     * Starts the I/O threads, then accepts connections on the calling thread.
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i]);
+            thread.setName("Bank-IO-" + i);
+            thread.start();
+        }
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                IoLoop loop = loops[next++ % loops.length];
+                NioConnection connection = new NioConnection(channel, manager.openAccount(null), loop);
+                loop.submit(connection::register);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * One selector thread. Other threads never touch its selection keys directly; they
+     * submit tasks that the loop runs between selects.
+     */
+    static class IoLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        Selector getSelector() {
+            return selector;
+        }
+
+        void submit(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -6,114 +6,335 @@ package Bank;
  * The Distributed Auction System's bank side uses ClientAccount to represent a single
  * connected client (an agent or an auction house). Account setup, balance updates, and money
  * transfer requests are all handled by this class on behalf of the client in their interactions
- * with the bank. Along with cleaning up when clients disconnect, it also handles updating
- * agents about new auction houses.
+ * with the bank. Along with cleaning up when clients disconnect, it sends a new agent the
+ * versioned directory of auction houses and, when asked, the directory changes it missed. An auction house that was registered before a Bank restart
+ * gets its old account number back when it registers again with the same identity. The handshake is a small state machine driven by
+ * onMessage, so the same account logic runs on a blocking thread or on the selector server. On the
+ * selector server, opening the account and joining or leaving the house directory wait for the
+ * journal, so they run on a worker instead of the I/O thread; messages that arrive meanwhile are
+ * kept and handled in order once the account is registered. A house's hold batches also run on
+ * a worker there, one after another in the order they arrived.
  *
  */
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public class ClientAccount implements Runnable{
-    private final Integer acctNumber;
-    private double totalBalance;
+    private Integer acctNumber;
+    private final AccountStore ledger;
+    private final BalanceNotifier balances;
+    private final HoldBook holds;
     private Socket socket;
-    private HashMap<Integer, ClientAdress> auctionHouseAddresses;
-    private final LinkedBlockingQueue<ClientMessage> messageQueue;
-    private final HashMap<Integer, ObjectOutputStream> clients;
-    private final HashMap<Integer, ClientAccount> accounts;
-    private ObjectOutputStream writer;
-    private ObjectInputStream inputStream;
+    private final HouseDirectory houses;
+    private final LinkedBlockingQueue<Object> messageQueue;
+    private final ConcurrentHashMap<Integer, MessageSink> clients;
+    private final ConcurrentHashMap<Integer, ClientAccount> accounts;
+    private final Executor worker;
+    private final ArrayDeque<Object> backlog = new ArrayDeque<>();
+    private final ArrayDeque<HoldBatch> pendingHolds = new ArrayDeque<>();
+    private boolean applyingHolds;
+    private boolean draining;
+    private MessageSink writer;
+    private ClientAdress houseAddress;
+    private volatile State state = State.AWAIT_HELLO;
+
+    /**
+     * Steps of the connection: the hello names the kind of client, then an auction house
+     * sends its address and its identity and an agent its starting balance before normal
+     * traffic begins.
+     */
+    private enum State {
+        AWAIT_HELLO,
+        AWAIT_ADDRESS,
+        AWAIT_IDENTITY,
+        AWAIT_BALANCE,
+        REGISTERING,
+        AUCTION,
+        AGENT,
+        CLOSED
+    }
+
+    /**
+     * The part of the handshake that runs once the account is registered.
+     */
+    private interface Step {
+        void run() throws IOException;
+    }
 
 
     /**
      *  Constructor to set up the ClientAccount with the required references.
+     *  The socket is null when the connection is served by the BankSelectorServer, and the
+     *  worker runs the registration steps that wait for the journal and the house's holds; with
+     *  a null worker they run on the connection's own thread.
      */
 
-    public ClientAccount(Socket socket,
-                         LinkedBlockingQueue<ClientMessage> messageQueue, Integer acctNumber,
-                         HashMap<Integer, ClientAdress> auctionHouseAddresses,
-                         HashMap<Integer, ObjectOutputStream> clients,
-                         HashMap<Integer, ClientAccount> accounts){
+    public ClientAccount(Socket socket, AccountStore ledger, BalanceNotifier balances, HoldBook holds,
+                         LinkedBlockingQueue<Object> messageQueue, Integer acctNumber,
+                         HouseDirectory houses,
+                         ConcurrentHashMap<Integer, MessageSink> clients,
+                         ConcurrentHashMap<Integer, ClientAccount> accounts,
+                         Executor worker){
         this.acctNumber = acctNumber;
+        this.ledger = ledger;
+        this.balances = balances;
+        this.holds = holds;
         this.socket = socket;
         this.messageQueue = messageQueue;
-        this.auctionHouseAddresses = auctionHouseAddresses;
+        this.houses = houses;
         this.clients = clients;
         this.accounts = accounts;
+        this.worker = worker;
     }
 
     /**
-     * Run method for the main thread. communicates with the associated agent or auction
-     * house, handles balance updates, registers the auction house, and sends transfer
-     * requests to the message queue.
+     * Run method for the main thread when the connection is served by a blocking thread.
+     * Reads frames from the socket and hands each one to onMessage until the client leaves.
      *
      */
 
     @Override
     public void run() {
         try {
-            writer = new ObjectOutputStream(socket.getOutputStream());
-            inputStream = new ObjectInputStream(socket.getInputStream());
-            ClientMessage tmp;
+            FrameStream stream = new FrameStream(socket);
+            attach(stream);
+            while (socket.isConnected()){
+                onMessage(stream.read());
+            }
+        }catch(SocketException | EOFException e){
+            onClose();
+        }
+        catch(IOException | ClassNotFoundException e){
+            e.printStackTrace();
+        }
+    }
 
-            String msg = (String) inputStream.readObject();
+    /**
+     * Sets where messages for this client are sent.
+     */
+    public void attach(MessageSink writer){
+        this.writer = writer;
+    }
 
-            if (msg.equals("auction")){
-                System.out.println("Connected to Auction House");
-                ClientAdress clientAdress = (ClientAdress) inputStream.readObject();
-                System.out.println(clientAdress.getipAdress() + " " + clientAdress.getPortNumber());
-                auctionHouseAddresses.put(acctNumber, clientAdress);
-                writer.writeObject(acctNumber);
+    /**
+     * Handles one message from the client according to the current handshake state:
+     * registers the auction house, sets up the agent, or queues transfer requests.
+     * Holds from an auction house are placed and released on the worker if there is one.
+     */
+    public synchronized void onMessage(Object message) throws IOException {
+        if (draining){
+            backlog.add(message);
+            return;
+        }
+        handle(message);
+    }
 
-                for (ObjectOutputStream client : clients.values()){
-                    client.writeObject(clientAdress);
+    private void handle(Object message) throws IOException {
+        switch (state){
+            case AWAIT_HELLO -> {
+                String msg = (String) message;
+                if (msg.equals("auction")){
+                    System.out.println("Connected to Auction House");
+                    state = State.AWAIT_ADDRESS;
+                }else if (msg.equals("Agent")){
+                    System.out.println("Connected to Agent");
+                    state = State.AWAIT_BALANCE;
+                }
+            }
+            case AWAIT_ADDRESS -> {
+                houseAddress = (ClientAdress) message;
+                System.out.println(houseAddress.getipAdress() + " " + houseAddress.getPortNumber());
+                state = State.AWAIT_IDENTITY;
+            }
+            case AWAIT_IDENTITY -> {
+                String identity = (String) message;
+                ClientAdress clientAdress = houseAddress;
+                int known = houses.claim(identity, acctNumber);
+                if (known != acctNumber && accounts.putIfAbsent(known, this) == null){
+                    accounts.remove(acctNumber);
+                    acctNumber = known;
+                    System.out.println("Auction House rejoined as #" + acctNumber);
+                }
+                int account = acctNumber;
+                register(() -> {
+                    ledger.open(account, 0);
+                    houses.join(account, clientAdress, identity);
+                }, () -> {
+                    writer.send(acctNumber);
+                    state = State.AUCTION;
+                });
+            }
+            case AWAIT_BALANCE -> {
+                double totalBalance = (Double) message;
+                int account = acctNumber;
+                register(() -> ledger.open(account, Ledger.toMinorUnits(totalBalance)), () -> {
+                    writer.send(acctNumber);
+                    System.out.println("Agent Account Number: " + acctNumber);
+                    System.out.println("Agent Bank Balance: " + totalBalance);
+                    clients.put(acctNumber, writer);
+                    writer.send(houses.snapshot());
+                    state = State.AGENT;
+                });
+            }
+            case REGISTERING -> backlog.add(message);
+            case AUCTION -> {
+                if (message instanceof HoldBatch batch){
+                    applyHolds(batch);
+                }else if (message instanceof SettlementBatch batch){
+                    messageQueue.add(batch.forHouse(acctNumber));
+                }else if (message != null){
+                    messageQueue.add((ClientMessage) message);
+                }
+            }
+            case AGENT -> {
+                if (message instanceof String){
+                    balances.changed(acctNumber);
+                }else if (message instanceof DirectoryRequest request){
+                    sendDirectorySince(request.getSinceVersion());
+                }else{
+                    ClientMessage tmpMsg = (ClientMessage) message;
+                    ClientMessage clientmsg =
+                            new ClientMessage(tmpMsg.getAgentAcctNo(), tmpMsg.getAucHouseAccNo(), acctNumber);
+                    messageQueue.add(clientmsg);
                 }
+            }
+            case CLOSED -> {
+            }
+        }
+    }
+
+    /**
+     * Removes the client from the bank's registries once its connection is gone.
+     * The balance stays in the ledger.
+     */
+    public synchronized void onClose(){
+        if (state == State.CLOSED){
+            return;
+        }
+        boolean registering = state == State.REGISTERING;
+        state = State.CLOSED;
+        System.out.println("User #" + acctNumber + " has closed.");
+        clients.remove(acctNumber);
+        accounts.remove(acctNumber);
+        if (registering){
+            return;
+        }
+        int account = acctNumber;
+        if (worker == null){
+            houses.leave(account);
+        }else{
+            worker.execute(() -> houses.leave(account));
+        }
+    }
 
-                while(socket.isConnected()){
-                    tmp = (ClientMessage) inputStream.readObject();
-                    if (tmp != null){
-                        messageQueue.add(tmp);
+    /**
+     * Runs the registration steps that wait for the journal, on the worker if there is one,
+     * then finishes the handshake and handles the messages that arrived meanwhile. Those are
+     * handled outside the account's lock, so the I/O thread is never kept waiting on them; new
+     * messages are kept behind them until they are done. If the client left in between, the
+     * house it just joined leaves again.
+     */
+    private void register(Runnable journaled, Step registered) throws IOException {
+        if (worker == null){
+            journaled.run();
+            registered.run();
+            return;
+        }
+        state = State.REGISTERING;
+        worker.execute(() -> {
+            journaled.run();
+            try {
+                Integer left = null;
+                synchronized (this){
+                    if (state == State.CLOSED){
+                        left = acctNumber;
+                    }else{
+                        draining = true;
+                        registered.run();
                     }
                 }
-            }else if (msg.equals("Agent")){
-                System.out.println("Connected to Agent");
-                totalBalance = (Double) inputStream.readObject();
-                writer.writeObject(acctNumber);
-                System.out.println("Agent Account Number: " + acctNumber);
-                System.out.println("Agent Bank Balance: " + totalBalance);
-                clients.put(acctNumber, writer);
-
-                for (ClientAdress address : auctionHouseAddresses.values()){
-                    writer.writeObject(address);
+                if (left != null){
+                    houses.leave(left);
+                    return;
                 }
+                for (Object next = nextQueued(); next != null; next = nextQueued()){
+                    handle(next);
+                }
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        });
+    }
 
-                while (socket.isConnected()){
-                    Object step  = inputStream.readObject();
-                    if (step instanceof String){
-                        writer.writeObject(totalBalance);
-                    }else{
-                        ClientMessage tmpMsg = (ClientMessage) step;
-                        ClientMessage clientmsg =
-                                new ClientMessage(tmpMsg.getAgentAcctNo(), tmpMsg.getAucHouseAccNo(), acctNumber);
-                        messageQueue.add(clientmsg);
+    /**
+     * Takes the next message that arrived while the account was registering, or stops keeping
+     * new messages back once there are none left.
+     */
+    private synchronized Object nextQueued(){
+        Object next = state == State.CLOSED ? null : backlog.poll();
+        if (next == null){
+            draining = false;
+        }
+        return next;
+    }
+
+    /**
+     * Places and releases the holds of a batch from the auction house and answers it. On the
+     * worker, batches are queued and applied one at a time, so a release never overtakes the
+     * hold it gives back.
+     */
+    private void applyHolds(HoldBatch batch) throws IOException {
+        if (worker == null){
+            writer.send(holds.apply(batch, acctNumber));
+            return;
+        }
+        synchronized (pendingHolds){
+            pendingHolds.add(batch);
+            if (applyingHolds){
+                return;
+            }
+            applyingHolds = true;
+        }
+        int house = acctNumber;
+        worker.execute(() -> {
+            while (true){
+                HoldBatch next;
+                synchronized (pendingHolds){
+                    next = pendingHolds.poll();
+                    if (next == null){
+                        applyingHolds = false;
+                        return;
                     }
                 }
+                try {
+                    writer.send(holds.apply(next, house));
+                }catch (IOException e){
+                    e.printStackTrace();
+                }
             }
-        }catch(SocketException | EOFException e){
-            System.out.println("User #" + acctNumber + " has closed.");
-            auctionHouseAddresses.remove(acctNumber);
-            clients.remove(acctNumber);
-            accounts.remove(acctNumber);
+        });
+    }
+
+    /**
+     * Sends the agent the directory changes after the version it knows, or the whole directory
+     * if they are no longer kept.
+     */
+    private void sendDirectorySince(long sinceVersion) throws IOException {
+        List<DirectoryChange> changes = houses.changesSince(sinceVersion);
+        if (changes == null){
+            writer.send(houses.snapshot());
+            return;
         }
-        catch(IOException | ClassNotFoundException e){
-            e.printStackTrace();
+        for (DirectoryChange change : changes){
+            writer.send(change);
         }
     }
 
@@ -121,17 +342,14 @@ public class ClientAccount implements Runnable{
         return acctNumber;
     }
 
-    public void deposit(int amount){
-        totalBalance += amount;
-    }
-
-    public void withdraw(int amount){
+    /**
+     * Sends a message to the client.
+     */
+    public void send(Object message){
         try {
-            totalBalance -= amount;
-            writer.writeObject(totalBalance);
+            writer.send(message);
         }catch (IOException e){
             e.printStackTrace();
         }
-
     }
-}
\ No newline at end of file
+}
@@ -8,9 +8,12 @@ package Bank;
  * components, it uses Serializable, which makes it simple to send over the network.
  */
 
+import java.io.Serial;
 import java.io.Serializable;
 
 public class ClientAdress implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
     private final String ipAdress;
     private final int portNumber;
 
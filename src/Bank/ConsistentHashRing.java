@@ -0,0 +1,59 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Places account numbers on shards by consistent hashing. Every shard owns many points on a
+ * ring of hash values, and an account belongs to the shard of the first point at or after its
+ * own hash. Adding a shard therefore only takes over the accounts between its new points and
+ * the points before them, about one account in every shard count plus one; all other accounts
+ * stay where they are. Not thread safe; the ShardedLedger guards it.
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ConsistentHashRing {
+    private final int virtualNodes;
+    private final TreeMap<Integer, Integer> points = new TreeMap<>();
+
+    /**
+     * @param virtualNodes points each shard owns on the ring; more points spread the accounts more evenly
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public void add(int shard) {
+        for (int i = 0; i < virtualNodes; i++) {
+            points.put(hash(((long) shard << 32) | i), shard);
+        }
+    }
+
+    public void remove(int shard) {
+        points.values().removeIf(owner -> owner == shard);
+    }
+
+    /**
+     * Returns the shard that owns the account.
+     */
+    public int shardFor(int account) {
+        Map.Entry<Integer, Integer> point = points.ceilingEntry(hash(account));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    public boolean isEmpty() {
+        return points.isEmpty();
+    }
+
+    /**
+     * Spreads nearby numbers, such as consecutive account numbers, over the whole ring.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
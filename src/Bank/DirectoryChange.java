@@ -0,0 +1,47 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * One change to the directory of auction houses: a house joined, with its address, or left,
+ * without one. Changes are numbered by the directory version they produced, so an agent applies
+ * them in order and notices when it has missed one.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class DirectoryChange implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long version;
+    private final int account;
+    private final ClientAdress address;
+
+    /**
+     * @param address the house's address, or null if the house left
+     */
+    public DirectoryChange(long version, int account, ClientAdress address) {
+        this.version = version;
+        this.account = account;
+        this.address = address;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getAccount() {
+        return account;
+    }
+
+    /**
+     * Gets the address of the house that joined, or null if it left.
+     */
+    public ClientAdress getAddress() {
+        return address;
+    }
+
+    public boolean isJoin() {
+        return address != null;
+    }
+}
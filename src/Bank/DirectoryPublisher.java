@@ -0,0 +1,49 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Sends every change of the HouseDirectory to all connected agents from its own thread, so a
+ * house that registers or leaves never waits for the agents' sockets. Changes are sent in the
+ * order of their versions.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class DirectoryPublisher implements Runnable {
+    private final ConcurrentHashMap<Integer, MessageSink> clients;
+    private final LinkedBlockingQueue<DirectoryChange> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * @param clients connected agents by account number
+     */
+    public DirectoryPublisher(ConcurrentHashMap<Integer, MessageSink> clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Queues a change for every agent. Never blocks.
+     */
+    public void publish(DirectoryChange change) {
+        queue.add(change);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                DirectoryChange change = queue.take();
+                for (MessageSink client : clients.values()) {
+                    try {
+                        client.send(change);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
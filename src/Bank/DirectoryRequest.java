@@ -0,0 +1,24 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Sent by an agent to get the directory changes made after the version it knows. The Bank
+ * answers with those changes in order, or with a DirectorySnapshot if it no longer has them.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class DirectoryRequest implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long sinceVersion;
+
+    public DirectoryRequest(long sinceVersion) {
+        this.sinceVersion = sinceVersion;
+    }
+
+    public long getSinceVersion() {
+        return sinceVersion;
+    }
+}
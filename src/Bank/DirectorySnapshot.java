@@ -0,0 +1,32 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Every auction house registered with the Bank at one version of the directory, by account
+ * number. An agent gets one when it registers, or when the changes it asked for are no longer
+ * kept, and applies the DirectoryChanges after that version on top of it.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Map;
+
+public class DirectorySnapshot implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long version;
+    private final Map<Integer, ClientAdress> houses;
+
+    public DirectorySnapshot(long version, Map<Integer, ClientAdress> houses) {
+        this.version = version;
+        this.houses = houses;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<Integer, ClientAdress> getHouses() {
+        return houses;
+    }
+}
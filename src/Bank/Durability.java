@@ -0,0 +1,14 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * How hard the TransferJournal works to keep a record once a transfer has been applied.
+ */
+public enum Durability {
+    /** Records are written to the file but never forced; the operating system flushes them. */
+    NONE,
+    /** Each batch of records is forced to disk, but callers do not wait for it. */
+    ASYNC,
+    /** Each batch is forced to disk with one fsync, and every caller waits for its batch. */
+    SYNC
+}
@@ -0,0 +1,173 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Blocking, length-prefixed message stream used on every connection to the Bank.
+ * Each frame is a four byte length followed by one message, so the same frames can also
+ * be read without blocking by the BankSelectorServer. Messages are written with the binary
+ * WireCodec when both sides speak it: the connecting side offers it by sending its first
+ * message in binary, and the accepting side answers in whatever encoding its first frame used.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+public class FrameStream implements MessageSink, Closeable {
+    public static final int MAX_FRAME_BYTES = 1 << 20;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final OutputStream socketOut;
+    private final WireCodec.Buffer buffer = new WireCodec.Buffer();
+    private final ManagedObjectStream objects = new ManagedObjectStream();
+    private volatile boolean binary;
+    private volatile boolean negotiated;
+
+    /**
+     * Wraps an accepted socket; messages are encoded the way the other side's first frame was.
+     *
+     * @param socket the socket to read frames from and write frames to
+     */
+    public FrameStream(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.socketOut = socket.getOutputStream();
+        this.out = new DataOutputStream(new BufferedOutputStream(socketOut));
+    }
+
+    /**
+     * Wraps a socket this side connected.
+     *
+     * @param socket the socket to read frames from and write frames to
+     * @param binary true to offer the binary codec, false to only use Java serialization
+     */
+    public FrameStream(Socket socket, boolean binary) throws IOException {
+        this(socket);
+        this.binary = binary;
+        this.negotiated = true;
+    }
+
+    /**
+     * Writes one message as a single frame. Safe to call from several threads.
+     */
+    @Override
+    public synchronized void send(Object message) throws IOException {
+        buffer.reset();
+        encode(message, binary, buffer, objects);
+        out.writeInt(buffer.size());
+        out.write(buffer.array(), 0, buffer.size());
+        out.flush();
+    }
+
+    /**
+     * Writes a shared frame straight to the socket, without copying it into this stream's buffer.
+     */
+    @Override
+    public synchronized void sendShared(SharedFrame frame) throws IOException {
+        if (!binary || !frame.isBinary()) {
+            send(frame.getMessage());
+            return;
+        }
+        socketOut.write(frame.bytes());
+        socketOut.flush();
+    }
+
+    /**
+     * Blocks until the next frame has arrived and returns its message.
+     *
+     * @throws java.io.EOFException if the other side closed the connection
+     */
+    public Object read() throws IOException, ClassNotFoundException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Bad frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        if (!negotiated) {
+            binary = WireCodec.isBinary(payload, 0, length);
+            negotiated = true;
+        }
+        return decode(payload, 0, length, objects);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Returns the stream that serializes messages without a binary encoding on this connection.
+     */
+    public ManagedObjectStream getObjectStream() {
+        return objects;
+    }
+
+    /**
+     * Encodes one message into a frame payload. On a binary connection a message without a binary
+     * encoding is serialized on the connection's object stream; otherwise every frame holds a
+     * complete serialized stream of its own.
+     */
+    static void encode(Object message, boolean binary, WireCodec.Buffer out, ManagedObjectStream objects)
+            throws IOException {
+        if (binary && WireCodec.encode(message, out)) {
+            return;
+        }
+        out.reset();
+        if (binary) {
+            out.putByte(WireCodec.JAVA_OBJECT);
+            objects.write(message, out);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(message);
+        }
+        out.putBytes(bytes.toByteArray());
+    }
+
+    /**
+     * Encodes one message into a complete frame, length prefix included.
+     */
+    static byte[] frame(Object message, boolean binary, WireCodec.Buffer scratch, ManagedObjectStream objects)
+            throws IOException {
+        scratch.reset();
+        encode(message, binary, scratch, objects);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + scratch.size());
+        frame.putInt(scratch.size());
+        frame.put(scratch.array(), 0, scratch.size());
+        return frame.array();
+    }
+
+    /**
+     * Reads the message out of a frame payload in either encoding.
+     */
+    static Object decode(byte[] payload, int offset, int length, ManagedObjectStream objects)
+            throws IOException, ClassNotFoundException {
+        if (WireCodec.isBinary(payload, offset, length) && payload[offset] == WireCodec.JAVA_OBJECT) {
+            return objects.read(payload, offset + 1, length - 1);
+        }
+        if (WireCodec.isBinary(payload, offset, length)) {
+            return WireCodec.decode(payload, offset, length);
+        }
+        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(payload, offset, length))) {
+            return stream.readObject();
+        }
+    }
+}
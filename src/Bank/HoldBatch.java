@@ -0,0 +1,66 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Hold and release operations sent by an auction house in one message. A hold reserves an
+ * agent's money for a bid the house is about to accept; a release gives it back when the bid
+ * was outbid or could not be placed. A hold with an id the house already holds renews its
+ * lease. The batch id correlates the batch with its HoldResult.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class HoldBatch implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long batchId;
+    private final long leaseMillis;
+    private final boolean[] hold;
+    private final long[] holdIds;
+    private final int[] agentAcctNos;
+    private final int[] amounts;
+
+    /**
+     * @param leaseMillis how long the Bank keeps a new hold before releasing it on its own
+     * @param hold        for each operation, true to hold and false to release
+     * @param amounts     amounts to hold, in dollars; 0 only renews; ignored for releases
+     */
+    public HoldBatch(long batchId, long leaseMillis, boolean[] hold, long[] holdIds, int[] agentAcctNos,
+                     int[] amounts) {
+        this.batchId = batchId;
+        this.leaseMillis = leaseMillis;
+        this.hold = hold;
+        this.holdIds = holdIds;
+        this.agentAcctNos = agentAcctNos;
+        this.amounts = amounts;
+    }
+
+    public long getBatchId() {
+        return batchId;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    public int size() {
+        return holdIds.length;
+    }
+
+    public boolean isHold(int index) {
+        return hold[index];
+    }
+
+    public long getHoldId(int index) {
+        return holdIds[index];
+    }
+
+    public int getAgentAcctNo(int index) {
+        return agentAcctNos[index];
+    }
+
+    public int getAmount(int index) {
+        return amounts[index];
+    }
+}
@@ -0,0 +1,192 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * The fund holds auction houses place on agents' accounts while their bids stand. Each hold
+ * has an id chosen by the house and a lease; a hold that is neither released nor settled
+ * before its lease runs out is released by the HoldBook's own thread, so a house that goes
+ * away cannot keep an agent's money locked. Placing a hold whose id is already held succeeds
+ * without holding more but renews its lease, so a house can safely send the same request again
+ * and keeps the hold of a standing bid by sending it again before the lease runs out. A hold of
+ * nothing only renews. A released, settled or renewed hold keeps its old lease queued until it
+ * runs out, since removing it from the DelayQueue would scan the whole queue; the lease thread
+ * skips leases whose hold is already gone or was renewed.
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HoldBook implements Runnable {
+    private final AccountStore ledger;
+    private final ConcurrentHashMap<Long, Hold> holds = new ConcurrentHashMap<>();
+    private final DelayQueue<Lease> leases = new DelayQueue<>();
+    private final AtomicLong expired = new AtomicLong();
+
+    public HoldBook(AccountStore ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Applies a batch of hold and release operations from one auction house.
+     *
+     * @param house account number of the house that sent the batch
+     * @return the result of every operation, by hold id
+     */
+    public HoldResult apply(HoldBatch batch, int house) {
+        long[] holdIds = new long[batch.size()];
+        boolean[] done = new boolean[batch.size()];
+        for (int i = 0; i < holdIds.length; i++) {
+            holdIds[i] = batch.getHoldId(i);
+            if (batch.isHold(i)) {
+                done[i] = hold(holdIds[i], house, batch.getAgentAcctNo(i), Ledger.toMinorUnits(batch.getAmount(i)),
+                        TimeUnit.MILLISECONDS.toNanos(batch.getLeaseMillis()));
+            } else {
+                done[i] = release(holdIds[i], house);
+            }
+        }
+        return new HoldResult(batch.getBatchId(), holdIds, done);
+    }
+
+    /**
+     * Holds money on an agent's account for an auction house until the lease runs out, or
+     * renews the lease if the house already holds money under this id.
+     *
+     * @return false if the agent does not have that much that is not held already, or if there
+     * is nothing to renew for a hold of nothing
+     */
+    public boolean hold(long holdId, int house, int account, long minorUnits, long leaseNanos) {
+        long expiresAt = System.nanoTime() + leaseNanos;
+        Hold held = holds.get(holdId);
+        if (held != null) {
+            renew(held, house, expiresAt);
+            return true;
+        }
+        if (minorUnits == 0 || !ledger.hold(account, minorUnits)) {
+            return false;
+        }
+        Hold hold = new Hold(holdId, house, account, minorUnits, expiresAt);
+        held = holds.putIfAbsent(holdId, hold);
+        if (held != null) {
+            ledger.release(account, minorUnits);
+            renew(held, house, expiresAt);
+            return true;
+        }
+        leases.add(new Lease(hold, expiresAt));
+        return true;
+    }
+
+    private void renew(Hold hold, int house, long expiresAt) {
+        synchronized (hold) {
+            if (hold.house != house || expiresAt <= hold.expiresAt) {
+                return;
+            }
+            hold.expiresAt = expiresAt;
+        }
+        leases.add(new Lease(hold, expiresAt));
+    }
+
+    /**
+     * Releases a hold placed by the given house.
+     *
+     * @return false if there is no such hold, e.g. because its lease ran out
+     */
+    public boolean release(long holdId, int house) {
+        Hold hold = holds.get(holdId);
+        if (hold == null || hold.house != house || !holds.remove(holdId, hold)) {
+            return false;
+        }
+        ledger.release(hold.account, hold.minorUnits);
+        return true;
+    }
+
+    /**
+     * Removes a hold that is about to be settled and returns its amount, which the settling
+     * transfer releases on the ledger.
+     *
+     * @return the amount held, or 0 if there is no such hold for this house and account
+     */
+    public long take(long holdId, int house, int account) {
+        Hold hold = holds.get(holdId);
+        if (hold == null || hold.house != house || hold.account != account || !holds.remove(holdId, hold)) {
+            return 0;
+        }
+        return hold.minorUnits;
+    }
+
+    public int size() {
+        return holds.size();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * Releases every hold whose lease runs out. Leases of holds released, settled or renewed
+     * before then are dropped here.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Lease lease = leases.take();
+                Hold hold = lease.hold;
+                boolean runOut;
+                synchronized (hold) {
+                    runOut = hold.expiresAt == lease.expiresAt && holds.remove(hold.holdId, hold);
+                }
+                if (runOut) {
+                    ledger.release(hold.account, hold.minorUnits);
+                    expired.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Money held on one account for one auction house until a point in time.
+     */
+    private static final class Hold {
+        private final long holdId;
+        private final int house;
+        private final int account;
+        private final long minorUnits;
+        private long expiresAt;
+
+        private Hold(long holdId, int house, int account, long minorUnits, long expiresAt) {
+            this.holdId = holdId;
+            this.house = house;
+            this.account = account;
+            this.minorUnits = minorUnits;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The point in time a hold runs out, unless it was renewed since.
+     */
+    private static final class Lease implements Delayed {
+        private final Hold hold;
+        private final long expiresAt;
+
+        private Lease(Hold hold, long expiresAt) {
+            this.hold = hold;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(expiresAt, ((Lease) other).expiresAt);
+        }
+    }
+}
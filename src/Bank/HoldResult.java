@@ -0,0 +1,40 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * The Bank's answer to a HoldBatch: for each hold id whether the money is now held, or was
+ * released.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class HoldResult implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long batchId;
+    private final long[] holdIds;
+    private final boolean[] done;
+
+    public HoldResult(long batchId, long[] holdIds, boolean[] done) {
+        this.batchId = batchId;
+        this.holdIds = holdIds;
+        this.done = done;
+    }
+
+    public long getBatchId() {
+        return batchId;
+    }
+
+    public int size() {
+        return holdIds.length;
+    }
+
+    public long getHoldId(int index) {
+        return holdIds[index];
+    }
+
+    public boolean isDone(int index) {
+        return done[index];
+    }
+}
@@ -0,0 +1,143 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Directory of the auction houses registered with the Bank, by account number. Every join and
+ * leave is journaled so the directory is recovered on restart. Each house registers with an
+ * identity of its own that stays the same across restarts. The houses that were registered when
+ * the Bank went down are kept aside by identity, and a house that registers again with the same
+ * identity gets its old account number, and with it its balance, back, whatever its address.
+ * Every join and leave also raises the directory's version, which is journaled too. The most
+ * recent changes are kept so an agent that knows an older version can catch up without the
+ * whole directory.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+public class HouseDirectory {
+    private static final int KEPT_CHANGES = 1024;
+    private final ConcurrentHashMap<Integer, ClientAdress> addresses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> restored = new ConcurrentHashMap<>();
+    private final ArrayDeque<DirectoryChange> changes = new ArrayDeque<>();
+    private long version;
+    private TransferJournal journal;
+    private Consumer<DirectoryChange> listener = change -> { };
+
+    /**
+     * Starts recording every join and leave in the journal.
+     */
+    public void setJournal(TransferJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets who is told about every change, in version order. It is called while the directory
+     * is locked and must not block.
+     */
+    public void setListener(Consumer<DirectoryChange> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Remembers a house recovered from a snapshot and the journal by its identity.
+     */
+    void restore(int account, String identity) {
+        restored.put(identity, account);
+    }
+
+    /**
+     * Continues the version recovered from a snapshot and the journal. It is raised by one more,
+     * since none of the houses known at that version are registered anymore, so an agent that
+     * knows it is sent the whole directory.
+     */
+    synchronized void restoreVersion(long recovered) {
+        version = Math.max(version, recovered + 1);
+    }
+
+    /**
+     * Returns the account number the house with this identity had before the restart, and forgets
+     * it, or returns the offered number if the identity is unknown.
+     */
+    public int claim(String identity, int offered) {
+        Integer account = restored.remove(identity);
+        return account == null ? offered : account;
+    }
+
+    /**
+     * Registers a house with the identity it will register with again after a restart.
+     */
+    public synchronized void join(int account, ClientAdress address, String identity) {
+        addresses.put(account, address);
+        if (journal != null) {
+            journal.recordHouseJoin(account, address, identity, version + 1);
+        }
+        changed(account, address);
+    }
+
+    /**
+     * Removes a house; does nothing if it never registered.
+     */
+    public synchronized void leave(int account) {
+        if (addresses.remove(account) == null) {
+            return;
+        }
+        if (journal != null) {
+            journal.recordHouseLeave(account, version + 1);
+        }
+        changed(account, null);
+    }
+
+    /**
+     * Returns every registered house together with the current version.
+     */
+    public synchronized DirectorySnapshot snapshot() {
+        return new DirectorySnapshot(version, new LinkedHashMap<>(addresses));
+    }
+
+    /**
+     * Returns the changes made after the given version, oldest first, or null if some of them
+     * are no longer kept or the version is unknown.
+     */
+    public synchronized List<DirectoryChange> changesSince(long sinceVersion) {
+        if (sinceVersion > version || sinceVersion < version - changes.size()) {
+            return null;
+        }
+        List<DirectoryChange> since = new ArrayList<>();
+        for (DirectoryChange change : changes) {
+            if (change.getVersion() > sinceVersion) {
+                since.add(change);
+            }
+        }
+        return since;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    private void changed(int account, ClientAdress address) {
+        DirectoryChange change = new DirectoryChange(++version, account, address);
+        changes.addLast(change);
+        if (changes.size() > KEPT_CHANGES) {
+            changes.removeFirst();
+        }
+        listener.accept(change);
+    }
+
+    /**
+     * Returns the addresses of the registered houses.
+     */
+    public Collection<ClientAdress> values() {
+        return addresses.values();
+    }
+
+    public int size() {
+        return addresses.size();
+    }
+}
@@ -0,0 +1,473 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Holds the balance of every bank account in long minor units (cents). Accounts are spread over
+ * a fixed set of lock stripes; a transfer locks the stripes of both accounts in index order, so
+ * transfers between unrelated accounts run in parallel, opposite transfers cannot deadlock, and
+ * a withdrawal can never take an account below zero. When a TransferJournal is attached, every
+ * change is recorded in it after it was applied and before the call returns. A listener is told
+ * the account numbers whose balance a deposit, withdrawal or transfer changed.
+ * Part of a balance can be held for an auction house; held money cannot be withdrawn or
+ * transferred until the hold is released or the transfer that settles it is made.
+ * Holds are leases kept by the HoldBook and are not journaled.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+public class Ledger implements AccountStore {
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private final Object[] locks = new Object[STRIPES];
+    private final ConcurrentHashMap<Integer, Balance> balances = new ConcurrentHashMap<>();
+    private TransferJournal journal;
+    private IntConsumer listener = account -> { };
+
+    public Ledger() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Starts recording every change in the journal. Restore the recovered accounts first.
+     */
+    @Override
+    public void setJournal(TransferJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets who is told about balance changes. It is called on the thread that made the change
+     * and must not block.
+     */
+    @Override
+    public void setListener(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Converts an amount in dollars to cents.
+     */
+    public static long toMinorUnits(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    /**
+     * Converts an amount in cents to dollars.
+     */
+    public static double toMajorUnits(long minorUnits) {
+        return minorUnits / 100.0;
+    }
+
+    /**
+     * Opens an account with a starting balance, unless it already exists.
+     *
+     * @return true if the account was opened
+     */
+    @Override
+    public boolean open(int account, long minorUnits) {
+        if (balances.putIfAbsent(account, new Balance(minorUnits)) != null) {
+            return false;
+        }
+        if (journal != null) {
+            journal.recordOpen(account, minorUnits);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(int account) {
+        return balances.containsKey(account);
+    }
+
+    /**
+     * Returns the balance of an account in cents, or 0 if it does not exist.
+     */
+    @Override
+    public long balance(int account) {
+        Balance balance = balances.get(account);
+        if (balance == null) {
+            return 0;
+        }
+        synchronized (lockFor(account)) {
+            return balance.minorUnits;
+        }
+    }
+
+    /**
+     * Adds money to an account.
+     *
+     * @return false if the account does not exist or the amount is not positive
+     */
+    @Override
+    public boolean deposit(int account, long minorUnits) {
+        return deposit(0, account, minorUnits);
+    }
+
+    /**
+     * Like deposit, and journals the request's idempotency key with it, or as refused.
+     *
+     * @param key idempotency key of the request, or 0 if it has none
+     */
+    public boolean deposit(long key, int account, long minorUnits) {
+        Balance balance = balances.get(account);
+        if (balance == null || minorUnits <= 0) {
+            refused(key);
+            return false;
+        }
+        synchronized (lockFor(account)) {
+            balance.minorUnits += minorUnits;
+        }
+        if (journal != null) {
+            journal.recordDeposit(account, minorUnits, key);
+        }
+        listener.accept(account);
+        return true;
+    }
+
+    /**
+     * Takes money out of an account if it has enough.
+     *
+     * @return false if the account does not exist, the amount is not positive or the balance is too low
+     */
+    @Override
+    public boolean withdraw(int account, long minorUnits) {
+        return withdraw(0, account, minorUnits);
+    }
+
+    /**
+     * Like withdraw, and journals the request's idempotency key with it, or as refused.
+     *
+     * @param key idempotency key of the request, or 0 if it has none
+     */
+    public boolean withdraw(long key, int account, long minorUnits) {
+        Balance balance = balances.get(account);
+        if (balance == null || minorUnits <= 0) {
+            refused(key);
+            return false;
+        }
+        boolean enough;
+        synchronized (lockFor(account)) {
+            enough = balance.minorUnits - balance.held >= minorUnits;
+            if (enough) {
+                balance.minorUnits -= minorUnits;
+            }
+        }
+        if (!enough) {
+            refused(key);
+            return false;
+        }
+        if (journal != null) {
+            journal.recordWithdraw(account, minorUnits, key);
+        }
+        listener.accept(account);
+        return true;
+    }
+
+    /**
+     * Atomically moves money between two accounts if the payer has enough that is not held.
+     *
+     * @return false if either account does not exist or the payer's balance is too low
+     */
+    @Override
+    public boolean transfer(int from, int to, long minorUnits) {
+        return transferHeld(from, to, 0, minorUnits);
+    }
+
+    /**
+     * Atomically releases money held on the payer's account and moves the amount to the payee,
+     * e.g. to settle a lot the payer won. The hold is released even if the transfer is refused.
+     *
+     * @param heldUnits amount held for this payment, 0 if none
+     * @return false if either account does not exist or the payer's balance is too low
+     */
+    @Override
+    public boolean transferHeld(int from, int to, long heldUnits, long minorUnits) {
+        return transferHeld(0, from, to, heldUnits, minorUnits);
+    }
+
+    /**
+     * Like transferHeld, and journals the request's idempotency key with the transfer, or as
+     * refused if the transfer is refused.
+     *
+     * @param key idempotency key of the request, or 0 if it has none
+     */
+    @Override
+    public boolean transferHeld(long key, int from, int to, long heldUnits, long minorUnits) {
+        if (!move(from, to, heldUnits, minorUnits)) {
+            refused(key);
+            return false;
+        }
+        if (journal != null) {
+            journal.recordTransfer(from, to, minorUnits, key);
+        }
+        listener.accept(from);
+        listener.accept(to);
+        return true;
+    }
+
+    private void refused(long key) {
+        if (journal != null && key != 0) {
+            journal.recordRefused(key);
+        }
+    }
+
+    private boolean move(int from, int to, long heldUnits, long minorUnits) {
+        Balance payer = balances.get(from);
+        Balance payee = balances.get(to);
+        if (payer == null || payee == null || minorUnits < 0) {
+            return false;
+        }
+        int first = stripe(from);
+        int second = stripe(to);
+        if (first > second) {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+        synchronized (locks[first]) {
+            synchronized (locks[second]) {
+                payer.held -= Math.min(payer.held, heldUnits);
+                if (payer.minorUnits - payer.held < minorUnits) {
+                    return false;
+                }
+                payer.minorUnits -= minorUnits;
+                payee.minorUnits += minorUnits;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Holds money on an account so it cannot be spent elsewhere.
+     *
+     * @return false if the account does not exist or has less than that which is not held
+     */
+    @Override
+    public boolean hold(int account, long minorUnits) {
+        Balance balance = balances.get(account);
+        if (balance == null || minorUnits < 0) {
+            return false;
+        }
+        synchronized (lockFor(account)) {
+            if (balance.minorUnits - balance.held < minorUnits) {
+                return false;
+            }
+            balance.held += minorUnits;
+        }
+        return true;
+    }
+
+    /**
+     * Releases money held on an account.
+     */
+    @Override
+    public void release(int account, long minorUnits) {
+        Balance balance = balances.get(account);
+        if (balance == null) {
+            return;
+        }
+        synchronized (lockFor(account)) {
+            balance.held -= Math.min(balance.held, minorUnits);
+        }
+    }
+
+    /**
+     * Returns the part of an account's balance, in cents, that is not held.
+     */
+    @Override
+    public long available(int account) {
+        Balance balance = balances.get(account);
+        if (balance == null) {
+            return 0;
+        }
+        synchronized (lockFor(account)) {
+            return balance.minorUnits - balance.held;
+        }
+    }
+
+    /**
+     * Applies many transfers as one batch. The stripes of every account involved are locked once
+     * and held for the whole batch, so the batch is atomic and each account ends at its net change.
+     * Each transfer first releases what was held for it and is then checked against what its payer
+     * has left after the transfers before it. Each applied transfer is still journaled with its
+     * idempotency key, as is each refused one that has a key, and the listener is told once per
+     * account.
+     *
+     * @param heldUnits for each transfer the amount held for it, or null if nothing is held
+     * @param keys      for each transfer its idempotency key or 0, or null if none has one
+     * @return for each transfer, whether it was applied
+     */
+    @Override
+    public boolean[] transferBatch(int[] from, int[] to, long[] minorUnits, long[] heldUnits, long[] keys) {
+        boolean[] applied = new boolean[from.length];
+        boolean[] stripes = new boolean[STRIPES];
+        for (int i = 0; i < from.length; i++) {
+            stripes[stripe(from[i])] = true;
+            stripes[stripe(to[i])] = true;
+        }
+        lockStripes(stripes, 0, () -> {
+            for (int i = 0; i < from.length; i++) {
+                Balance payer = balances.get(from[i]);
+                Balance payee = balances.get(to[i]);
+                if (payer != null && heldUnits != null) {
+                    payer.held -= Math.min(payer.held, heldUnits[i]);
+                }
+                if (payer == null || payee == null || minorUnits[i] < 0
+                        || payer.minorUnits - payer.held < minorUnits[i]) {
+                    continue;
+                }
+                payer.minorUnits -= minorUnits[i];
+                payee.minorUnits += minorUnits[i];
+                applied[i] = true;
+            }
+        });
+        if (journal != null) {
+            journal.recordTransfers(from, to, minorUnits, applied, keys);
+        }
+        int[] changed = new int[from.length * 2];
+        int count = 0;
+        for (int i = 0; i < from.length; i++) {
+            if (applied[i]) {
+                changed[count++] = from[i];
+                changed[count++] = to[i];
+            }
+        }
+        Arrays.sort(changed, 0, count);
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || changed[i] != changed[i - 1]) {
+                listener.accept(changed[i]);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Puts back an account recovered from a snapshot and the journal, without journaling it again.
+     */
+    @Override
+    public void restore(int account, long minorUnits) {
+        balances.put(account, new Balance(minorUnits));
+    }
+
+    /**
+     * First phase of a transfer to an account on another shard: releases what was held for the
+     * payment and then holds the amount, so it cannot be spent before the transfer commits.
+     *
+     * @return false if the account does not exist or has less than that which is not held
+     */
+    boolean prepareDebit(int account, long heldUnits, long minorUnits) {
+        Balance balance = balances.get(account);
+        if (balance == null || minorUnits < 0) {
+            return false;
+        }
+        synchronized (lockFor(account)) {
+            balance.held -= Math.min(balance.held, heldUnits);
+            if (balance.minorUnits - balance.held < minorUnits) {
+                return false;
+            }
+            balance.held += minorUnits;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the amount prepared by prepareDebit out of the account.
+     */
+    void commitDebit(int account, long minorUnits) {
+        Balance balance = balances.get(account);
+        synchronized (lockFor(account)) {
+            balance.held -= minorUnits;
+            balance.minorUnits -= minorUnits;
+        }
+        listener.accept(account);
+    }
+
+    /**
+     * Pays the amount of a transfer from another shard into the account.
+     */
+    void commitCredit(int account, long minorUnits) {
+        Balance balance = balances.get(account);
+        synchronized (lockFor(account)) {
+            balance.minorUnits += minorUnits;
+        }
+        listener.accept(account);
+    }
+
+    /**
+     * Returns the numbers of the accounts on this ledger.
+     */
+    Iterable<Integer> accounts() {
+        return balances.keySet();
+    }
+
+    /**
+     * Takes an account off this ledger to move it to another shard.
+     *
+     * @return its balance and the part of it that is held, or null if there is no such account
+     */
+    long[] remove(int account) {
+        Balance balance = balances.remove(account);
+        if (balance == null) {
+            return null;
+        }
+        synchronized (lockFor(account)) {
+            return new long[] {balance.minorUnits, balance.held};
+        }
+    }
+
+    /**
+     * Puts an account moved from another shard on this ledger.
+     */
+    void put(int account, long minorUnits, long held) {
+        Balance balance = new Balance(minorUnits);
+        balance.held = held;
+        balances.put(account, balance);
+    }
+
+    @Override
+    public int size() {
+        return balances.size();
+    }
+
+    /**
+     * Locks the marked stripes from the given index up, in index order like transfer, and runs
+     * the body while holding all of them.
+     */
+    private void lockStripes(boolean[] stripes, int from, Runnable body) {
+        int stripe = from;
+        while (stripe < STRIPES && !stripes[stripe]) {
+            stripe++;
+        }
+        if (stripe == STRIPES) {
+            body.run();
+            return;
+        }
+        synchronized (locks[stripe]) {
+            lockStripes(stripes, stripe + 1, body);
+        }
+    }
+
+    private Object lockFor(int account) {
+        return locks[stripe(account)];
+    }
+
+    private static int stripe(int account) {
+        return (account * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS);
+    }
+
+    /**
+     * Mutable balance cell, only read or written while holding its account's stripe lock.
+     */
+    private static final class Balance {
+        private long minorUnits;
+        private long held;
+
+        private Balance(long minorUnits) {
+            this.minorUnits = minorUnits;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Keeps a shadow copy of every account balance and registered auction house, built from the
+ * records the TransferJournal has written, and periodically saves it as a compact binary
+ * snapshot. The shadow copy is only touched by the snapshot thread, so taking a snapshot never
+ * pauses transfers. Once a snapshot is safely on disk the journal segments it covers are deleted,
+ * so a restart loads the snapshot and replays only the records written since. Transfers between
+ * shards that are still open, a shard's prepared parts and the Bank's commit decisions, are kept
+ * in the snapshot too, so compacting the journal never loses them. So are the results of the
+ * newest requests with an idempotency key, such as settlements, so a request that is sent again
+ * after a restart is not applied twice. The identity each house registered with and the
+ * directory's version are kept as well, so a house that comes back after a restart is known again.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+public class LedgerSnapshot implements Runnable {
+    private static final int MAGIC = 0x42414E4B;
+    private static final int VERSION = 4;
+    private static final int SETTLEMENT_KEYS = 1 << 16;
+
+    private final HashMap<Integer, Long> balances = new HashMap<>();
+    private final HashMap<Integer, ClientAdress> houses = new HashMap<>();
+    private final HashMap<Integer, String> identities = new HashMap<>();
+    private final HashMap<Long, TransferJournal.Record> prepared = new HashMap<>();
+    private final HashMap<Long, TransferJournal.Record> decided = new HashMap<>();
+    private final LinkedHashMap<Long, Boolean> settlements = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > SETTLEMENT_KEYS;
+        }
+    };
+    private final LinkedBlockingQueue<TransferJournal.Record> pending = new LinkedBlockingQueue<>();
+    private long sequence;
+    private long directoryVersion;
+    private Path file;
+    private TransferJournal journal;
+    private long intervalNanos;
+
+    /**
+     * Loads the snapshot in the given file, or starts empty if there is none.
+     */
+    public static LedgerSnapshot load(Path file) throws IOException {
+        LedgerSnapshot snapshot = new LedgerSnapshot();
+        snapshot.file = file;
+        if (!Files.exists(file)) {
+            return snapshot;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file))) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a bank snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unknown bank snapshot version " + version + ": " + file);
+            }
+            snapshot.sequence = in.readLong();
+            int accounts = in.readInt();
+            for (int i = 0; i < accounts; i++) {
+                snapshot.balances.put(in.readInt(), in.readLong());
+            }
+            int houses = in.readInt();
+            for (int i = 0; i < houses; i++) {
+                int account = in.readInt();
+                snapshot.houses.put(account, new ClientAdress(in.readUTF(), in.readInt()));
+                snapshot.identities.put(account, version >= 4 ? in.readUTF() : "");
+            }
+            if (version >= 2) {
+                readTransactions(in, TransferJournal.SHARD_PREPARE, snapshot.prepared);
+                readTransactions(in, TransferJournal.TX_COMMIT, snapshot.decided);
+            }
+            if (version >= 3) {
+                int keys = in.readInt();
+                for (int i = 0; i < keys; i++) {
+                    snapshot.settlements.put(in.readLong(), in.readBoolean());
+                }
+            }
+            if (version >= 4) {
+                snapshot.directoryVersion = in.readLong();
+            }
+            int expected = (int) crc.getValue();
+            if (new DataInputStream(raw).readInt() != expected) {
+                throw new IOException("Corrupt bank snapshot: " + file);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Applies one journal record to the shadow copy.
+     */
+    public void apply(TransferJournal.Record record) {
+        int account = record.getFirst();
+        if (record.getKey() != 0) {
+            settlements.put(record.getKey(), record.getType() != TransferJournal.REFUSED);
+        }
+        switch (record.getType()) {
+            case TransferJournal.OPEN -> balances.putIfAbsent(account, record.getAmount());
+            case TransferJournal.TRANSFER -> {
+                balances.computeIfPresent(account, (key, balance) -> balance - record.getAmount());
+                balances.computeIfPresent(record.getSecond(), (key, balance) -> balance + record.getAmount());
+            }
+            case TransferJournal.DEPOSIT -> balances.computeIfPresent(account, (key, balance) -> balance + record.getAmount());
+            case TransferJournal.WITHDRAW -> balances.computeIfPresent(account, (key, balance) -> balance - record.getAmount());
+            case TransferJournal.HOUSE_JOIN -> {
+                houses.put(account, record.getAddress());
+                identities.put(account, record.getIdentity());
+                directoryVersion = Math.max(directoryVersion, record.getAmount());
+            }
+            case TransferJournal.HOUSE_LEAVE -> {
+                houses.remove(account);
+                identities.remove(account);
+                directoryVersion = Math.max(directoryVersion, record.getAmount());
+            }
+            case TransferJournal.SHARD_PREPARE -> prepared.put(record.getTx(), record);
+            case TransferJournal.SHARD_COMMIT -> {
+                prepared.remove(record.getTx());
+                long change = record.getSecond() == 1 ? record.getAmount() : -record.getAmount();
+                balances.computeIfPresent(account, (key, balance) -> balance + change);
+            }
+            case TransferJournal.SHARD_ABORT -> prepared.remove(record.getTx());
+            case TransferJournal.TX_COMMIT -> decided.put(record.getTx(), record);
+            case TransferJournal.TX_END -> decided.remove(record.getTx());
+            case TransferJournal.ACCOUNT_IN -> balances.put(account, record.getAmount());
+            case TransferJournal.ACCOUNT_OUT -> balances.remove(account);
+            default -> {
+            }
+        }
+        sequence = record.getSequence();
+    }
+
+    /**
+     * Puts the recovered accounts into the ledger, and the identities of the recovered houses and
+     * the directory's version into the directory. Houses that joined before they had an identity
+     * cannot be recognized and are left out.
+     */
+    public void restoreInto(AccountStore ledger, HouseDirectory directory) {
+        for (Map.Entry<Integer, Long> entry : balances.entrySet()) {
+            ledger.restore(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Integer, String> entry : identities.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                directory.restore(entry.getKey(), entry.getValue());
+            }
+        }
+        directory.restoreVersion(directoryVersion);
+    }
+
+    /**
+     * Returns the parts of transfers between shards this shard prepared but had not yet
+     * committed or aborted, as their SHARD_PREPARE records.
+     */
+    public Collection<TransferJournal.Record> getPrepared() {
+        return new ArrayList<>(prepared.values());
+    }
+
+    /**
+     * Returns the transfers between shards the Bank decided to commit but had not yet seen
+     * applied by both shards, as their TX_COMMIT records.
+     */
+    public Collection<TransferJournal.Record> getDecided() {
+        return new ArrayList<>(decided.values());
+    }
+
+    /**
+     * Returns the results of the newest requests with an idempotency key, by key, oldest first.
+     */
+    public Map<Long, Boolean> getSettlements() {
+        return new LinkedHashMap<>(settlements);
+    }
+
+    /**
+     * Starts following the journal and saving a snapshot every interval.
+     */
+    public void start(TransferJournal journal, long interval, TimeUnit unit) {
+        this.journal = journal;
+        this.intervalNanos = unit.toNanos(interval);
+        journal.setListener(pending::add);
+        Thread thread = new Thread(this);
+        thread.setName("Snapshot");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void run() {
+        long saved = sequence;
+        long due = System.nanoTime() + intervalNanos;
+        while (true) {
+            try {
+                TransferJournal.Record record = pending.poll(Math.max(0, due - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (record != null) {
+                    apply(record);
+                }
+                if (System.nanoTime() < due) {
+                    continue;
+                }
+                due = System.nanoTime() + intervalNanos;
+                if (sequence == saved) {
+                    continue;
+                }
+                journal.requestRoll();
+                save();
+                saved = sequence;
+                journal.compact(saved);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the shadow copy next to the snapshot file and then moves it over the old one,
+     * so a crash while saving leaves the previous snapshot intact.
+     */
+    private void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream raw = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(raw, crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sequence);
+            out.writeInt(balances.size());
+            for (Map.Entry<Integer, Long> entry : balances.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(houses.size());
+            for (Map.Entry<Integer, ClientAdress> entry : houses.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeUTF(entry.getValue().getipAdress());
+                out.writeInt(entry.getValue().getPortNumber());
+                out.writeUTF(identities.getOrDefault(entry.getKey(), ""));
+            }
+            writeTransactions(out, prepared);
+            writeTransactions(out, decided);
+            out.writeInt(settlements.size());
+            for (Map.Entry<Long, Boolean> entry : settlements.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeBoolean(entry.getValue());
+            }
+            out.writeLong(directoryVersion);
+            out.flush();
+            new DataOutputStream(raw).writeInt((int) crc.getValue());
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Saved bank snapshot at journal record " + sequence);
+    }
+
+    private static void writeTransactions(DataOutputStream out, Map<Long, TransferJournal.Record> records)
+            throws IOException {
+        out.writeInt(records.size());
+        for (TransferJournal.Record record : records.values()) {
+            out.writeLong(record.getTx());
+            out.writeInt(record.getFirst());
+            out.writeInt(record.getSecond());
+            out.writeLong(record.getAmount());
+        }
+    }
+
+    private static void readTransactions(DataInputStream in, byte type, Map<Long, TransferJournal.Record> records)
+            throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            TransferJournal.Record record = new TransferJournal.Record(type, in.readLong(), in.readInt(), in.readInt(),
+                    in.readLong());
+            records.put(record.getTx(), record);
+        }
+    }
+}
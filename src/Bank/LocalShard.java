@@ -0,0 +1,229 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * A shard whose accounts are kept in a Ledger in this process. In the Bank itself it is one of
+ * the in-process shards of a ShardedLedger, journaled by the Bank; in a ShardNode it is the
+ * node's whole ledger and journals its accounts, its prepared transfers and the accounts moved
+ * on and off it itself, so the node recovers all of them after a crash.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+public class LocalShard implements Shard {
+    private final String name;
+    private final Ledger ledger;
+    private final TransferJournal journal;
+    private final ConcurrentHashMap<Long, Prepared> prepared = new ConcurrentHashMap<>();
+
+    /**
+     * @param journal journal of the shard's own changes, or null if the Bank journals them
+     */
+    public LocalShard(String name, Ledger ledger, TransferJournal journal) {
+        this.name = name;
+        this.ledger = ledger;
+        this.journal = journal;
+    }
+
+    /**
+     * Puts back a part of a transfer that was prepared before a restart, holding its amount
+     * again if it is a debit.
+     */
+    public void restorePrepared(TransferJournal.Record record) {
+        Prepared part = new Prepared(record.getFirst(), record.getSecond() == 1, record.getAmount());
+        prepared.put(record.getTx(), part);
+        if (!part.credit && !ledger.hold(part.account, part.minorUnits)) {
+            System.out.println("Could not hold " + Ledger.toMajorUnits(part.minorUnits) + " again on #" + part.account
+                    + " for transfer " + record.getTx());
+        }
+    }
+
+    @Override
+    public void setListener(IntConsumer listener) {
+        ledger.setListener(listener);
+    }
+
+    @Override
+    public boolean open(int account, long minorUnits) {
+        return ledger.open(account, minorUnits);
+    }
+
+    @Override
+    public boolean contains(int account) {
+        return ledger.contains(account);
+    }
+
+    @Override
+    public long balance(int account) {
+        return ledger.balance(account);
+    }
+
+    @Override
+    public long available(int account) {
+        return ledger.available(account);
+    }
+
+    @Override
+    public boolean deposit(int account, long minorUnits) {
+        return ledger.deposit(account, minorUnits);
+    }
+
+    /**
+     * Deposits for the request with the given idempotency key, which is journaled with it.
+     */
+    public boolean deposit(long key, int account, long minorUnits) {
+        return ledger.deposit(key, account, minorUnits);
+    }
+
+    @Override
+    public boolean withdraw(int account, long minorUnits) {
+        return ledger.withdraw(account, minorUnits);
+    }
+
+    /**
+     * Withdraws for the request with the given idempotency key, which is journaled with it.
+     */
+    public boolean withdraw(long key, int account, long minorUnits) {
+        return ledger.withdraw(key, account, minorUnits);
+    }
+
+    @Override
+    public boolean transferHeld(long key, int from, int to, long heldUnits, long minorUnits) {
+        return ledger.transferHeld(key, from, to, heldUnits, minorUnits);
+    }
+
+    @Override
+    public boolean[] transferBatch(int[] from, int[] to, long[] minorUnits, long[] heldUnits, long[] keys) {
+        return ledger.transferBatch(from, to, minorUnits, heldUnits, keys);
+    }
+
+    @Override
+    public boolean hold(int account, long minorUnits) {
+        return ledger.hold(account, minorUnits);
+    }
+
+    @Override
+    public void release(int account, long minorUnits) {
+        ledger.release(account, minorUnits);
+    }
+
+    @Override
+    public void restore(int account, long minorUnits) {
+        if (journal == null) {
+            ledger.restore(account, minorUnits);
+        } else {
+            ledger.open(account, minorUnits);
+        }
+    }
+
+    @Override
+    public boolean prepare(long tx, int account, boolean credit, long heldUnits, long minorUnits) {
+        if (prepared.containsKey(tx)) {
+            return true;
+        }
+        if (credit ? !ledger.contains(account) : !ledger.prepareDebit(account, heldUnits, minorUnits)) {
+            return false;
+        }
+        prepared.put(tx, new Prepared(account, credit, minorUnits));
+        if (journal != null) {
+            journal.recordPrepare(tx, account, credit, minorUnits);
+        }
+        return true;
+    }
+
+    @Override
+    public void commit(long tx) {
+        Prepared part = prepared.remove(tx);
+        if (part == null) {
+            return;
+        }
+        if (part.credit) {
+            ledger.commitCredit(part.account, part.minorUnits);
+        } else {
+            ledger.commitDebit(part.account, part.minorUnits);
+        }
+        if (journal != null) {
+            journal.recordCommit(tx, part.account, part.credit, part.minorUnits);
+        }
+    }
+
+    @Override
+    public void abort(long tx) {
+        Prepared part = prepared.remove(tx);
+        if (part == null) {
+            return;
+        }
+        if (!part.credit) {
+            ledger.release(part.account, part.minorUnits);
+        }
+        if (journal != null) {
+            journal.recordAbort(tx, part.account, part.credit, part.minorUnits);
+        }
+    }
+
+    @Override
+    public long[] inDoubt() {
+        return prepared.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public int[] accounts() {
+        int[] accounts = new int[ledger.size()];
+        int count = 0;
+        for (int account : ledger.accounts()) {
+            if (count == accounts.length) {
+                accounts = Arrays.copyOf(accounts, count * 2 + 1);
+            }
+            accounts[count++] = account;
+        }
+        return Arrays.copyOf(accounts, count);
+    }
+
+    @Override
+    public long[] moveOut(int account) {
+        long[] balance = ledger.remove(account);
+        if (balance != null && journal != null) {
+            journal.recordMoveOut(account);
+        }
+        return balance;
+    }
+
+    @Override
+    public void moveIn(int account, long minorUnits, long heldUnits) {
+        ledger.put(account, minorUnits, heldUnits);
+        if (journal != null) {
+            journal.recordMoveIn(account, minorUnits);
+        }
+    }
+
+    @Override
+    public int size() {
+        return ledger.size();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * This shard's part of a transfer between shards, prepared and waiting for the decision.
+     */
+    private static final class Prepared {
+        private final int account;
+        private final boolean credit;
+        private final long minorUnits;
+
+        private Prepared(int account, boolean credit, long minorUnits) {
+            this.account = account;
+            this.credit = credit;
+            this.minorUnits = minorUnits;
+        }
+    }
+}
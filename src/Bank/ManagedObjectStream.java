@@ -0,0 +1,147 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Java serialization for the messages the WireCodec has no binary encoding for, kept as one
+ * long-lived object stream per connection so class descriptors are only sent once. Left alone,
+ * such a stream remembers every object it ever wrote, so the writer resets it once it has
+ * written too many objects or bytes, or has gone too long without a reset; the reset travels in
+ * the stream, so the reading side forgets the same objects. Each message is written unshared, so
+ * a message object that is sent again after it changed arrives with its new fields rather than
+ * as a reference to the copy the reader already has. The number of objects the stream currently
+ * remembers is exposed as a metric.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class ManagedObjectStream {
+    public static final int MAX_HANDLES = 1024;
+    public static final int MAX_BYTES = 1 << 20;
+    public static final long MAX_AGE_NANOS = 10_000_000_000L;
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final ChunkInputStream chunks = new ChunkInputStream();
+    private CountingObjectOutputStream out;
+    private ObjectInputStream in;
+    private long bytesSinceReset;
+    private long lastReset = System.nanoTime();
+    private long resets;
+
+    /**
+     * Serializes one message and appends its bytes to the buffer.
+     */
+    synchronized void write(Object message, WireCodec.Buffer buffer) throws IOException {
+        written.reset();
+        if (out == null) {
+            out = new CountingObjectOutputStream(written);
+        }
+        out.writeUnshared(message);
+        bytesSinceReset += written.size();
+        if (out.handles >= MAX_HANDLES || bytesSinceReset >= MAX_BYTES
+                || System.nanoTime() - lastReset >= MAX_AGE_NANOS) {
+            out.reset();
+            out.handles = 0;
+            bytesSinceReset = 0;
+            lastReset = System.nanoTime();
+            resets++;
+        }
+        out.flush();
+        buffer.putBytes(written.toByteArray());
+    }
+
+    /**
+     * Reads the message out of bytes written by the other side's write.
+     */
+    Object read(byte[] payload, int offset, int length) throws IOException, ClassNotFoundException {
+        chunks.append(payload, offset, length);
+        if (in == null) {
+            in = new ObjectInputStream(chunks);
+        }
+        return in.readObject();
+    }
+
+    /**
+     * Returns how many objects the writing stream currently remembers.
+     */
+    public synchronized int getHandleCount() {
+        return out == null ? 0 : out.handles;
+    }
+
+    public synchronized long getResets() {
+        return resets;
+    }
+
+    /**
+     * Object stream that counts the objects it has assigned a handle to since the last reset.
+     * Only objects written for the first time are offered for replacement, so replaceObject
+     * sees each new handle once.
+     */
+    private static final class CountingObjectOutputStream extends ObjectOutputStream {
+        private int handles;
+
+        private CountingObjectOutputStream(ByteArrayOutputStream bytes) throws IOException {
+            super(bytes);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            handles++;
+            return obj;
+        }
+    }
+
+    /**
+     * Input stream over the bytes of the frames received so far, minus what was already read.
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private byte[] bytes = new byte[256];
+        private int start;
+        private int end;
+
+        private void append(byte[] payload, int offset, int length) {
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+            if (end + length > bytes.length) {
+                int kept = end - start;
+                byte[] target = kept + length > bytes.length ? new byte[Math.max(bytes.length * 2, kept + length)] : bytes;
+                System.arraycopy(bytes, start, target, 0, kept);
+                bytes = target;
+                start = 0;
+                end = kept;
+            }
+            System.arraycopy(payload, offset, bytes, end, length);
+            end += length;
+        }
+
+        @Override
+        public int read() {
+            return start < end ? bytes[start++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (start == end) {
+                return -1;
+            }
+            int count = Math.min(length, end - start);
+            System.arraycopy(bytes, start, target, offset, count);
+            start += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return end - start;
+        }
+    }
+}
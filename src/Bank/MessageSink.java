@@ -0,0 +1,28 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Something the Bank can send messages to: a blocking framed stream or a
+ * connection served by the non-blocking selector server.
+ */
+
+import java.io.IOException;
+
+public interface MessageSink {
+
+    /**
+     * Sends one message to the other side.
+     *
+     * @param message the message to send
+     * @throws IOException if the connection is broken
+     */
+    void send(Object message) throws IOException;
+
+    /**
+     * Sends a message that was encoded once for several connections.
+     *
+     * @param frame the encoded message
+     * @throws IOException if the connection is broken
+     */
+    void sendShared(SharedFrame frame) throws IOException;
+}
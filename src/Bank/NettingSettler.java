@@ -0,0 +1,186 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Settles transfer requests in netted batches instead of one by one. Whatever arrives within a
+ * short window is applied with a single Ledger.transferBatch, so an auction house that is paid
+ * for many lots is credited once per window, every account is locked once and its agent told
+ * its balance once. Each transfer is still checked and journaled on its own, and settlements
+ * keep their idempotency keys, journaled with their transfers, so a batch sent twice is still
+ * applied only once. The hold placed for a settled lot is released inside the same batch.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NettingSettler implements Runnable {
+    private final AccountStore ledger;
+    private final HoldBook holds;
+    private final LinkedBlockingQueue<Object> messageQueue;
+    private final SettlementLog settlementLog;
+    private final ConcurrentHashMap<Integer, ClientAccount> accounts;
+    private final long windowNanos;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong transfers = new AtomicLong();
+
+    /**
+     * @param messageQueue ClientMessages and SettlementBatches to settle
+     * @param accounts     connected accounts, to acknowledge settlement batches to their house
+     * @param windowNanos  how long requests are gathered before they are applied together
+     */
+    NettingSettler(AccountStore ledger, HoldBook holds, LinkedBlockingQueue<Object> messageQueue, SettlementLog settlementLog,
+                   ConcurrentHashMap<Integer, ClientAccount> accounts, long windowNanos) {
+        this.ledger = ledger;
+        this.holds = holds;
+        this.messageQueue = messageQueue;
+        this.settlementLog = settlementLog;
+        this.accounts = accounts;
+        this.windowNanos = windowNanos;
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getTransfers() {
+        return transfers.get();
+    }
+
+    @Override
+    public void run() {
+        ArrayList<Object> window = new ArrayList<>();
+        try {
+            while (true) {
+                window.add(messageQueue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    Object msg = messageQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (msg == null) {
+                        break;
+                    }
+                    window.add(msg);
+                    messageQueue.drainTo(window);
+                }
+                settle(window);
+                window.clear();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Applies every transfer of the window in one batch and acknowledges the settlement batches.
+     * A settlement whose key was already settled, or appears twice in the window, is applied once.
+     */
+    private void settle(List<Object> window) {
+        Transfers pending = new Transfers();
+        HashMap<Long, Integer> indexByKey = new HashMap<>();
+        for (Object msg : window) {
+            if (msg instanceof SettlementBatch batch) {
+                for (Settlement settlement : batch.getSettlements()) {
+                    long key = settlement.getIdempotencyKey();
+                    if (settlementLog.result(key) == null && !indexByKey.containsKey(key)) {
+                        long held = holds.take(settlement.getHoldId(), settlement.getAucHouseAccNo(),
+                                settlement.getAgentAcctNo());
+                        indexByKey.put(key, pending.add(settlement.getAgentAcctNo(), settlement.getAucHouseAccNo(),
+                                Ledger.toMinorUnits(settlement.getTransferAmount()), held, key));
+                    }
+                }
+            } else {
+                ClientMessage transfer = (ClientMessage) msg;
+                pending.add(transfer.getAgentAcctNo(), transfer.getAucHouseAccNo(),
+                        Ledger.toMinorUnits(transfer.getTransferAmount()), 0, 0);
+            }
+        }
+        boolean[] applied = ledger.transferBatch(pending.from(), pending.to(), pending.amounts(), pending.held(),
+                pending.keys());
+        batches.incrementAndGet();
+        transfers.addAndGet(pending.size);
+        for (int i = 0; i < pending.size; i++) {
+            if (!applied[i]) {
+                System.out.println("Transfer of " + Ledger.toMajorUnits(pending.minorUnits[i]) + " from #"
+                        + pending.payers[i] + " to #" + pending.payees[i] + " was refused");
+            }
+        }
+        indexByKey.forEach((key, index) -> settlementLog.record(key, applied[index]));
+
+        for (Object msg : window) {
+            if (msg instanceof SettlementBatch batch) {
+                acknowledge(batch);
+            }
+        }
+    }
+
+    private void acknowledge(SettlementBatch batch) {
+        List<Settlement> settlements = batch.getSettlements();
+        if (settlements.isEmpty()) {
+            return;
+        }
+        long[] keys = new long[settlements.size()];
+        boolean[] settled = new boolean[settlements.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = settlements.get(i).getIdempotencyKey();
+            settled[i] = Boolean.TRUE.equals(settlementLog.result(keys[i]));
+        }
+        ClientAccount house = accounts.get(settlements.get(0).getAucHouseAccNo());
+        if (house != null) {
+            house.send(new SettlementAck(batch.getBatchId(), keys, settled));
+        }
+    }
+
+    /**
+     * The transfers of one window as parallel arrays.
+     */
+    private static final class Transfers {
+        private int[] payers = new int[64];
+        private int[] payees = new int[64];
+        private long[] minorUnits = new long[64];
+        private long[] heldUnits = new long[64];
+        private long[] keys = new long[64];
+        private int size;
+
+        private int add(int payer, int payee, long amount, long held, long key) {
+            if (size == payers.length) {
+                payers = Arrays.copyOf(payers, size * 2);
+                payees = Arrays.copyOf(payees, size * 2);
+                minorUnits = Arrays.copyOf(minorUnits, size * 2);
+                heldUnits = Arrays.copyOf(heldUnits, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            payers[size] = payer;
+            payees[size] = payee;
+            minorUnits[size] = amount;
+            heldUnits[size] = held;
+            keys[size] = key;
+            return size++;
+        }
+
+        private int[] from() {
+            return Arrays.copyOf(payers, size);
+        }
+
+        private int[] to() {
+            return Arrays.copyOf(payees, size);
+        }
+
+        private long[] amounts() {
+            return Arrays.copyOf(minorUnits, size);
+        }
+
+        private long[] held() {
+            return Arrays.copyOf(heldUnits, size);
+        }
+
+        private long[] keys() {
+            return Arrays.copyOf(keys, size);
+        }
+    }
+}
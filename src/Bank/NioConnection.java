@@ -0,0 +1,169 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * One client connection served by the BankSelectorServer. Incoming bytes are collected until a
+ * whole frame is available and then handed to the client's account; outgoing messages are
+ * queued as finished frames and written whenever the socket can take more data. Like the
+ * FrameStream, it answers in the encoding of the client's first frame.
+ */
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+public class NioConnection implements MessageSink {
+    private static final int INITIAL_BUFFER_BYTES = 4096;
+    private final SocketChannel channel;
+    private final ClientAccount account;
+    private final BankSelectorServer.IoLoop loop;
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private SelectionKey key;
+    private final WireCodec.Buffer scratch = new WireCodec.Buffer();
+    private final ManagedObjectStream objects = new ManagedObjectStream();
+    private boolean writeRequested;
+    private volatile boolean binary;
+    private boolean negotiated;
+
+    NioConnection(SocketChannel channel, ClientAccount account, BankSelectorServer.IoLoop loop) {
+        this.channel = channel;
+        this.account = account;
+        this.loop = loop;
+        account.attach(this);
+    }
+
+    /**
+     * Registers the channel with the loop's selector. Runs on the I/O thread.
+     */
+    void register() {
+        try {
+            key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException e) {
+            close();
+        }
+    }
+
+    /**
+     * Queues a message for writing; never blocks the caller. Frames are queued in the order
+     * they were encoded, which the connection's object stream relies on.
+     */
+    @Override
+    public void send(Object message) throws IOException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        synchronized (scratch) {
+            enqueue(ByteBuffer.wrap(FrameStream.frame(message, binary, scratch, objects)));
+        }
+    }
+
+    /**
+     * Queues a read-only view of a shared frame, so the frame's bytes are not copied per connection.
+     */
+    @Override
+    public void sendShared(SharedFrame frame) throws IOException {
+        if (!binary || !frame.isBinary()) {
+            send(frame.getMessage());
+            return;
+        }
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        synchronized (scratch) {
+            enqueue(frame.view());
+        }
+    }
+
+    private void enqueue(ByteBuffer frame) {
+        synchronized (pendingWrites) {
+            pendingWrites.add(frame);
+            if (writeRequested) {
+                return;
+            }
+            writeRequested = true;
+        }
+        loop.submit(this::enableWrites);
+    }
+
+    void onReadable() {
+        try {
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= Integer.BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < 0 || length > FrameStream.MAX_FRAME_BYTES) {
+                    throw new StreamCorruptedException("Bad frame length " + length);
+                }
+                if (readBuffer.remaining() < Integer.BYTES + length) {
+                    break;
+                }
+                int start = readBuffer.position() + Integer.BYTES;
+                if (!negotiated) {
+                    binary = WireCodec.isBinary(readBuffer.array(), start, length);
+                    negotiated = true;
+                }
+                Object message = FrameStream.decode(readBuffer.array(), start, length, objects);
+                readBuffer.position(start + length);
+                account.onMessage(message);
+            }
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2,
+                        FrameStream.MAX_FRAME_BYTES + Integer.BYTES));
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            if (!(e instanceof IOException)) {
+                e.printStackTrace();
+            }
+            close();
+        }
+    }
+
+    void onWritable() {
+        try {
+            synchronized (pendingWrites) {
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer frame = pendingWrites.peek();
+                    channel.write(frame);
+                    if (frame.hasRemaining()) {
+                        return;
+                    }
+                    pendingWrites.poll();
+                }
+                writeRequested = false;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void enableWrites() {
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void close() {
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        account.onClose();
+    }
+}
@@ -0,0 +1,307 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * A shard served by a ShardNode in another JVM. Every call is sent as a ShardRequest and waits
+ * for the matching ShardReply, which a reader thread hands over by request id, so several
+ * settlement threads share one connection. A call that gets no answer in time, or whose
+ * connection breaks, fails with an IOException; the next call connects again. A call that
+ * changes money may have been applied even so, so it carries an idempotency key and is made again
+ * with the same key until the node answers; the node applies each key once. A call the node
+ * answers with an error throws an IllegalStateException, so the caller sees the failure as it
+ * would on a LocalShard.
+ * Balance change events from the node go to the listener.
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+public class RemoteShard implements Shard {
+    private static final long REPLY_TIMEOUT_MILLIS = 5000;
+    private static final long FIRST_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 2000;
+
+    private final String host;
+    private final int port;
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private volatile IntConsumer listener = account -> { };
+    private Connection connection;
+
+    public RemoteShard(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void setListener(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean open(int account, long minorUnits) throws IOException {
+        return (Boolean) call(ShardRequest.OPEN, 0, account, 0, 0, minorUnits);
+    }
+
+    @Override
+    public boolean contains(int account) throws IOException {
+        return (Boolean) call(ShardRequest.CONTAINS, 0, account, 0, 0, 0);
+    }
+
+    @Override
+    public long balance(int account) throws IOException {
+        return (Long) call(ShardRequest.BALANCE, 0, account, 0, 0, 0);
+    }
+
+    @Override
+    public long available(int account) throws IOException {
+        return (Long) call(ShardRequest.AVAILABLE, 0, account, 0, 0, 0);
+    }
+
+    @Override
+    public boolean deposit(int account, long minorUnits) throws IOException {
+        return (Boolean) callUntilAnswered(ShardRequest.DEPOSIT, account, 0, 0, minorUnits, newKey());
+    }
+
+    @Override
+    public boolean withdraw(int account, long minorUnits) throws IOException {
+        return (Boolean) callUntilAnswered(ShardRequest.WITHDRAW, account, 0, 0, minorUnits, newKey());
+    }
+
+    @Override
+    public boolean transferHeld(long key, int from, int to, long heldUnits, long minorUnits) throws IOException {
+        return (Boolean) callUntilAnswered(ShardRequest.TRANSFER, from, to, heldUnits, minorUnits,
+                key != 0 ? key : newKey());
+    }
+
+    @Override
+    public boolean[] transferBatch(int[] from, int[] to, long[] minorUnits, long[] heldUnits, long[] keys)
+            throws IOException {
+        long[] batchKeys = new long[from.length];
+        for (int i = 0; i < batchKeys.length; i++) {
+            batchKeys[i] = keys != null && keys[i] != 0 ? keys[i] : newKey();
+        }
+        return (boolean[]) callUntilAnswered(new ShardRequest(nextRequestId.getAndIncrement(), from, to, minorUnits,
+                heldUnits, batchKeys));
+    }
+
+    @Override
+    public boolean hold(int account, long minorUnits) throws IOException {
+        return (Boolean) callUntilAnswered(ShardRequest.HOLD, account, 0, 0, minorUnits, newKey());
+    }
+
+    @Override
+    public void release(int account, long minorUnits) throws IOException {
+        call(ShardRequest.RELEASE, 0, account, 0, 0, minorUnits);
+    }
+
+    @Override
+    public void restore(int account, long minorUnits) throws IOException {
+        call(ShardRequest.RESTORE, 0, account, 0, 0, minorUnits);
+    }
+
+    @Override
+    public boolean prepare(long tx, int account, boolean credit, long heldUnits, long minorUnits) throws IOException {
+        return (Boolean) call(credit ? ShardRequest.PREPARE_CREDIT : ShardRequest.PREPARE_DEBIT, tx, account, 0,
+                heldUnits, minorUnits);
+    }
+
+    @Override
+    public void commit(long tx) throws IOException {
+        call(ShardRequest.COMMIT, tx, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void abort(long tx) throws IOException {
+        call(ShardRequest.ABORT, tx, 0, 0, 0, 0);
+    }
+
+    @Override
+    public long[] inDoubt() throws IOException {
+        return (long[]) call(ShardRequest.IN_DOUBT, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public int[] accounts() throws IOException {
+        return (int[]) call(ShardRequest.ACCOUNTS, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public long[] moveOut(int account) throws IOException {
+        return (long[]) call(ShardRequest.MOVE_OUT, 0, account, 0, 0, 0);
+    }
+
+    @Override
+    public void moveIn(int account, long minorUnits, long heldUnits) throws IOException {
+        call(ShardRequest.MOVE_IN, 0, account, 0, heldUnits, minorUnits);
+    }
+
+    @Override
+    public int size() throws IOException {
+        return (Integer) call(ShardRequest.SIZE, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection != null) {
+            connection.fail(new IOException("Shard " + this + " closed"));
+            connection = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    private Serializable call(byte op, long tx, int account, int other, long heldUnits, long minorUnits)
+            throws IOException {
+        return call(new ShardRequest(nextRequestId.getAndIncrement(), op, tx, account, other, heldUnits, minorUnits,
+                0));
+    }
+
+    private Serializable callUntilAnswered(byte op, int account, int other, long heldUnits, long minorUnits, long key)
+            throws IOException {
+        return callUntilAnswered(new ShardRequest(nextRequestId.getAndIncrement(), op, 0, account, other, heldUnits,
+                minorUnits, key));
+    }
+
+    /**
+     * Makes a call that changes money until the node answers it. Every attempt carries the same
+     * idempotency key, so the node applies the call once however many attempts reach it.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while it waits to try again
+     */
+    private Serializable callUntilAnswered(ShardRequest request) throws IOException {
+        long delay = FIRST_RETRY_MILLIS;
+        boolean reported = false;
+        while (true) {
+            try {
+                return call(request);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (!reported) {
+                    System.out.println("Retrying request " + request.getRequestId() + " on shard " + this + ": "
+                            + e.getMessage());
+                    reported = true;
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            delay = Math.min(delay * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    private static long newKey() {
+        long key;
+        do {
+            key = ThreadLocalRandom.current().nextLong();
+        } while (key == 0);
+        return key;
+    }
+
+    private Serializable call(ShardRequest request) throws IOException {
+        Connection current = connect();
+        CompletableFuture<ShardReply> reply = new CompletableFuture<>();
+        current.waiting.put(request.getRequestId(), reply);
+        try {
+            try {
+                current.stream.send(request);
+            } catch (IOException e) {
+                disconnect(current, e);
+                throw e;
+            }
+            ShardReply answer = reply.get(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (answer.getError() != null) {
+                throw new IllegalStateException("Shard " + this + " failed: " + answer.getError());
+            }
+            return answer.getResult();
+        } catch (TimeoutException e) {
+            throw new IOException("Shard " + this + " did not answer");
+        } catch (ExecutionException e) {
+            throw new IOException("Shard " + this + " is unavailable", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            current.waiting.remove(request.getRequestId());
+        }
+    }
+
+    private synchronized Connection connect() throws IOException {
+        if (connection == null) {
+            connection = new Connection(new FrameStream(new Socket(host, port), true));
+            Thread reader = new Thread(connection);
+            reader.setName("Shard-" + this);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        return connection;
+    }
+
+    private synchronized void disconnect(Connection broken, IOException cause) {
+        if (connection == broken) {
+            connection = null;
+        }
+        broken.fail(cause);
+    }
+
+    /**
+     * One connection to the node and the calls waiting for an answer on it.
+     */
+    private final class Connection implements Runnable {
+        private final FrameStream stream;
+        private final ConcurrentHashMap<Long, CompletableFuture<ShardReply>> waiting = new ConcurrentHashMap<>();
+
+        private Connection(FrameStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Object message = stream.read();
+                    if (message instanceof ShardEvent event) {
+                        for (int account : event.getAccounts()) {
+                            listener.accept(account);
+                        }
+                        continue;
+                    }
+                    ShardReply reply = (ShardReply) message;
+                    CompletableFuture<ShardReply> call = waiting.remove(reply.getRequestId());
+                    if (call != null) {
+                        call.complete(reply);
+                    }
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                disconnect(this, new IOException("Lost connection to shard " + RemoteShard.this, e));
+            }
+        }
+
+        private void fail(IOException cause) {
+            for (CompletableFuture<ShardReply> call : waiting.values()) {
+                call.completeExceptionally(cause);
+            }
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * One closed auction that an auction house asks the Bank to settle: the winning agent pays the
+ * amount to the house. The idempotency key is chosen by the house when the lot closes and stays
+ * the same on every retry, so the Bank applies the transfer at most once and answers a repeated
+ * request with the result of the first one. If the house held the agent's money for the bid,
+ * the settlement names the hold, and the transfer releases it.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class Settlement implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long idempotencyKey;
+    private final int agentAcctNo;
+    private final int aucHouseAccNo;
+    private final int transferAmount;
+    private final long holdId;
+
+    /**
+     * @param holdId the hold placed for the winning bid, or 0 if none
+     */
+    public Settlement(long idempotencyKey, int agentAcctNo, int aucHouseAccNo, int transferAmount, long holdId) {
+        this.idempotencyKey = idempotencyKey;
+        this.agentAcctNo = agentAcctNo;
+        this.aucHouseAccNo = aucHouseAccNo;
+        this.transferAmount = transferAmount;
+        this.holdId = holdId;
+    }
+
+    public long getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public int getAgentAcctNo() {
+        return agentAcctNo;
+    }
+
+    public int getAucHouseAccNo() {
+        return aucHouseAccNo;
+    }
+
+    /**
+     * Gets the amount, in dollars, the agent pays.
+     */
+    public int getTransferAmount() {
+        return transferAmount;
+    }
+
+    /**
+     * Gets the hold the transfer releases, or 0 if none.
+     */
+    public long getHoldId() {
+        return holdId;
+    }
+}
@@ -0,0 +1,40 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * The Bank's answer to a SettlementBatch: for each idempotency key of the batch, whether the
+ * agent's money was moved to the auction house or the transfer was refused.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class SettlementAck implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long batchId;
+    private final long[] keys;
+    private final boolean[] settled;
+
+    public SettlementAck(long batchId, long[] keys, boolean[] settled) {
+        this.batchId = batchId;
+        this.keys = keys;
+        this.settled = settled;
+    }
+
+    public long getBatchId() {
+        return batchId;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    public boolean isSettled(int index) {
+        return settled[index];
+    }
+}
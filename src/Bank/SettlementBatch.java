@@ -0,0 +1,46 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Several settlements sent by an auction house in one message. The batch id correlates the
+ * batch with the SettlementAck the Bank sends back; a batch that is sent again after a timeout
+ * keeps its id and the idempotency keys of its settlements.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SettlementBatch implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long batchId;
+    private final List<Settlement> settlements;
+
+    public SettlementBatch(long batchId, List<Settlement> settlements) {
+        this.batchId = batchId;
+        this.settlements = settlements;
+    }
+
+    public long getBatchId() {
+        return batchId;
+    }
+
+    public List<Settlement> getSettlements() {
+        return settlements;
+    }
+
+    /**
+     * Returns a copy of the batch in which every settlement pays the given auction house, so a
+     * house can only settle into its own account.
+     */
+    public SettlementBatch forHouse(int aucHouseAccNo) {
+        List<Settlement> stamped = new ArrayList<>(settlements.size());
+        for (Settlement settlement : settlements) {
+            stamped.add(new Settlement(settlement.getIdempotencyKey(), settlement.getAgentAcctNo(), aucHouseAccNo,
+                    settlement.getTransferAmount(), settlement.getHoldId()));
+        }
+        return new SettlementBatch(batchId, stamped);
+    }
+}
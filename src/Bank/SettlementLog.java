@@ -0,0 +1,119 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Remembers the result of the most recent settlements by idempotency key. A settlement whose
+ * key is already known is not applied again; its first result is returned instead, waiting for
+ * it if that settlement is still being applied. The transfer runs outside the map, so settlements
+ * with other keys never wait for it. The ledger journals each key with its transfer, and the
+ * Bank puts the keys back from its snapshot and journal on startup. A key is forgotten only once
+ * more than the capacity of newer keys are kept and it is older than the retention time, so a
+ * house that keeps retrying a batch is answered from the log even under heavy load.
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+class SettlementLog {
+    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> results = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Known> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final long retentionNanos;
+
+    /**
+     * @param capacity       number of keys always kept
+     * @param retentionNanos how long a key is kept even beyond the capacity
+     */
+    SettlementLog(int capacity, long retentionNanos) {
+        this.capacity = capacity;
+        this.retentionNanos = retentionNanos;
+    }
+
+    /**
+     * Runs the transfer unless a settlement with this key was already applied. If the transfer
+     * throws, the key is forgotten again, so a retry applies it.
+     *
+     * @return the result of the first transfer with this key
+     */
+    boolean apply(long key, BooleanSupplier transfer) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        CompletableFuture<Boolean> first = results.putIfAbsent(key, result);
+        if (first != null) {
+            return first.join();
+        }
+        boolean settled;
+        try {
+            settled = transfer.getAsBoolean();
+        } catch (RuntimeException e) {
+            results.remove(key, result);
+            result.completeExceptionally(e);
+            throw e;
+        }
+        result.complete(settled);
+        remember(key);
+        return settled;
+    }
+
+    /**
+     * Returns the result of the settlement with this key, or null if it is not known.
+     */
+    Boolean result(long key) {
+        CompletableFuture<Boolean> result = results.get(key);
+        return result == null ? null : result.join();
+    }
+
+    /**
+     * Remembers the result of a settlement applied outside apply, e.g. in a netted batch or
+     * before a restart.
+     */
+    void record(long key, boolean settled) {
+        if (results.putIfAbsent(key, CompletableFuture.completedFuture(settled)) == null) {
+            remember(key);
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Queues a key whose result is known for trimming. Only keys in the map are queued, and each
+     * once, so the queue and the count always match the map.
+     */
+    private void remember(long key) {
+        order.add(new Known(key, System.nanoTime()));
+        size.incrementAndGet();
+        trim();
+    }
+
+    private void trim() {
+        synchronized (order) {
+            while (size.get() > capacity) {
+                Known eldest = order.peek();
+                if (eldest == null || System.nanoTime() - eldest.since < retentionNanos) {
+                    break;
+                }
+                order.poll();
+                results.remove(eldest.key);
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A key in the log and when its result became known.
+     */
+    private static final class Known {
+        private final long key;
+        private final long since;
+
+        private Known(long key, long since) {
+            this.key = key;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * One partition of the bank accounts, as the ShardedLedger sees it: a LocalShard in the Bank's
+ * own process or a RemoteShard served by a ShardNode in another JVM. Besides the operations on
+ * its own accounts, a shard takes part in transfers between shards as a two-phase commit
+ * participant: it prepares its part and keeps it until the Bank tells it to commit or abort,
+ * and it hands out and takes in accounts when the shards are rebalanced. Every call may fail
+ * with an IOException if the shard cannot be reached; a call that changes money is applied at most
+ * once, so a caller that does not know whether it was applied can make it again.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+public interface Shard extends Closeable {
+
+    /**
+     * Sets who is told the account numbers whose balance changed on this shard.
+     */
+    void setListener(IntConsumer listener);
+
+    boolean open(int account, long minorUnits) throws IOException;
+
+    boolean contains(int account) throws IOException;
+
+    long balance(int account) throws IOException;
+
+    long available(int account) throws IOException;
+
+    boolean deposit(int account, long minorUnits) throws IOException;
+
+    boolean withdraw(int account, long minorUnits) throws IOException;
+
+    /**
+     * Transfers between two accounts of this shard, releasing what was held for the payment.
+     *
+     * @param key idempotency key of the request, e.g. a settlement's, or 0 to let the shard pick one
+     */
+    boolean transferHeld(long key, int from, int to, long heldUnits, long minorUnits) throws IOException;
+
+    /**
+     * Transfers between accounts of this shard in one batch.
+     *
+     * @param keys idempotency key of each transfer or 0, or null if none has one
+     */
+    boolean[] transferBatch(int[] from, int[] to, long[] minorUnits, long[] heldUnits, long[] keys) throws IOException;
+
+    boolean hold(int account, long minorUnits) throws IOException;
+
+    void release(int account, long minorUnits) throws IOException;
+
+    /**
+     * Puts back an account the Bank recovered from its own journal. A shard that journals its
+     * accounts itself keeps the balance it already has.
+     */
+    void restore(int account, long minorUnits) throws IOException;
+
+    /**
+     * Prepares this shard's part of a transfer between shards. A debit releases what was held for
+     * the payment and holds the amount; a credit checks that the account exists. Preparing the
+     * same transaction again answers the same without doing it twice.
+     *
+     * @param credit true for the payee's part, false for the payer's
+     * @return true if this shard votes to commit
+     */
+    boolean prepare(long tx, int account, boolean credit, long heldUnits, long minorUnits) throws IOException;
+
+    /**
+     * Applies a prepared part. Does nothing if the transaction is not prepared here, e.g.
+     * because it was already committed.
+     */
+    void commit(long tx) throws IOException;
+
+    /**
+     * Drops a prepared part and releases what it held. Does nothing if the transaction is not
+     * prepared here.
+     */
+    void abort(long tx) throws IOException;
+
+    /**
+     * Returns the transactions prepared here that were neither committed nor aborted yet.
+     */
+    long[] inDoubt() throws IOException;
+
+    /**
+     * Returns the numbers of the accounts on this shard.
+     */
+    int[] accounts() throws IOException;
+
+    /**
+     * Takes an account that moved to another shard off this one.
+     *
+     * @return its balance and the part of it that is held, or null if it is not here
+     */
+    long[] moveOut(int account) throws IOException;
+
+    /**
+     * Puts an account that moved from another shard on this one.
+     */
+    void moveIn(int account, long minorUnits, long heldUnits) throws IOException;
+
+    int size() throws IOException;
+}
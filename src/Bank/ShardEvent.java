@@ -0,0 +1,24 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Sent by a ShardNode to the Bank with the accounts whose balance changed since its last event,
+ * so the Bank can tell their agents.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class ShardEvent implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final int[] accounts;
+
+    public ShardEvent(int[] accounts) {
+        this.accounts = accounts;
+    }
+
+    public int[] getAccounts() {
+        return accounts;
+    }
+}
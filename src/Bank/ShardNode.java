@@ -0,0 +1,244 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Serves one shard of the bank accounts to the Bank from its own JVM, so the accounts can be
+ * spread over several processes or machines. The node keeps its accounts in a LocalShard with its
+ * own TransferJournal and snapshot, so after a crash it recovers its balances and the parts of
+ * transfers between shards it had prepared; the Bank then tells it to commit or abort those.
+ * Requests are answered by a pool of workers, so calls from the Bank's settlement threads run in
+ * parallel and share the journal's group commit. A request that changes money carries an
+ * idempotency key, and one the Bank sends again is answered with its first result; the keys of
+ * deposits, withdrawals and transfers are journaled with them, so this holds across a restart.
+ * Holds are not journaled, so neither are their keys. Balance changes are sent back as ShardEvents.
+ * Usage: java Bank.ShardNode &lt;port&gt; &lt;journal file&gt; [NONE|ASYNC|SYNC]
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class ShardNode implements Runnable {
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 60;
+    private static final int WORKERS = 64;
+    private static final int REQUEST_KEYS = 1 << 16;
+    private static final long REQUEST_RETENTION_MINUTES = 10;
+
+    private final int port;
+    private final Path journalFile;
+    private final Durability durability;
+    private final Ledger ledger = new Ledger();
+    private final LinkedBlockingQueue<Integer> changed = new LinkedBlockingQueue<>();
+    private final Set<FrameStream> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+    private final SettlementLog requests = new SettlementLog(REQUEST_KEYS,
+            TimeUnit.MINUTES.toNanos(REQUEST_RETENTION_MINUTES));
+    private LocalShard shard;
+
+    public ShardNode(int port, Path journalFile, Durability durability) {
+        this.port = port;
+        this.journalFile = journalFile;
+        this.durability = durability;
+    }
+
+    public static void main(String[] args) {
+        new ShardNode(Integer.parseInt(args[0]), Path.of(args[1]),
+                args.length > 2 ? Durability.valueOf(args[2]) : Durability.SYNC).run();
+    }
+
+    @Override
+    public void run() {
+        try {
+            TransferJournal journal = new TransferJournal(journalFile, durability);
+            LedgerSnapshot snapshot = LedgerSnapshot.load(journalFile.resolveSibling(journalFile.getFileName() + ".snapshot"));
+            int replayed = journal.replay(snapshot.getSequence(), snapshot::apply);
+            snapshot.restoreInto(ledger, new HouseDirectory());
+            snapshot.getSettlements().forEach(requests::record);
+            shard = new LocalShard("node:" + port, ledger, journal);
+            for (TransferJournal.Record prepared : snapshot.getPrepared()) {
+                shard.restorePrepared(prepared);
+            }
+            snapshot.start(journal, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            journal.start();
+            ledger.setJournal(journal);
+            ledger.setListener(changed::add);
+            System.out.println("Shard node recovered " + ledger.size() + " accounts and "
+                    + snapshot.getPrepared().size() + " prepared transfers (" + replayed + " journal records)");
+
+            Thread events = new Thread(this::sendEvents);
+            events.setName("ShardEvents");
+            events.setDaemon(true);
+            events.start();
+
+            try (ServerSocket server = new ServerSocket(port)) {
+                System.out.println("Shard node listening on port " + server.getLocalPort());
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread thread = new Thread(() -> serve(socket));
+                    thread.setName("ShardNode-" + socket.getRemoteSocketAddress());
+                    thread.start();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the requests of one connection and hands each to a worker.
+     */
+    private void serve(Socket socket) {
+        FrameStream stream = null;
+        try {
+            stream = new FrameStream(socket);
+            connections.add(stream);
+            while (true) {
+                ShardRequest request = (ShardRequest) stream.read();
+                FrameStream replyTo = stream;
+                workers.execute(() -> answer(replyTo, request));
+            }
+        } catch (SocketException | EOFException e) {
+            System.out.println("Bank disconnected from shard node");
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        } finally {
+            if (stream != null) {
+                connections.remove(stream);
+            }
+        }
+    }
+
+    /**
+     * Handles one request and sends the answer. A request that fails is answered with the error,
+     * so the Bank does not wait for an answer that never comes.
+     */
+    private void answer(FrameStream stream, ShardRequest request) {
+        ShardReply reply;
+        try {
+            reply = new ShardReply(request.getRequestId(), handle(request));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            reply = ShardReply.failed(request.getRequestId(), e.toString());
+        }
+        try {
+            stream.send(reply);
+        } catch (IOException e) {
+            connections.remove(stream);
+        }
+    }
+
+    private Serializable handle(ShardRequest request) {
+        int account = request.getAccount();
+        long amount = request.getMinorUnits();
+        return switch (request.getOp()) {
+            case ShardRequest.OPEN -> shard.open(account, amount);
+            case ShardRequest.CONTAINS -> shard.contains(account);
+            case ShardRequest.BALANCE -> shard.balance(account);
+            case ShardRequest.AVAILABLE -> shard.available(account);
+            case ShardRequest.DEPOSIT -> once(request.getKey(), () -> shard.deposit(request.getKey(), account, amount));
+            case ShardRequest.WITHDRAW -> once(request.getKey(), () -> shard.withdraw(request.getKey(), account, amount));
+            case ShardRequest.TRANSFER -> once(request.getKey(), () -> shard.transferHeld(request.getKey(), account,
+                    request.getOther(), request.getHeldUnits(), amount));
+            case ShardRequest.TRANSFER_BATCH -> transferBatch(request);
+            case ShardRequest.HOLD -> once(request.getKey(), () -> shard.hold(account, amount));
+            case ShardRequest.RELEASE -> {
+                shard.release(account, amount);
+                yield null;
+            }
+            case ShardRequest.RESTORE -> {
+                shard.restore(account, amount);
+                yield null;
+            }
+            case ShardRequest.PREPARE_DEBIT -> shard.prepare(request.getTx(), account, false, request.getHeldUnits(), amount);
+            case ShardRequest.PREPARE_CREDIT -> shard.prepare(request.getTx(), account, true, 0, amount);
+            case ShardRequest.COMMIT -> {
+                shard.commit(request.getTx());
+                yield null;
+            }
+            case ShardRequest.ABORT -> {
+                shard.abort(request.getTx());
+                yield null;
+            }
+            case ShardRequest.IN_DOUBT -> shard.inDoubt();
+            case ShardRequest.ACCOUNTS -> shard.accounts();
+            case ShardRequest.MOVE_OUT -> shard.moveOut(account);
+            case ShardRequest.MOVE_IN -> {
+                shard.moveIn(account, amount, request.getHeldUnits());
+                yield null;
+            }
+            case ShardRequest.SIZE -> shard.size();
+            default -> throw new IllegalArgumentException("Unknown shard request " + request.getOp());
+        };
+    }
+
+    /**
+     * Applies a request that changes money unless one with the same key was already applied.
+     */
+    private boolean once(long key, BooleanSupplier change) {
+        return key == 0 ? change.getAsBoolean() : requests.apply(key, change);
+    }
+
+    /**
+     * Applies a batch of transfers once. A batch that is sent again carries the same keys, so
+     * the first key stands for the batch, and each transfer is answered from its own key.
+     */
+    private boolean[] transferBatch(ShardRequest request) {
+        long[] keys = request.getKeys();
+        if (keys == null || keys.length == 0 || keys[0] == 0) {
+            return shard.transferBatch(request.getFrom(), request.getTo(), request.getAmounts(), request.getHeld(),
+                    keys);
+        }
+        requests.apply(keys[0], () -> {
+            boolean[] applied = shard.transferBatch(request.getFrom(), request.getTo(), request.getAmounts(),
+                    request.getHeld(), keys);
+            for (int i = 1; i < keys.length; i++) {
+                requests.record(keys[i], applied[i]);
+            }
+            return applied[0];
+        });
+        boolean[] applied = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            applied[i] = Boolean.TRUE.equals(requests.result(keys[i]));
+        }
+        return applied;
+    }
+
+    /**
+     * Sends the accounts whose balance changed to every connected Bank, each account once per event.
+     */
+    private void sendEvents() {
+        List<Integer> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(changed.take());
+                changed.drainTo(batch);
+                Set<Integer> accounts = new LinkedHashSet<>(batch);
+                batch.clear();
+                int[] event = accounts.stream().mapToInt(Integer::intValue).toArray();
+                for (FrameStream stream : connections) {
+                    try {
+                        stream.send(new ShardEvent(event));
+                    } catch (IOException e) {
+                        connections.remove(stream);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
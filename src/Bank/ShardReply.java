@@ -0,0 +1,51 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * A ShardNode's answer to a ShardRequest. The result is a Boolean, Long, Integer, boolean[],
+ * int[] or long[] depending on the call, or null for calls without one. A call the node failed
+ * to answer has no result but the error instead.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class ShardReply implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long requestId;
+    private final Serializable result;
+    private final String error;
+
+    public ShardReply(long requestId, Serializable result) {
+        this(requestId, result, null);
+    }
+
+    private ShardReply(long requestId, Serializable result, String error) {
+        this.requestId = requestId;
+        this.result = result;
+        this.error = error;
+    }
+
+    /**
+     * Returns the answer to a call that failed on the node.
+     */
+    public static ShardReply failed(long requestId, String error) {
+        return new ShardReply(requestId, null, error);
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public Serializable getResult() {
+        return result;
+    }
+
+    /**
+     * Returns why the node failed the call, or null if it answered it.
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,149 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * A call the Bank makes on a ShardNode. The request id matches the node's ShardReply to it, so
+ * the Bank's settlement threads can have many calls outstanding on one connection. A call that
+ * changes money also carries an idempotency key, the same on every retry, so the node applies it
+ * at most once even if its first answer was lost.
+ */
+
+import java.io.Serial;
+import java.io.Serializable;
+
+public class ShardRequest implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    public static final byte OPEN = 1;
+    public static final byte CONTAINS = 2;
+    public static final byte BALANCE = 3;
+    public static final byte AVAILABLE = 4;
+    public static final byte DEPOSIT = 5;
+    public static final byte WITHDRAW = 6;
+    public static final byte TRANSFER = 7;
+    public static final byte TRANSFER_BATCH = 8;
+    public static final byte HOLD = 9;
+    public static final byte RELEASE = 10;
+    public static final byte RESTORE = 11;
+    public static final byte PREPARE_DEBIT = 12;
+    public static final byte PREPARE_CREDIT = 13;
+    public static final byte COMMIT = 14;
+    public static final byte ABORT = 15;
+    public static final byte IN_DOUBT = 16;
+    public static final byte ACCOUNTS = 17;
+    public static final byte MOVE_OUT = 18;
+    public static final byte MOVE_IN = 19;
+    public static final byte SIZE = 20;
+
+    private final long requestId;
+    private final byte op;
+    private final long tx;
+    private final int account;
+    private final int other;
+    private final long heldUnits;
+    private final long minorUnits;
+    private final long key;
+    private final int[] from;
+    private final int[] to;
+    private final long[] amounts;
+    private final long[] held;
+    private final long[] keys;
+
+    /**
+     * @param tx         transaction id for PREPARE_DEBIT, PREPARE_CREDIT, COMMIT and ABORT
+     * @param account    the account, or the payer of a TRANSFER
+     * @param other      the payee of a TRANSFER
+     * @param heldUnits  amount held for the payment, or the held part of a moved account
+     * @param minorUnits amount in cents
+     * @param key        idempotency key of a DEPOSIT, WITHDRAW, TRANSFER or HOLD, otherwise 0
+     */
+    public ShardRequest(long requestId, byte op, long tx, int account, int other, long heldUnits, long minorUnits,
+                        long key) {
+        this.requestId = requestId;
+        this.op = op;
+        this.tx = tx;
+        this.account = account;
+        this.other = other;
+        this.heldUnits = heldUnits;
+        this.minorUnits = minorUnits;
+        this.key = key;
+        this.from = null;
+        this.to = null;
+        this.amounts = null;
+        this.held = null;
+        this.keys = null;
+    }
+
+    /**
+     * Creates a TRANSFER_BATCH request.
+     *
+     * @param keys idempotency key of each transfer
+     */
+    public ShardRequest(long requestId, int[] from, int[] to, long[] amounts, long[] held, long[] keys) {
+        this.requestId = requestId;
+        this.op = TRANSFER_BATCH;
+        this.tx = 0;
+        this.account = 0;
+        this.other = 0;
+        this.heldUnits = 0;
+        this.minorUnits = 0;
+        this.key = 0;
+        this.from = from;
+        this.to = to;
+        this.amounts = amounts;
+        this.held = held;
+        this.keys = keys;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public byte getOp() {
+        return op;
+    }
+
+    public long getTx() {
+        return tx;
+    }
+
+    public int getAccount() {
+        return account;
+    }
+
+    public int getOther() {
+        return other;
+    }
+
+    public long getHeldUnits() {
+        return heldUnits;
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public int[] getFrom() {
+        return from;
+    }
+
+    public int[] getTo() {
+        return to;
+    }
+
+    public long[] getAmounts() {
+        return amounts;
+    }
+
+    public long[] getHeld() {
+        return held;
+    }
+
+    public long[] getKeys() {
+        return keys;
+    }
+}
@@ -0,0 +1,721 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Spreads the bank accounts over several shards and routes every call to the shard that owns the
+ * account, chosen by a ConsistentHashRing. The shards are either LocalShards in the Bank's own
+ * process, journaled by the Bank, or ShardNodes in other JVMs, reached through RemoteShards, which
+ * journal their own accounts. Transfers between two accounts of one shard run on that shard alone.
+ * A transfer between shards runs as a two-phase commit with the ShardedLedger as coordinator: the
+ * payer's shard prepares by holding the amount and the payee's shard by checking the account; if
+ * either says no or cannot be reached, both are told to abort. Once both are prepared the decision
+ * to commit is journaled, and the shards are told to commit until both have done so, if need be by
+ * the recovery thread after a shard or the Bank itself restarts. Parts a shard prepared that were
+ * never decided are aborted by the recovery thread (presumed abort). Adding or removing a shard
+ * moves only the accounts the ring gives to another shard: each is copied to its new shard before
+ * it is taken off the old one, so a crash in between never loses it.
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+public class ShardedLedger implements AccountStore {
+    private static final int VIRTUAL_NODES = 128;
+    private static final long RECOVERY_INTERVAL_MILLIS = 1000;
+    private final ConsistentHashRing ring = new ConsistentHashRing(VIRTUAL_NODES);
+    private final ConcurrentHashMap<Integer, Shard> shards = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock topology = new ReentrantReadWriteLock();
+    private final boolean remote;
+    private final Set<Long> decided = ConcurrentHashMap.newKeySet();
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextTx = new AtomicLong(System.currentTimeMillis() << 20);
+    private final AtomicLong crossShardTransfers = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+    private volatile boolean misplaced;
+    private TransferJournal journal;
+    private volatile IntConsumer listener = account -> { };
+    private int nextShardId;
+
+    /**
+     * Creates a ledger with the given number of shards in this process.
+     *
+     * @param shardCount number of shards to start with
+     */
+    public ShardedLedger(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        this.remote = false;
+        for (int i = 0; i < shardCount; i++) {
+            addShard();
+        }
+    }
+
+    /**
+     * Creates a ledger whose shards are served by ShardNodes. The order of the nodes gives their
+     * shard ids and so their place on the ring; keep it, and add new nodes at the end. Nothing
+     * is connected until start.
+     *
+     * @param nodes addresses of the shard nodes
+     */
+    public ShardedLedger(List<InetSocketAddress> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard node is needed");
+        }
+        this.remote = true;
+        for (InetSocketAddress node : nodes) {
+            put(new RemoteShard(node.getHostString(), node.getPort()));
+        }
+        misplaced = true;
+    }
+
+    /**
+     * Moves any account that is not on the shard the ring places it on, e.g. because the nodes
+     * changed since the last start, then starts the recovery thread that finishes or aborts the
+     * transfers between shards a failure left open, and finishes the moving if a shard is not
+     * up yet. Restore the Bank's decisions and start its journal first.
+     */
+    public void start() {
+        topology.writeLock().lock();
+        try {
+            rebalance();
+        } catch (IOException e) {
+            System.out.println("Rebalancing waits for a shard: " + e.getMessage());
+        } finally {
+            topology.writeLock().unlock();
+        }
+        Thread recovery = new Thread(this::recover);
+        recovery.setName("ShardRecovery");
+        recovery.setDaemon(true);
+        recovery.start();
+    }
+
+    /**
+     * Adds a shard in this process and moves to it the accounts the ring now places on it.
+     *
+     * @return the id of the new shard
+     */
+    public int addShard() {
+        if (remote) {
+            throw new IllegalStateException("This ledger's shards are shard nodes");
+        }
+        Ledger ledger = new Ledger();
+        try {
+            return addShard(new LocalShard("shard-" + nextShardId, ledger, null));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds a shard served by the ShardNode at the given address and moves to it the accounts the
+     * ring now places on it. If moving fails, the recovery thread moves the rest later.
+     *
+     * @return the id of the new shard
+     */
+    public int addShard(String host, int port) throws IOException {
+        if (!remote) {
+            throw new IllegalStateException("This ledger's shards are in this process");
+        }
+        return addShard(new RemoteShard(host, port));
+    }
+
+    private int addShard(Shard shard) throws IOException {
+        topology.writeLock().lock();
+        try {
+            quiesce();
+            int id = put(shard);
+            misplaced = true;
+            int moved = rebalance();
+            System.out.println("Added bank shard " + shard + ", moved " + moved + " accounts");
+            return id;
+        } finally {
+            topology.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a shard and moves its accounts to the shards the ring now places them on.
+     */
+    public void removeShard(int id) throws IOException {
+        topology.writeLock().lock();
+        try {
+            Shard shard = shards.get(id);
+            if (shard == null) {
+                return;
+            }
+            if (shards.size() == 1) {
+                throw new IllegalStateException("Cannot remove the last shard");
+            }
+            quiesce();
+            ring.remove(id);
+            misplaced = true;
+            int moved = rebalance();
+            shards.remove(id);
+            shard.close();
+            System.out.println("Removed bank shard " + shard + ", moved " + moved + " accounts");
+        } finally {
+            topology.writeLock().unlock();
+        }
+    }
+
+    private int put(Shard shard) {
+        shard.setListener(account -> listener.accept(account));
+        int id = nextShardId++;
+        shards.put(id, shard);
+        ring.add(id);
+        return id;
+    }
+
+    /**
+     * Finishes or aborts the transfers between shards a failure left open, as their prepared parts
+     * stay with the accounts where they are. Runs with the topology write lock held, so no
+     * transfer is running.
+     *
+     * @throws IOException if a shard cannot be reached, so some are still open
+     */
+    private void quiesce() throws IOException {
+        resolve();
+        if (!decided.isEmpty()) {
+            throw new IOException(decided.size() + " transfers between shards are waiting for a shard");
+        }
+        for (Shard shard : shards.values()) {
+            if (shard.inDoubt().length > 0) {
+                throw new IOException("Shard " + shard + " still has prepared transfers");
+            }
+        }
+    }
+
+    /**
+     * Moves every account that is not on the shard the ring places it on. Runs with the topology
+     * write lock held and no transfer open.
+     */
+    private int rebalance() throws IOException {
+        if (!misplaced) {
+            return 0;
+        }
+        quiesce();
+        int moved = 0;
+        for (Map.Entry<Integer, Shard> entry : shards.entrySet()) {
+            if (ring.isEmpty()) {
+                break;
+            }
+            Shard source = entry.getValue();
+            for (int account : source.accounts()) {
+                int owner = ring.shardFor(account);
+                if (owner == entry.getKey()) {
+                    continue;
+                }
+                Shard target = shards.get(owner);
+                if (!target.contains(account)) {
+                    long balance = source.balance(account);
+                    target.moveIn(account, balance, balance - source.available(account));
+                }
+                source.moveOut(account);
+                moved++;
+            }
+        }
+        misplaced = false;
+        return moved;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Returns the id of the shard that owns the account.
+     */
+    public int shardOf(int account) {
+        topology.readLock().lock();
+        try {
+            return ring.shardFor(account);
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of accounts on each shard, by shard id.
+     */
+    public Map<Integer, Integer> getShardSizes() throws IOException {
+        topology.readLock().lock();
+        try {
+            Map<Integer, Integer> sizes = new HashMap<>();
+            for (Map.Entry<Integer, Shard> shard : shards.entrySet()) {
+                sizes.put(shard.getKey(), shard.getValue().size());
+            }
+            return sizes;
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    public long getCrossShardTransfers() {
+        return crossShardTransfers.get();
+    }
+
+    /**
+     * Returns how many transfers between shards were aborted because a shard refused or could
+     * not be reached.
+     */
+    public long getAborted() {
+        return aborted.get();
+    }
+
+    /**
+     * Returns the number of transfers between shards decided but not yet applied by both shards.
+     */
+    public int getPendingDecisions() {
+        return decided.size();
+    }
+
+    /**
+     * Sets the journal. With shards in this process every change is journaled here; with shard
+     * nodes only the commit decisions of transfers between shards are, as the nodes journal
+     * their own accounts.
+     */
+    @Override
+    public void setJournal(TransferJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public void setListener(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Puts back a decision to commit a transfer between shards found in the Bank's journal, for
+     * the recovery thread to finish.
+     */
+    public void restoreDecision(TransferJournal.Record decision) {
+        decided.add(decision.getTx());
+    }
+
+    @Override
+    public boolean open(int account, long minorUnits) {
+        topology.readLock().lock();
+        try {
+            if (!shardFor(account).open(account, minorUnits)) {
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            topology.readLock().unlock();
+        }
+        if (journal != null && !remote) {
+            journal.recordOpen(account, minorUnits);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(int account) {
+        topology.readLock().lock();
+        try {
+            return shardFor(account).contains(account);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long balance(int account) {
+        topology.readLock().lock();
+        try {
+            return shardFor(account).balance(account);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long available(int account) {
+        topology.readLock().lock();
+        try {
+            return shardFor(account).available(account);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deposit(int account, long minorUnits) {
+        topology.readLock().lock();
+        try {
+            if (!shardFor(account).deposit(account, minorUnits)) {
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            topology.readLock().unlock();
+        }
+        if (journal != null && !remote) {
+            journal.recordDeposit(account, minorUnits);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean withdraw(int account, long minorUnits) {
+        topology.readLock().lock();
+        try {
+            if (!shardFor(account).withdraw(account, minorUnits)) {
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            topology.readLock().unlock();
+        }
+        if (journal != null && !remote) {
+            journal.recordWithdraw(account, minorUnits);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean transfer(int from, int to, long minorUnits) {
+        return transferHeld(from, to, 0, minorUnits);
+    }
+
+    @Override
+    public boolean transferHeld(int from, int to, long heldUnits, long minorUnits) {
+        return transferHeld(0, from, to, heldUnits, minorUnits);
+    }
+
+    /**
+     * Like transferHeld, and journals the request's idempotency key with the transfer, or as
+     * refused. With shard nodes the transfer itself is journaled by the node, but the key is
+     * still journaled here, so the Bank knows the result after a restart.
+     */
+    @Override
+    public boolean transferHeld(long key, int from, int to, long heldUnits, long minorUnits) {
+        boolean applied;
+        topology.readLock().lock();
+        try {
+            applied = route(key, from, to, heldUnits, minorUnits);
+        } finally {
+            topology.readLock().unlock();
+        }
+        if (journal != null && (!remote || key != 0)) {
+            if (applied) {
+                journal.recordTransfer(from, to, minorUnits, key);
+            } else if (key != 0) {
+                journal.recordRefused(key);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Applies the transfers that stay within one shard as one batch on that shard, then runs the
+     * transfers between shards one by one in two phases. Every applied transfer is journaled, and
+     * every idempotency key with its result.
+     */
+    @Override
+    public boolean[] transferBatch(int[] from, int[] to, long[] minorUnits, long[] heldUnits, long[] keys) {
+        boolean[] applied = new boolean[from.length];
+        topology.readLock().lock();
+        try {
+            Map<Shard, List<Integer>> local = new HashMap<>();
+            List<Integer> crossShard = new ArrayList<>();
+            for (int i = 0; i < from.length; i++) {
+                Shard payer = shardFor(from[i]);
+                if (payer == shardFor(to[i])) {
+                    local.computeIfAbsent(payer, shard -> new ArrayList<>()).add(i);
+                } else {
+                    crossShard.add(i);
+                }
+            }
+            for (Map.Entry<Shard, List<Integer>> shard : local.entrySet()) {
+                List<Integer> indexes = shard.getValue();
+                int[] payers = new int[indexes.size()];
+                int[] payees = new int[indexes.size()];
+                long[] amounts = new long[indexes.size()];
+                long[] held = new long[indexes.size()];
+                long[] batchKeys = new long[indexes.size()];
+                for (int j = 0; j < indexes.size(); j++) {
+                    int i = indexes.get(j);
+                    payers[j] = from[i];
+                    payees[j] = to[i];
+                    amounts[j] = minorUnits[i];
+                    held[j] = heldUnits == null ? 0 : heldUnits[i];
+                    batchKeys[j] = keys == null ? 0 : keys[i];
+                }
+                try {
+                    boolean[] done = shard.getKey().transferBatch(payers, payees, amounts, held, batchKeys);
+                    for (int j = 0; j < indexes.size(); j++) {
+                        applied[indexes.get(j)] = done[j];
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (int i : crossShard) {
+                applied[i] = route(keys == null ? 0 : keys[i], from[i], to[i], heldUnits == null ? 0 : heldUnits[i],
+                        minorUnits[i]);
+            }
+        } finally {
+            topology.readLock().unlock();
+        }
+        if (journal != null && !remote) {
+            journal.recordTransfers(from, to, minorUnits, applied, keys);
+        } else if (journal != null && keys != null) {
+            boolean[] keyed = new boolean[applied.length];
+            for (int i = 0; i < applied.length; i++) {
+                keyed[i] = applied[i] && keys[i] != 0;
+            }
+            journal.recordTransfers(from, to, minorUnits, keyed, keys);
+        }
+        return applied;
+    }
+
+    @Override
+    public boolean hold(int account, long minorUnits) {
+        topology.readLock().lock();
+        try {
+            return shardFor(account).hold(account, minorUnits);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void release(int account, long minorUnits) {
+        topology.readLock().lock();
+        try {
+            shardFor(account).release(account, minorUnits);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void restore(int account, long minorUnits) {
+        topology.readLock().lock();
+        try {
+            shardFor(account).restore(account, minorUnits);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            topology.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        topology.readLock().lock();
+        try {
+            for (Shard shard : shards.values()) {
+                try {
+                    size += shard.size();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            topology.readLock().unlock();
+        }
+        return size;
+    }
+
+    /**
+     * Applies one transfer on the payer's shard, or in two phases if the payee is on another
+     * shard. Called with the topology read lock held.
+     */
+    private boolean route(long key, int from, int to, long heldUnits, long minorUnits) {
+        Shard payer = shardFor(from);
+        Shard payee = shardFor(to);
+        if (payer != payee) {
+            return transferAcross(key, payer, from, payee, to, heldUnits, minorUnits);
+        }
+        try {
+            return payer.transferHeld(key, from, to, heldUnits, minorUnits);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Runs a transfer between two shards as a two-phase commit. The transaction counts as in
+     * flight until it is committed or aborted on both shards, or left to the recovery thread
+     * because a shard is unavailable, so the recovery thread never works on it at the same time. The
+     * decision is journaled with the request's idempotency key.
+     *
+     * @return true once the transfer is committed, even if a shard applies it only later
+     */
+    private boolean transferAcross(long key, Shard payer, int from, Shard payee, int to, long heldUnits,
+                                   long minorUnits) {
+        long tx = nextTx.incrementAndGet();
+        inFlight.add(tx);
+        try {
+            boolean prepared;
+            try {
+                prepared = payer.prepare(tx, from, false, heldUnits, minorUnits)
+                        && payee.prepare(tx, to, true, 0, minorUnits);
+            } catch (IOException e) {
+                System.out.println("Aborting transfer " + tx + ": " + e.getMessage());
+                prepared = false;
+            }
+            if (!prepared) {
+                aborted.incrementAndGet();
+                abort(tx, payer);
+                abort(tx, payee);
+                return false;
+            }
+            if (journal != null && remote) {
+                journal.recordDecision(tx, from, to, minorUnits, key);
+            }
+            decided.add(tx);
+            crossShardTransfers.incrementAndGet();
+            commit(tx, payer, payee);
+            return true;
+        } finally {
+            inFlight.remove(tx);
+        }
+    }
+
+    /**
+     * Tells both shards to commit a decided transfer. Once both have, the decision is forgotten.
+     */
+    private void commit(long tx, Shard payer, Shard payee) {
+        try {
+            payer.commit(tx);
+            payee.commit(tx);
+        } catch (IOException e) {
+            System.out.println("Transfer " + tx + " will be committed once its shard is back: " + e.getMessage());
+            return;
+        }
+        end(tx);
+    }
+
+    private void commitEverywhere(long tx) {
+        for (Shard shard : shards.values()) {
+            try {
+                shard.commit(tx);
+            } catch (IOException e) {
+                return;
+            }
+        }
+        end(tx);
+    }
+
+    /**
+     * Forgets a decision both shards applied.
+     */
+    private void end(long tx) {
+        if (decided.remove(tx) && journal != null && remote) {
+            journal.recordEnd(tx);
+        }
+    }
+
+    private void abort(long tx, Shard shard) {
+        try {
+            shard.abort(tx);
+        } catch (IOException e) {
+            System.out.println("Transfer " + tx + " will be aborted once shard " + shard + " is back: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Commits every decided transfer that a shard has not applied yet and aborts every part a
+     * shard prepared for a transfer that was never decided and is no longer in flight. A decision
+     * restored from the journal may name accounts the ring placed elsewhere when it was made, so
+     * it is committed on every shard; a shard that did not prepare it ignores the commit.
+     */
+    private void resolve() {
+        for (long tx : decided) {
+            commitEverywhere(tx);
+        }
+        for (Shard shard : shards.values()) {
+            long[] prepared;
+            try {
+                prepared = shard.inDoubt();
+            } catch (IOException e) {
+                continue;
+            }
+            for (long tx : prepared) {
+                if (inFlight.contains(tx)) {
+                    continue;
+                }
+                if (decided.contains(tx)) {
+                    commitEverywhere(tx);
+                } else {
+                    aborted.incrementAndGet();
+                    abort(tx, shard);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs on the recovery thread: resolves open transfers and finishes a rebalance that failed.
+     */
+    private void recover() {
+        while (true) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECOVERY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (misplaced) {
+                topology.writeLock().lock();
+                try {
+                    int moved = rebalance();
+                    if (moved > 0) {
+                        System.out.println("Finished rebalancing, moved " + moved + " accounts");
+                    }
+                } catch (IOException e) {
+                    System.out.println("Rebalancing waits for a shard: " + e.getMessage());
+                } finally {
+                    topology.writeLock().unlock();
+                }
+                continue;
+            }
+            topology.readLock().lock();
+            try {
+                resolve();
+            } finally {
+                topology.readLock().unlock();
+            }
+        }
+    }
+
+    private Shard shardFor(int account) {
+        return shards.get(ring.shardFor(account));
+    }
+}
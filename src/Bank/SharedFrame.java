@@ -0,0 +1,62 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * A message encoded once into a complete binary frame, so a broadcast to many connections
+ * costs one encode instead of one per connection. The bytes are never changed after encoding;
+ * each connection writes them directly or through its own read-only view of them. Connections
+ * that did not negotiate the binary codec, and messages without a binary encoding, fall back
+ * to sending the message itself.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public final class SharedFrame {
+    private final Object message;
+    private final byte[] frame;
+
+    private SharedFrame(Object message, byte[] frame) {
+        this.message = message;
+        this.frame = frame;
+    }
+
+    /**
+     * Encodes the message for sharing.
+     */
+    public static SharedFrame of(Object message) throws IOException {
+        WireCodec.Buffer payload = new WireCodec.Buffer();
+        if (!WireCodec.encode(message, payload)) {
+            return new SharedFrame(message, null);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + payload.size());
+        frame.putInt(payload.size());
+        frame.put(payload.array(), 0, payload.size());
+        return new SharedFrame(message, frame.array());
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns true if the message has a shared binary frame.
+     */
+    boolean isBinary() {
+        return frame != null;
+    }
+
+    /**
+     * Returns the frame bytes, length prefix included. Callers must not change them.
+     */
+    byte[] bytes() {
+        return frame;
+    }
+
+    /**
+     * Returns a read-only view of the frame with its own position, for one connection's write queue.
+     */
+    ByteBuffer view() {
+        return ByteBuffer.wrap(frame).asReadOnlyBuffer();
+    }
+}
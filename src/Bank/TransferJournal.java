@@ -0,0 +1,590 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Append-only write-ahead journal of every change to the ledger and the auction-house directory,
+ * so they survive a Bank restart. Callers hand records to a single writer thread, which writes
+ * everything that queued up in one FileChannel write and forces it with one fsync (group commit).
+ * Each record is length-prefixed, numbered and checksummed. The journal is split into segment
+ * files named after their first record, so segments already covered by a snapshot can be deleted.
+ * A ShardNode also journals its part of every transfer between shards, and the Bank journals its
+ * decision to commit one, so both sides can finish the transfer after a crash. A change made for
+ * a request with an idempotency key, such as a settlement, carries the key in its own record, and
+ * a refused one is recorded as REFUSED, so after a restart the request is still answered once.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class TransferJournal implements Runnable {
+    public static final byte OPEN = 1;
+    public static final byte TRANSFER = 2;
+    public static final byte DEPOSIT = 3;
+    public static final byte WITHDRAW = 4;
+    public static final byte HOUSE_JOIN = 5;
+    public static final byte HOUSE_LEAVE = 6;
+    public static final byte SHARD_PREPARE = 7;
+    public static final byte SHARD_COMMIT = 8;
+    public static final byte SHARD_ABORT = 9;
+    public static final byte TX_COMMIT = 10;
+    public static final byte TX_END = 11;
+    public static final byte ACCOUNT_IN = 12;
+    public static final byte ACCOUNT_OUT = 13;
+    public static final byte REFUSED = 14;
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_BODY_BYTES = 1 << 16;
+    private static final long SEGMENT_BYTES = 64L << 20;
+
+    private final Path base;
+    private final Durability durability;
+    private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final List<Long> segmentStarts = new ArrayList<>();
+    private FileChannel channel;
+    private long sequence;
+    private volatile boolean rollRequested;
+    private Consumer<Record> listener = record -> { };
+
+    /**
+     * Opens the journal whose segments are named after the given file. Call replay before appending.
+     *
+     * @param base       journal file; segments are stored next to it as base.&lt;first record&gt;
+     * @param durability how records are forced to disk
+     */
+    public TransferJournal(Path base, Durability durability) throws IOException {
+        this.base = base.toAbsolutePath();
+        this.durability = durability;
+        if (Files.isRegularFile(this.base)) {
+            Files.move(this.base, segmentPath(1));
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.base.getParent(),
+                this.base.getFileName() + ".*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(this.base.getFileName().toString().length() + 1);
+                if (suffix.matches("\\d{20}")) {
+                    segmentStarts.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        Collections.sort(segmentStarts);
+    }
+
+    /**
+     * Reads every record after the given sequence and hands it to the consumer, then positions the
+     * journal for new records. A torn record at the end of the last segment is cut off.
+     *
+     * @param afterSequence last sequence already contained in the loaded snapshot
+     * @param consumer      receives the replayed records in order
+     * @return the number of records replayed
+     */
+    public int replay(long afterSequence, Consumer<Record> consumer) throws IOException {
+        sequence = afterSequence;
+        int replayed = 0;
+        for (int i = 0; i < segmentStarts.size(); i++) {
+            boolean last = i == segmentStarts.size() - 1;
+            if (!last && segmentStarts.get(i + 1) <= afterSequence + 1) {
+                continue;
+            }
+            try (FileChannel segment = FileChannel.open(segmentPath(segmentStarts.get(i)),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long position = 0;
+                Record record;
+                while ((record = readRecord(segment, position)) != null) {
+                    position += Integer.BYTES + record.bodyLength + Integer.BYTES;
+                    if (record.sequence <= afterSequence) {
+                        continue;
+                    }
+                    sequence = record.sequence;
+                    consumer.accept(record);
+                    replayed++;
+                }
+                if (last) {
+                    segment.truncate(position);
+                }
+            }
+        }
+        if (segmentStarts.isEmpty()) {
+            segmentStarts.add(sequence + 1);
+        }
+        long current = segmentStarts.get(segmentStarts.size() - 1);
+        channel = FileChannel.open(segmentPath(current), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return replayed;
+    }
+
+    /**
+     * Receives every record once it has been written (and forced, unless durability is NONE),
+     * in sequence order, on the writer thread.
+     */
+    public void setListener(Consumer<Record> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this);
+        thread.setName("Journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Records that an account was opened with the given balance.
+     */
+    public void recordOpen(int account, long minorUnits) {
+        append(new Record(OPEN, account, 0, minorUnits, null));
+    }
+
+    /**
+     * Records a transfer that was applied to the ledger.
+     */
+    public void recordTransfer(int from, int to, long minorUnits) {
+        recordTransfer(from, to, minorUnits, 0);
+    }
+
+    /**
+     * Records a transfer that was applied for the request with the given idempotency key.
+     *
+     * @param key idempotency key of the request, or 0 if it has none
+     */
+    public void recordTransfer(int from, int to, long minorUnits, long key) {
+        append(new Record(TRANSFER, from, to, minorUnits, null).withKey(key));
+    }
+
+    /**
+     * Records that the request with the given idempotency key was refused, so a retry of it is
+     * refused again rather than applied.
+     */
+    public void recordRefused(long key) {
+        append(new Record(REFUSED, 0, 0, 0, null).withKey(key));
+    }
+
+    /**
+     * Records every applied transfer of a netted batch, one record each, and every refused one
+     * that has an idempotency key, and waits for them together.
+     *
+     * @param applied which of the transfers were applied to the ledger
+     * @param keys    idempotency key of each transfer, 0 for none, or null if none has one
+     */
+    public void recordTransfers(int[] from, int[] to, long[] minorUnits, boolean[] applied, long[] keys) {
+        Record last = null;
+        for (int i = 0; i < from.length; i++) {
+            long key = keys == null ? 0 : keys[i];
+            if (applied[i]) {
+                last = new Record(TRANSFER, from[i], to[i], minorUnits[i], null).withKey(key);
+            } else if (key != 0) {
+                last = new Record(REFUSED, 0, 0, 0, null).withKey(key);
+            } else {
+                continue;
+            }
+            queue.add(last);
+        }
+        if (last != null) {
+            await(last);
+        }
+    }
+
+    /**
+     * Records money paid into an account from outside the bank.
+     */
+    public void recordDeposit(int account, long minorUnits) {
+        recordDeposit(account, minorUnits, 0);
+    }
+
+    /**
+     * Records money paid into an account for the request with the given idempotency key.
+     */
+    public void recordDeposit(int account, long minorUnits, long key) {
+        append(new Record(DEPOSIT, account, 0, minorUnits, null).withKey(key));
+    }
+
+    /**
+     * Records money taken out of an account to outside the bank.
+     */
+    public void recordWithdraw(int account, long minorUnits) {
+        recordWithdraw(account, minorUnits, 0);
+    }
+
+    /**
+     * Records money taken out of an account for the request with the given idempotency key.
+     */
+    public void recordWithdraw(int account, long minorUnits, long key) {
+        append(new Record(WITHDRAW, account, 0, minorUnits, null).withKey(key));
+    }
+
+    /**
+     * Records that an auction house registered its address and the identity it registers with,
+     * together with the directory version the join raised it to.
+     */
+    public void recordHouseJoin(int account, ClientAdress address, String identity, long version) {
+        append(new Record(HOUSE_JOIN, account, 0, version, address).withIdentity(identity));
+    }
+
+    /**
+     * Records that an auction house left, together with the directory version this raised it to.
+     */
+    public void recordHouseLeave(int account, long version) {
+        append(new Record(HOUSE_LEAVE, account, 0, version, null));
+    }
+
+    /**
+     * Records that a shard prepared its part of a transfer between shards: a debit holds the
+     * amount on the payer's account, a credit has checked the payee's account.
+     *
+     * @param credit true for the payee's part, false for the payer's
+     */
+    public void recordPrepare(long tx, int account, boolean credit, long minorUnits) {
+        append(new Record(SHARD_PREPARE, tx, account, credit ? 1 : 0, minorUnits));
+    }
+
+    /**
+     * Records that a shard applied its prepared part of a transfer between shards.
+     */
+    public void recordCommit(long tx, int account, boolean credit, long minorUnits) {
+        append(new Record(SHARD_COMMIT, tx, account, credit ? 1 : 0, minorUnits));
+    }
+
+    /**
+     * Records that a shard dropped its prepared part of a transfer between shards.
+     */
+    public void recordAbort(long tx, int account, boolean credit, long minorUnits) {
+        append(new Record(SHARD_ABORT, tx, account, credit ? 1 : 0, minorUnits));
+    }
+
+    /**
+     * Records the coordinator's decision to commit a transfer between shards. Once this record
+     * is written, the transfer is committed on both shards even if one of them is down.
+     */
+    public void recordDecision(long tx, int from, int to, long minorUnits) {
+        recordDecision(tx, from, to, minorUnits, 0);
+    }
+
+    /**
+     * Records the decision to commit a transfer between shards made for the request with the
+     * given idempotency key.
+     *
+     * @param key idempotency key of the request, or 0 if it has none
+     */
+    public void recordDecision(long tx, int from, int to, long minorUnits, long key) {
+        append(new Record(TX_COMMIT, tx, from, to, minorUnits).withKey(key));
+    }
+
+    /**
+     * Records that both shards applied a committed transfer, so the decision can be forgotten.
+     */
+    public void recordEnd(long tx) {
+        append(new Record(TX_END, tx, 0, 0, 0));
+    }
+
+    /**
+     * Records that an account was moved onto this shard with the given balance.
+     */
+    public void recordMoveIn(int account, long minorUnits) {
+        append(new Record(ACCOUNT_IN, account, 0, minorUnits, null));
+    }
+
+    /**
+     * Records that an account was moved off this shard.
+     */
+    public void recordMoveOut(int account) {
+        append(new Record(ACCOUNT_OUT, account, 0, 0, null));
+    }
+
+    /**
+     * Asks the writer to start a new segment before its next batch.
+     */
+    public void requestRoll() {
+        rollRequested = true;
+    }
+
+    /**
+     * Deletes every segment whose records are all covered by a snapshot.
+     *
+     * @param snapshotSequence last sequence contained in a snapshot that is safely on disk
+     */
+    public void compact(long snapshotSequence) {
+        List<Long> obsolete = new ArrayList<>();
+        synchronized (segmentStarts) {
+            while (segmentStarts.size() > 1 && segmentStarts.get(1) <= snapshotSequence + 1) {
+                obsolete.add(segmentStarts.remove(0));
+            }
+        }
+        for (long start : obsolete) {
+            try {
+                Files.deleteIfExists(segmentPath(start));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    private void append(Record record) {
+        queue.add(record);
+        await(record);
+    }
+
+    /**
+     * Waits until the record, and every record queued before it, is on disk if the journal
+     * is synchronous.
+     */
+    private void await(Record record) {
+        if (durability == Durability.SYNC) {
+            try {
+                record.done.join();
+            } catch (CompletionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        ArrayList<Record> batch = new ArrayList<>(MAX_BATCH);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (rollRequested || channel.size() >= SEGMENT_BYTES) {
+                    roll();
+                }
+                bytes.reset();
+                for (Record record : batch) {
+                    record.sequence = ++sequence;
+                    writeRecord(new DataOutputStream(bytes), record);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (durability != Durability.NONE) {
+                    channel.force(false);
+                }
+                for (Record record : batch) {
+                    record.done.complete(null);
+                    listener.accept(record);
+                }
+            } catch (IOException e) {
+                for (Record record : batch) {
+                    record.done.completeExceptionally(e);
+                }
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private void roll() throws IOException {
+        rollRequested = false;
+        if (channel.size() == 0) {
+            return;
+        }
+        channel.force(false);
+        channel.close();
+        synchronized (segmentStarts) {
+            segmentStarts.add(sequence + 1);
+        }
+        channel = FileChannel.open(segmentPath(sequence + 1), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return base.resolveSibling(base.getFileName() + "." + String.format("%020d", firstSequence));
+    }
+
+    private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(body);
+        fields.writeByte(record.type);
+        fields.writeLong(record.sequence);
+        fields.writeInt(record.first);
+        fields.writeInt(record.second);
+        fields.writeLong(record.amount);
+        if (record.isTransaction()) {
+            fields.writeLong(record.tx);
+        }
+        if (record.type == HOUSE_JOIN) {
+            fields.writeUTF(record.address.getipAdress());
+            fields.writeInt(record.address.getPortNumber());
+            fields.writeUTF(record.identity == null ? "" : record.identity);
+        }
+        if (record.key != 0) {
+            fields.writeLong(record.key);
+        }
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Reads the record at the given position, or returns null at the end of the segment
+     * or at a torn or corrupt record.
+     */
+    private static Record readRecord(FileChannel segment, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        if (!readAt(segment, header, position)) {
+            return null;
+        }
+        int length = header.getInt(0);
+        if (length <= 0 || length > MAX_BODY_BYTES) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length + Integer.BYTES);
+        if (!readAt(segment, body, position + Integer.BYTES)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, length);
+        if ((int) crc.getValue() != body.getInt(length)) {
+            return null;
+        }
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(body.array(), 0, length));
+        byte type = fields.readByte();
+        long recordSequence = fields.readLong();
+        int first = fields.readInt();
+        int second = fields.readInt();
+        long amount = fields.readLong();
+        ClientAdress address = null;
+        String identity = null;
+        if (type == HOUSE_JOIN) {
+            address = new ClientAdress(fields.readUTF(), fields.readInt());
+            identity = fields.available() > 0 ? fields.readUTF() : "";
+        }
+        Record record = new Record(type, first, second, amount, address).withIdentity(identity);
+        if (record.isTransaction()) {
+            record.tx = fields.readLong();
+        }
+        if (fields.available() >= Long.BYTES) {
+            record.key = fields.readLong();
+        }
+        record.sequence = recordSequence;
+        record.bodyLength = length;
+        return record;
+    }
+
+    private static boolean readAt(FileChannel segment, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (segment.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One journaled change. For transfers, first pays second; for the other types first is the account.
+     * Records of transfers between shards also carry the transaction id; for a shard's part,
+     * second is 1 for the credit and 0 for the debit. A record may end with the idempotency key of
+     * the request it was made for; records written without one read back with key 0. House joins
+     * and leaves carry the directory version as their amount.
+     */
+    public static final class Record {
+        private final byte type;
+        private final int first;
+        private final int second;
+        private final long amount;
+        private final ClientAdress address;
+        private String identity;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long tx;
+        private long key;
+        private long sequence;
+        private int bodyLength;
+
+        private Record(byte type, int first, int second, long amount, ClientAdress address) {
+            this.type = type;
+            this.first = first;
+            this.second = second;
+            this.amount = amount;
+            this.address = address;
+        }
+
+        Record(byte type, long tx, int first, int second, long amount) {
+            this(type, first, second, amount, null);
+            this.tx = tx;
+        }
+
+        private Record withKey(long key) {
+            this.key = key;
+            return this;
+        }
+
+        private Record withIdentity(String identity) {
+            this.identity = identity;
+            return this;
+        }
+
+        private boolean isTransaction() {
+            return type >= SHARD_PREPARE && type <= TX_END;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTx() {
+            return tx;
+        }
+
+        /**
+         * Returns the idempotency key of the request this change was made for, or 0 if none.
+         */
+        public long getKey() {
+            return key;
+        }
+
+        public int getFirst() {
+            return first;
+        }
+
+        public int getSecond() {
+            return second;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public ClientAdress getAddress() {
+            return address;
+        }
+
+        /**
+         * Returns the identity a house joined with, or an empty string for joins written before
+         * houses had one; null for the other types.
+         */
+        public String getIdentity() {
+            return identity;
+        }
+    }
+}
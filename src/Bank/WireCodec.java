@@ -0,0 +1,409 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Compact binary encoding of the messages sent between agents, auction houses and the Bank.
+ * Each frame payload starts with a one byte type tag followed by the message's fields as
+ * big-endian primitives; strings are a length and their UTF-8 bytes. Java serialization
+ * payloads always start with 0xAC, which is never a tag, so a reader can tell the two apart.
+ * Messages of any other type travel as JAVA_OBJECT, serialized on the connection's
+ * ManagedObjectStream.
+ */
+
+import Auctionhouse.AuctionBidManager;
+import Auctionhouse.AuctionBidManager.BidState;
+import Auctionhouse.BidRejection;
+import Auctionhouse.CatalogPage;
+import Auctionhouse.CatalogRequest;
+import Auctionhouse.LotUpdate;
+import Auctionhouse.SettlementNotice;
+import Auctionhouse.SnapshotRequest;
+import Auctionhouse.Subscription;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class WireCodec {
+    static final byte NULL = 1;
+    static final byte STRING = 2;
+    static final byte INTEGER = 3;
+    static final byte DOUBLE = 4;
+    static final byte CLIENT_ADDRESS = 5;
+    static final byte CLIENT_MESSAGE = 6;
+    static final byte LOT = 7;
+    static final byte BID_REJECTION = 8;
+    static final byte JAVA_OBJECT = 9;
+    static final byte LOT_UPDATE = 10;
+    static final byte SNAPSHOT_REQUEST = 11;
+    static final byte SUBSCRIPTION = 12;
+    static final byte CATALOG_PAGE = 13;
+    static final byte CATALOG_REQUEST = 14;
+    static final byte SETTLEMENT_BATCH = 15;
+    static final byte SETTLEMENT_ACK = 16;
+    static final byte SETTLEMENT_NOTICE = 17;
+    static final byte DIRECTORY_SNAPSHOT = 18;
+    static final byte DIRECTORY_CHANGE = 19;
+    static final byte DIRECTORY_REQUEST = 20;
+    static final byte HOLD_BATCH = 21;
+    static final byte HOLD_RESULT = 22;
+
+    private WireCodec() {
+    }
+
+    /**
+     * Returns true if the payload was written by this codec rather than by Java serialization.
+     */
+    static boolean isBinary(byte[] payload, int offset, int length) {
+        return length > 0 && payload[offset] != (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8);
+    }
+
+    /**
+     * Encodes the message into the buffer.
+     *
+     * @return false if the message has no binary encoding and has to be serialized instead
+     */
+    static boolean encode(Object message, Buffer out) {
+        if (message == null) {
+            out.putByte(NULL);
+        } else if (message instanceof String text) {
+            out.putByte(STRING);
+            out.putString(text);
+        } else if (message instanceof Integer number) {
+            out.putByte(INTEGER);
+            out.putInt(number);
+        } else if (message instanceof Double number) {
+            out.putByte(DOUBLE);
+            out.putDouble(number);
+        } else if (message instanceof ClientAdress address) {
+            out.putByte(CLIENT_ADDRESS);
+            out.putString(address.getipAdress());
+            out.putInt(address.getPortNumber());
+        } else if (message instanceof DirectorySnapshot snapshot) {
+            out.putByte(DIRECTORY_SNAPSHOT);
+            out.putLong(snapshot.getVersion());
+            out.putInt(snapshot.getHouses().size());
+            for (Map.Entry<Integer, ClientAdress> house : snapshot.getHouses().entrySet()) {
+                out.putInt(house.getKey());
+                out.putString(house.getValue().getipAdress());
+                out.putInt(house.getValue().getPortNumber());
+            }
+        } else if (message instanceof DirectoryChange change) {
+            out.putByte(DIRECTORY_CHANGE);
+            out.putLong(change.getVersion());
+            out.putInt(change.getAccount());
+            out.putByte((byte) (change.isJoin() ? 1 : 0));
+            if (change.isJoin()) {
+                out.putString(change.getAddress().getipAdress());
+                out.putInt(change.getAddress().getPortNumber());
+            }
+        } else if (message instanceof DirectoryRequest request) {
+            out.putByte(DIRECTORY_REQUEST);
+            out.putLong(request.getSinceVersion());
+        } else if (message instanceof ClientMessage transfer) {
+            out.putByte(CLIENT_MESSAGE);
+            out.putInt(transfer.getAgentAcctNo());
+            out.putInt(transfer.getAucHouseAccNo());
+            out.putInt(transfer.getTransferAmount());
+        } else if (message instanceof SettlementBatch batch) {
+            out.putByte(SETTLEMENT_BATCH);
+            out.putLong(batch.getBatchId());
+            out.putInt(batch.getSettlements().size());
+            for (Settlement settlement : batch.getSettlements()) {
+                out.putLong(settlement.getIdempotencyKey());
+                out.putInt(settlement.getAgentAcctNo());
+                out.putInt(settlement.getAucHouseAccNo());
+                out.putInt(settlement.getTransferAmount());
+                out.putLong(settlement.getHoldId());
+            }
+        } else if (message instanceof HoldBatch batch) {
+            out.putByte(HOLD_BATCH);
+            out.putLong(batch.getBatchId());
+            out.putLong(batch.getLeaseMillis());
+            out.putInt(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                out.putByte((byte) (batch.isHold(i) ? 1 : 0));
+                out.putLong(batch.getHoldId(i));
+                out.putInt(batch.getAgentAcctNo(i));
+                out.putInt(batch.getAmount(i));
+            }
+        } else if (message instanceof HoldResult result) {
+            out.putByte(HOLD_RESULT);
+            out.putLong(result.getBatchId());
+            out.putInt(result.size());
+            for (int i = 0; i < result.size(); i++) {
+                out.putLong(result.getHoldId(i));
+                out.putByte((byte) (result.isDone(i) ? 1 : 0));
+            }
+        } else if (message instanceof SettlementAck ack) {
+            out.putByte(SETTLEMENT_ACK);
+            out.putLong(ack.getBatchId());
+            out.putInt(ack.size());
+            for (int i = 0; i < ack.size(); i++) {
+                out.putLong(ack.getKey(i));
+                out.putByte((byte) (ack.isSettled(i) ? 1 : 0));
+            }
+        } else if (message instanceof SettlementNotice notice) {
+            out.putByte(SETTLEMENT_NOTICE);
+            out.putString(notice.getItemName());
+            out.putInt(notice.getAmount());
+            out.putByte((byte) (notice.isSettled() ? 1 : 0));
+        } else if (message instanceof AuctionBidManager lot) {
+            out.putByte(LOT);
+            putLot(lot, out);
+        } else if (message instanceof CatalogPage page) {
+            out.putByte(CATALOG_PAGE);
+            out.putLong(page.getNextCursor());
+            out.putInt(page.getLots().size());
+            for (AuctionBidManager lot : page.getLots()) {
+                putLot(lot, out);
+            }
+        } else if (message instanceof CatalogRequest request) {
+            out.putByte(CATALOG_REQUEST);
+            out.putLong(request.getCursor());
+        } else if (message instanceof LotUpdate update) {
+            out.putByte(LOT_UPDATE);
+            out.putLong(update.getLotKey());
+            out.putLong(update.getVersion());
+            out.putInt(update.getCurrentBid());
+            out.putInt(update.getCurrentBidderID());
+        } else if (message instanceof SnapshotRequest request) {
+            out.putByte(SNAPSHOT_REQUEST);
+            out.putLong(request.getLotKey());
+        } else if (message instanceof Subscription subscription) {
+            out.putByte(SUBSCRIPTION);
+            out.putLong(subscription.getLotKey());
+            out.putByte((byte) (subscription.isSubscribe() ? 1 : 0));
+        } else if (message instanceof BidRejection rejection) {
+            out.putByte(BID_REJECTION);
+            out.putInt(rejection.getBankId());
+            out.putString(rejection.getMessage());
+            out.putString(rejection.getItemName());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a binary payload.
+     */
+    static Object decode(byte[] payload, int offset, int length) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload, offset, length);
+        try {
+            byte tag = in.get();
+            return switch (tag) {
+                case NULL -> null;
+                case STRING -> getString(in);
+                case INTEGER -> in.getInt();
+                case DOUBLE -> in.getDouble();
+                case CLIENT_ADDRESS -> new ClientAdress(getString(in), in.getInt());
+                case DIRECTORY_SNAPSHOT -> getDirectorySnapshot(in);
+                case DIRECTORY_CHANGE -> getDirectoryChange(in);
+                case DIRECTORY_REQUEST -> new DirectoryRequest(in.getLong());
+                case CLIENT_MESSAGE -> new ClientMessage(in.getInt(), in.getInt(), in.getInt());
+                case SETTLEMENT_BATCH -> getSettlementBatch(in);
+                case SETTLEMENT_ACK -> getSettlementAck(in);
+                case HOLD_BATCH -> getHoldBatch(in);
+                case HOLD_RESULT -> getHoldResult(in);
+                case SETTLEMENT_NOTICE -> new SettlementNotice(getString(in), in.getInt(), in.get() != 0);
+                case LOT -> getLot(in);
+                case CATALOG_PAGE -> getCatalogPage(in);
+                case CATALOG_REQUEST -> new CatalogRequest(in.getLong());
+                case LOT_UPDATE -> new LotUpdate(in.getLong(), in.getLong(), in.getInt(), in.getInt());
+                case SNAPSHOT_REQUEST -> new SnapshotRequest(in.getLong());
+                case SUBSCRIPTION -> new Subscription(in.getLong(), in.get() != 0);
+                case BID_REJECTION -> new BidRejection(in.getInt(), getString(in), getString(in));
+                default -> throw new StreamCorruptedException("Unknown message tag " + tag);
+            };
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("Truncated message");
+        }
+    }
+
+    private static void putLot(AuctionBidManager lot, Buffer out) {
+        BidState state = lot.getState();
+        out.putString(lot.getAuctionItemName());
+        out.putLong(lot.getLotKey());
+        out.putInt(state.getCurrentBid());
+        out.putInt(state.getCurrentBidderID());
+        out.putInt(state.getPreviousBid());
+        out.putInt(state.getPreviousBidderId());
+        out.putByte((byte) (state.isBidOver() ? 1 : 0));
+        out.putLong(state.getVersion());
+    }
+
+    private static AuctionBidManager getLot(ByteBuffer in) throws IOException {
+        return new AuctionBidManager(getString(in), in.getLong(),
+                new BidState(in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.get() != 0, in.getLong()));
+    }
+
+    private static CatalogPage getCatalogPage(ByteBuffer in) throws IOException {
+        long nextCursor = in.getLong();
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new StreamCorruptedException("Bad page size " + count);
+        }
+        ArrayList<AuctionBidManager> lots = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lots.add(getLot(in));
+        }
+        return new CatalogPage(lots, nextCursor);
+    }
+
+    private static DirectorySnapshot getDirectorySnapshot(ByteBuffer in) throws IOException {
+        long version = in.getLong();
+        int count = getCount(in);
+        Map<Integer, ClientAdress> houses = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            houses.put(in.getInt(), new ClientAdress(getString(in), in.getInt()));
+        }
+        return new DirectorySnapshot(version, houses);
+    }
+
+    private static DirectoryChange getDirectoryChange(ByteBuffer in) throws IOException {
+        long version = in.getLong();
+        int account = in.getInt();
+        ClientAdress address = in.get() != 0 ? new ClientAdress(getString(in), in.getInt()) : null;
+        return new DirectoryChange(version, account, address);
+    }
+
+    private static SettlementBatch getSettlementBatch(ByteBuffer in) throws IOException {
+        long batchId = in.getLong();
+        int count = getCount(in);
+        List<Settlement> settlements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            settlements.add(new Settlement(in.getLong(), in.getInt(), in.getInt(), in.getInt(), in.getLong()));
+        }
+        return new SettlementBatch(batchId, settlements);
+    }
+
+    private static SettlementAck getSettlementAck(ByteBuffer in) throws IOException {
+        long batchId = in.getLong();
+        int count = getCount(in);
+        long[] keys = new long[count];
+        boolean[] settled = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = in.getLong();
+            settled[i] = in.get() != 0;
+        }
+        return new SettlementAck(batchId, keys, settled);
+    }
+
+    private static HoldBatch getHoldBatch(ByteBuffer in) throws IOException {
+        long batchId = in.getLong();
+        long leaseMillis = in.getLong();
+        int count = getCount(in);
+        boolean[] hold = new boolean[count];
+        long[] holdIds = new long[count];
+        int[] agentAcctNos = new int[count];
+        int[] amounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            hold[i] = in.get() != 0;
+            holdIds[i] = in.getLong();
+            agentAcctNos[i] = in.getInt();
+            amounts[i] = in.getInt();
+        }
+        return new HoldBatch(batchId, leaseMillis, hold, holdIds, agentAcctNos, amounts);
+    }
+
+    private static HoldResult getHoldResult(ByteBuffer in) throws IOException {
+        long batchId = in.getLong();
+        int count = getCount(in);
+        long[] holdIds = new long[count];
+        boolean[] done = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            holdIds[i] = in.getLong();
+            done[i] = in.get() != 0;
+        }
+        return new HoldResult(batchId, holdIds, done);
+    }
+
+    private static int getCount(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new StreamCorruptedException("Bad count " + count);
+        }
+        return count;
+    }
+
+    private static String getString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new StreamCorruptedException("Bad string length " + length);
+        }
+        String text = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return text;
+    }
+
+    /**
+     * Growable byte array that a connection reuses for every message it encodes.
+     */
+    static final class Buffer {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void putByte(byte value) {
+            ensure(1);
+            bytes[size++] = value;
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        void putDouble(double value) {
+            putLong(Double.doubleToLongBits(value));
+        }
+
+        void putString(String value) {
+            byte[] text = value.getBytes(StandardCharsets.UTF_8);
+            putInt(text.length);
+            ensure(text.length);
+            System.arraycopy(text, 0, bytes, size, text.length);
+            size += text.length;
+        }
+
+        void putBytes(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
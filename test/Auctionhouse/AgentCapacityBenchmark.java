@@ -0,0 +1,179 @@
+package Auctionhouse;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Connects thousands of agents to one auction house, once with its connections on platform
+ * threads and once on virtual threads, and prints for each how fast the agents were accepted and
+ * served their first catalog page, and what holding them all open costs the house: live threads,
+ * heap after a GC and resident memory. Each house runs with its own Bank in a child JVM, so the
+ * two runs do not share a heap and the agents' sockets do not count against the house. Virtual
+ * threads need Java 21; on older runtimes the house falls back to platform threads and the row
+ * says so. Needs a file descriptor limit above the number of agents.
+ * Usage: java -cp &lt;classes&gt; Auctionhouse.AgentCapacityBenchmark [agents]
+ */
+
+import Bank.BankManager;
+import Bank.Durability;
+import Bank.FrameStream;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AgentCapacityBenchmark {
+    private static final int CONNECTORS = 32;
+    private static final int ITEMS = 500;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+    private static final int FIRST_AGENT_ID = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "house".equals(args[0])) {
+            runHouse("virtual".equals(args[1]), Path.of(args[2]));
+            return;
+        }
+        int agents = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        Path dir = Files.createTempDirectory("agents");
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            items.add("item" + i);
+        }
+        Files.write(dir.resolve("items.txt"), items);
+        System.out.printf("%-30s %8s %10s %10s %10s %8s %10s %10s%n", "connections", "agents", "accepts/s",
+                "p50 ms", "p99 ms", "threads", "heap MB", "rss MB");
+        for (String mode : new String[]{"platform", "virtual"}) {
+            measure(mode, agents, dir);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts a house in a child JVM, connects the agents to it and asks it what holding them costs.
+     */
+    private static void measure(String mode, int agents, Path dir) throws Exception {
+        Process house = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), AgentCapacityBenchmark.class.getName(), "house", mode,
+                dir.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            BufferedReader report = new BufferedReader(new InputStreamReader(house.getInputStream()));
+            String connections = report.readLine();
+            if (connections == null) {
+                throw new AssertionError("the " + mode + " house did not start");
+            }
+            ConcurrentLinkedQueue<Socket> connected = new ConcurrentLinkedQueue<>();
+            long[] latencies = new long[agents];
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            ExecutorService connectors = Executors.newFixedThreadPool(CONNECTORS);
+            long start = System.nanoTime();
+            for (int i = 0; i < CONNECTORS; i++) {
+                connectors.execute(() -> {
+                    for (int agent = next.getAndIncrement(); agent < agents; agent = next.getAndIncrement()) {
+                        long begin = System.nanoTime();
+                        try {
+                            Socket socket = new Socket("localhost", 5090);
+                            connected.add(socket);
+                            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                            FrameStream stream = new FrameStream(socket, true);
+                            stream.send(FIRST_AGENT_ID + agent);
+                            if (!(stream.read() instanceof CatalogPage)) {
+                                throw new IOException("the first message was not a catalog page");
+                            }
+                            latencies[agent] = System.nanoTime() - begin;
+                        } catch (IOException | ClassNotFoundException e) {
+                            latencies[agent] = Long.MAX_VALUE;
+                            if (failed.getAndIncrement() == 0) {
+                                System.out.println("Agent " + agent + " failed: " + e);
+                            }
+                        }
+                    }
+                });
+            }
+            connectors.shutdown();
+            connectors.awaitTermination(1, TimeUnit.HOURS);
+            long elapsed = System.nanoTime() - start;
+            sockets.addAll(connected);
+
+            PrintWriter command = new PrintWriter(house.getOutputStream(), true);
+            command.println("report");
+            String[] cost = report.readLine().split(" ");
+            Arrays.sort(latencies);
+            int served = agents - failed.get();
+            System.out.printf("%-30s %8d %10.0f %10.1f %10.1f %8s %10s %10s%n", connections, served,
+                    served * 1e9 / elapsed, latencies[agents / 2] / 1e6, latencies[agents * 99 / 100] / 1e6,
+                    cost[0], cost[1], cost[2]);
+            if (failed.get() > 0) {
+                System.out.println(failed.get() + " agents were not served");
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            house.destroyForcibly().waitFor();
+        }
+    }
+
+    /**
+     * Runs in the child JVM: starts a Bank and an auction house, says which threads the house got,
+     * and on each "report" line prints its live threads, heap and resident memory.
+     */
+    private static void runHouse(boolean virtualThreads, Path dir) throws Exception {
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Thread bank = new Thread(new BankManager(0, dir.resolve("bank-" + ProcessHandle.current().pid() + ".journal"),
+                Durability.NONE));
+        bank.setDaemon(true);
+        bank.start();
+        TimeUnit.MILLISECONDS.sleep(500);
+        AuctionHouse house = new AuctionHouse("localhost", 9090, dir.resolve("items.txt").toString(), 1,
+                WaitStrategy.PARK, virtualThreads, OverflowPolicy.CONFLATE);
+        house.start();
+        boolean virtual = virtualThreads && Runtime.version().feature() >= 21;
+        report.println(virtual ? "virtual" : virtualThreads ? "virtual (platform fallback)" : "platform");
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in));
+        while (commands.readLine() != null) {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+            long heap = runtime.totalMemory() - runtime.freeMemory();
+            report.printf("%d %.1f %s%n", ManagementFactory.getThreadMXBean().getThreadCount(), heap / 1048576.0,
+                    residentMegabytes());
+        }
+    }
+
+    /**
+     * Reads the resident set size from /proc, or returns "n/a" where there is none.
+     */
+    private static String residentMegabytes() throws IOException {
+        Path status = Path.of("/proc/self/status");
+        if (Files.exists(status)) {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    long kilobytes = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    return String.format("%.1f", kilobytes / 1024.0);
+                }
+            }
+        }
+        return "n/a";
+    }
+}
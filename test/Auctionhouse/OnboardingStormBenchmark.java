@@ -0,0 +1,121 @@
+package Auctionhouse;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Opens a storm of simultaneous agent connects against one auction house and measures how many
+ * connections the house accepts per second and how long each agent waits from its connect to the
+ * first catalog page with a lot in it (p50, p99, max). All connects are released at once, one
+ * thread per agent, and a connect that is reset or refused counts as a failure. The Bank and the
+ * house run in this JVM; their console output is suppressed while the storm runs.
+ * Usage: java -cp &lt;classes&gt; Auctionhouse.OnboardingStormBenchmark [agents] [rounds]
+ */
+
+import Bank.BankManager;
+import Bank.Durability;
+import Bank.FrameStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OnboardingStormBenchmark {
+    private static final int ITEMS = 500;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+    private static final int FIRST_AGENT_ID = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        int agents = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Path dir = Files.createTempDirectory("storm");
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            items.add("item" + i);
+        }
+        Files.write(dir.resolve("items.txt"), items);
+        Thread bank = new Thread(new BankManager(0, dir.resolve("bank.journal"), Durability.NONE));
+        bank.setDaemon(true);
+        bank.start();
+        TimeUnit.MILLISECONDS.sleep(500);
+        AuctionHouse house = new AuctionHouse("localhost", 9090, dir.resolve("items.txt").toString(), 1,
+                WaitStrategy.PARK, false, OverflowPolicy.CONFLATE);
+        house.start();
+
+        report.printf("%6s %8s %8s %10s %10s %10s %10s%n", "round", "agents", "failed", "accepts/s", "p50 ms",
+                "p99 ms", "max ms");
+        for (int round = 1; round <= rounds; round++) {
+            storm(report, round, agents);
+        }
+        house.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Releases all connects at once and waits until every agent has its first lot or failed.
+     */
+    private static void storm(PrintStream report, int round, int agents) throws InterruptedException {
+        long[] latencies = new long[agents];
+        List<Socket> sockets = new ArrayList<>();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(agents);
+        for (int i = 0; i < agents; i++) {
+            int agent = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                    long begin = System.nanoTime();
+                    Socket socket = new Socket("localhost", 5090);
+                    synchronized (sockets) {
+                        sockets.add(socket);
+                    }
+                    socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                    FrameStream stream = new FrameStream(socket, true);
+                    stream.send(FIRST_AGENT_ID + round * agents + agent);
+                    Object message = stream.read();
+                    while (!(message instanceof CatalogPage page) || page.getLots().isEmpty()) {
+                        message = stream.read();
+                    }
+                    latencies[agent] = System.nanoTime() - begin;
+                } catch (IOException | ClassNotFoundException e) {
+                    latencies[agent] = Long.MAX_VALUE;
+                    failed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        int served = agents - failed.get();
+        report.printf("%6d %8d %8d %10.0f %10.1f %10.1f %10.1f%n", round, agents, failed.get(),
+                served * 1e9 / elapsed, latencies[agents / 2] / 1e6, latencies[agents * 99 / 100] / 1e6,
+                latencies[served > 0 ? served - 1 : 0] / 1e6);
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
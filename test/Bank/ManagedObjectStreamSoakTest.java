@@ -0,0 +1,104 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Soak test of the ManagedObjectStream: broadcasts millions of messages that have no binary
+ * encoding through the JAVA_OBJECT frames of a binary connection and samples the heap after a GC
+ * every tenth of the way. The heap has to stay flat, the writer may never remember more than
+ * MAX_HANDLES objects, and a message object that is changed and sent again has to arrive with its
+ * new value instead of as a stale back-reference. For comparison it first sends a fraction of the
+ * messages through a plain ObjectOutputStream that is never reset, which keeps every object.
+ * Fails with an AssertionError.
+ * Usage: java -cp &lt;classes&gt; Bank.ManagedObjectStreamSoakTest [broadcasts]
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ManagedObjectStreamSoakTest {
+    private static final int SAMPLES = 10;
+    private static final long MAX_GROWTH_BYTES = 16L << 20;
+    private static final int RESEND_EVERY = 16;
+
+    public static void main(String[] args) throws Exception {
+        int broadcasts = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        long unmanagedGrowth = unmanaged(broadcasts / SAMPLES);
+        System.out.printf("Never reset: %d broadcasts grew the heap by %.1f MB%n", broadcasts / SAMPLES,
+                unmanagedGrowth / 1048576.0);
+
+        ManagedObjectStream writer = new ManagedObjectStream();
+        ManagedObjectStream reader = new ManagedObjectStream();
+        WireCodec.Buffer out = new WireCodec.Buffer();
+        int[] price = new int[1];
+        int maxHandles = 0;
+        List<Long> heap = new ArrayList<>();
+        System.out.printf("%12s %10s %8s %8s%n", "broadcasts", "heap MB", "handles", "resets");
+        for (int i = 1; i <= broadcasts; i++) {
+            Object message;
+            if (i % RESEND_EVERY == 0) {
+                price[0] = i;
+                message = price;
+            } else {
+                message = new Settlement(i, 10000 + i % 1000, 20000, i % 500, i);
+            }
+            out.reset();
+            FrameStream.encode(message, true, out, writer);
+            check(out.array()[0] == WireCodec.JAVA_OBJECT, "message was not sent as JAVA_OBJECT");
+            Object received = FrameStream.decode(out.array(), 0, out.size(), reader);
+            if (message == price) {
+                check(((int[]) received)[0] == i, "resent message arrived stale: " + ((int[]) received)[0]
+                        + " instead of " + i);
+            } else {
+                check(((Settlement) received).getIdempotencyKey() == i, "messages arrived out of order");
+            }
+            maxHandles = Math.max(maxHandles, writer.getHandleCount());
+            if (i % (broadcasts / SAMPLES) == 0) {
+                long used = usedHeap();
+                heap.add(used);
+                System.out.printf("%12d %10.1f %8d %8d%n", i, used / 1048576.0, writer.getHandleCount(),
+                        writer.getResets());
+            }
+        }
+        check(maxHandles <= ManagedObjectStream.MAX_HANDLES, "writer remembered " + maxHandles + " objects");
+        check(writer.getResets() > 0, "the stream was never reset");
+        long growth = heap.get(heap.size() - 1) - heap.get(0);
+        check(growth < MAX_GROWTH_BYTES, String.format("heap grew by %.1f MB", growth / 1048576.0));
+        System.out.printf("ManagedObjectStreamSoakTest passed: heap changed by %.1f MB over %d broadcasts%n",
+                growth / 1048576.0, broadcasts);
+    }
+
+    /**
+     * Writes the same traffic to an ObjectOutputStream that is never reset.
+     *
+     * @return how much the heap grew
+     */
+    private static long unmanaged(int broadcasts) throws Exception {
+        long before = usedHeap();
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(sink);
+        for (int i = 1; i <= broadcasts; i++) {
+            stream.writeObject(new Settlement(i, 10000 + i % 1000, 20000, i % 500, i));
+            sink.reset();
+        }
+        long growth = usedHeap() - before;
+        stream.close();
+        return growth;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
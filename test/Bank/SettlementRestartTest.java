@@ -0,0 +1,101 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Settles lots on a journaled Ledger through a SettlementLog, then rebuilds the ledger and the
+ * log from the journal and from a snapshot, as a restarted Bank does, and checks that a
+ * settlement sent again afterwards is answered with its first result instead of charging the
+ * winner twice, for applied, refused and netted settlements alike. Also checks that a settlement
+ * whose transfer throws leaves nothing behind in the log, and that keys beyond the capacity are
+ * kept while they are younger than the retention time. Fails with an AssertionError.
+ * Usage: java -cp &lt;classes&gt; Bank.SettlementRestartTest
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class SettlementRestartTest {
+    private static final int AGENT = 11111;
+    private static final int HOUSE = 22222;
+    private static final int CAPACITY = 4;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("settlements");
+        Path journalFile = dir.resolve("bank.journal");
+        Path snapshotFile = dir.resolve("bank.journal.snapshot");
+
+        TransferJournal journal = new TransferJournal(journalFile, Durability.SYNC);
+        journal.replay(0, record -> { });
+        journal.start();
+        Ledger ledger = new Ledger();
+        ledger.setJournal(journal);
+        ledger.open(AGENT, 10_000);
+        ledger.open(HOUSE, 0);
+        SettlementLog log = new SettlementLog(CAPACITY, TimeUnit.MINUTES.toNanos(10));
+
+        check(log.apply(101, () -> ledger.transferHeld(101, AGENT, HOUSE, 0, 500)), "settlement 101 was refused");
+        check(!log.apply(102, () -> ledger.transferHeld(102, AGENT, HOUSE, 0, 1_000_000)), "settlement 102 was applied");
+        boolean[] netted = ledger.transferBatch(new int[]{AGENT, AGENT}, new int[]{HOUSE, HOUSE}, new long[]{300, 200},
+                null, new long[]{103, 0});
+        log.record(103, netted[0]);
+        check(ledger.balance(AGENT) == 9_000, "agent has " + ledger.balance(AGENT));
+
+        try {
+            log.apply(104, () -> {
+                throw new IllegalStateException("shard unavailable");
+            });
+            check(false, "the failing settlement did not throw");
+        } catch (IllegalStateException expected) {
+            // the transfer failed before anything was applied
+        }
+        check(log.result(104) == null && log.size() == 3, "a failed settlement stayed in the log");
+        check(log.apply(104, () -> ledger.transferHeld(104, AGENT, HOUSE, 0, 100)), "the retry of 104 was refused");
+
+        for (long key = 1000; key < 1000 + CAPACITY * 4; key++) {
+            log.record(key, true);
+        }
+        check(log.result(101) != null, "a key younger than the retention time was forgotten");
+        long balance = ledger.balance(AGENT);
+
+        LedgerSnapshot snapshot = LedgerSnapshot.load(snapshotFile);
+        TransferJournal restarted = new TransferJournal(journalFile, Durability.SYNC);
+        restarted.replay(snapshot.getSequence(), snapshot::apply);
+        Ledger recovered = new Ledger();
+        snapshot.restoreInto(recovered, new HouseDirectory());
+        SettlementLog recoveredLog = new SettlementLog(CAPACITY, TimeUnit.MINUTES.toNanos(10));
+        snapshot.getSettlements().forEach(recoveredLog::record);
+        check(recovered.balance(AGENT) == balance, "recovered agent has " + recovered.balance(AGENT));
+        check(Boolean.TRUE.equals(recoveredLog.result(101)) && Boolean.FALSE.equals(recoveredLog.result(102))
+                && Boolean.TRUE.equals(recoveredLog.result(103)) && Boolean.TRUE.equals(recoveredLog.result(104)),
+                "the settlement results were not recovered from the journal");
+
+        recovered.setJournal(restarted);
+        snapshot.start(restarted, 200, TimeUnit.MILLISECONDS);
+        restarted.start();
+        for (long key = 101; key <= 104; key++) {
+            long retried = key;
+            recoveredLog.apply(retried, () -> recovered.transferHeld(retried, AGENT, HOUSE, 0, 500));
+        }
+        check(recovered.balance(AGENT) == balance, "a retried settlement was applied again, agent has "
+                + recovered.balance(AGENT));
+        check(recoveredLog.apply(105, () -> recovered.transferHeld(105, AGENT, HOUSE, 0, 50)), "settlement 105 was refused");
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(snapshotFile) || LedgerSnapshot.load(snapshotFile).getSettlements().get(105L) == null) {
+            check(System.currentTimeMillis() < deadline, "no snapshot with settlement 105 was saved");
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        LedgerSnapshot saved = LedgerSnapshot.load(snapshotFile);
+        check(Boolean.FALSE.equals(saved.getSettlements().get(102L)) && Boolean.TRUE.equals(saved.getSettlements().get(101L)),
+                "the snapshot lost settlement results");
+        System.out.println("SettlementRestartTest passed");
+        System.exit(0);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Runs a ShardedLedger over three ShardNodes in their own JVMs while several threads transfer
+ * money between random accounts, most of them on different nodes. It then adds a fourth node and
+ * checks that only the accounts the ring gives to the new node moved, and kills one node in the
+ * middle of the transfers and restarts it on the same journal, checking that the recovery thread
+ * commits or aborts every transfer it left open. After each step no money may be created or lost
+ * and no account may keep a hold. Finally it sends one withdrawal to a node several times with the
+ * same idempotency key, before and after restarting the node, and checks it was applied once,
+ * and that a request the node fails is answered with the error. Fails with an AssertionError.
+ * Usage: java -cp &lt;classes&gt; Bank.ShardRebalanceTest
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ShardRebalanceTest {
+    private static final int ACCOUNTS = 3000;
+    private static final long OPENING_BALANCE = 100_000;
+    private static final int TRANSFER_THREADS = 8;
+    private static final long RECOVERY_TIMEOUT_MILLIS = 30_000;
+
+    private final Path dir;
+    private final Map<Integer, Process> nodes = new HashMap<>();
+
+    private ShardRebalanceTest(Path dir) {
+        this.dir = dir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ShardRebalanceTest test = new ShardRebalanceTest(Files.createTempDirectory("shards"));
+        try {
+            test.run();
+            System.out.println("ShardRebalanceTest passed");
+        } finally {
+            test.stopNodes();
+        }
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int port = freePort();
+            startNode(port);
+            addresses.add(new InetSocketAddress("localhost", port));
+        }
+        TransferJournal journal = new TransferJournal(dir.resolve("bank.journal"), Durability.SYNC);
+        journal.replay(0, record -> { });
+        journal.start();
+        ShardedLedger ledger = new ShardedLedger(addresses);
+        ledger.setJournal(journal);
+        ledger.start();
+        for (int account = 1; account <= ACCOUNTS; account++) {
+            check(ledger.open(account, OPENING_BALANCE), "could not open #" + account);
+        }
+        long total = ACCOUNTS * OPENING_BALANCE;
+
+        long applied = transferFor(ledger, 2000, null);
+        check(ledger.getCrossShardTransfers() > 0, "no transfer went between shards");
+        checkBalances(ledger, total);
+        System.out.println(applied + " transfers, " + ledger.getCrossShardTransfers() + " between shards");
+
+        Map<Integer, Integer> before = owners(ledger);
+        int port = freePort();
+        startNode(port);
+        int added = ledger.addShard("localhost", port);
+        Map<Integer, Integer> after = owners(ledger);
+        int moved = 0;
+        for (int account = 1; account <= ACCOUNTS; account++) {
+            if (!before.get(account).equals(after.get(account))) {
+                check(after.get(account) == added, "#" + account + " moved between two old shards");
+                moved++;
+            }
+        }
+        check(moved > ACCOUNTS / 8 && moved < ACCOUNTS / 2, moved + " of " + ACCOUNTS + " accounts moved");
+        check(ledger.getShardSizes().get(added) == moved, "the new shard does not hold the moved accounts");
+        checkBalances(ledger, total);
+        System.out.println("Added a fourth shard, " + moved + " accounts moved");
+
+        int victim = addresses.get(1).getPort();
+        applied = transferFor(ledger, 3000, () -> {
+            nodes.remove(victim).destroyForcibly().waitFor();
+            TimeUnit.MILLISECONDS.sleep(500);
+            startNode(victim);
+        });
+        System.out.println(applied + " transfers while a shard was killed, " + ledger.getAborted() + " aborted");
+        long deadline = System.currentTimeMillis() + RECOVERY_TIMEOUT_MILLIS;
+        while (ledger.getPendingDecisions() > 0 || !allReleased(ledger)) {
+            check(System.currentTimeMillis() < deadline, ledger.getPendingDecisions() + " transfers never recovered");
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        checkBalances(ledger, total);
+        System.out.println("Recovered the killed shard");
+
+        checkRetriedWithdraw(ledger, victim);
+        System.out.println("A retried withdrawal was applied once across a restart");
+        checkFailedRequest(victim);
+    }
+
+    /**
+     * Sends the same keyed withdrawal to a node twice, restarts the node and sends it again, as
+     * a RemoteShard does when it gets no answer.
+     */
+    private void checkRetriedWithdraw(ShardedLedger ledger, int port) throws Exception {
+        ShardRequest withdraw;
+        int account;
+        try (FrameStream stream = new FrameStream(new Socket("localhost", port), true)) {
+            stream.send(new ShardRequest(1, ShardRequest.ACCOUNTS, 0, 0, 0, 0, 0, 0));
+            account = ((int[]) reply(stream, 1))[0];
+            withdraw = new ShardRequest(2, ShardRequest.WITHDRAW, 0, account, 0, 0, 100, 0x5eedL);
+            long before = ledger.balance(account);
+            for (int i = 0; i < 2; i++) {
+                stream.send(withdraw);
+                check(Boolean.TRUE.equals(reply(stream, 2)), "the withdrawal was refused");
+            }
+            check(ledger.balance(account) == before - 100, "a retried withdrawal was applied twice");
+        }
+        long balance = ledger.balance(account);
+        nodes.remove(port).destroyForcibly().waitFor();
+        startNode(port);
+        try (FrameStream stream = new FrameStream(new Socket("localhost", port), true)) {
+            stream.send(withdraw);
+            check(Boolean.TRUE.equals(reply(stream, 2)), "the withdrawal was refused after the restart");
+        }
+        check(ledger.balance(account) == balance, "a withdrawal retried after a restart was applied again");
+    }
+
+    /**
+     * Sends a request the node cannot handle and checks it is answered with the error.
+     */
+    private void checkFailedRequest(int port) throws Exception {
+        try (FrameStream stream = new FrameStream(new Socket("localhost", port), true)) {
+            stream.send(new ShardRequest(3, (byte) 99, 0, 0, 0, 0, 0, 0));
+            check(answer(stream, 3).getError() != null, "a failed request was answered without an error");
+        }
+    }
+
+    private static Object reply(FrameStream stream, long requestId) throws IOException, ClassNotFoundException {
+        ShardReply reply = answer(stream, requestId);
+        check(reply.getError() == null, "the node failed request " + requestId + ": " + reply.getError());
+        return reply.getResult();
+    }
+
+    private static ShardReply answer(FrameStream stream, long requestId) throws IOException, ClassNotFoundException {
+        while (true) {
+            Object message = stream.read();
+            if (message instanceof ShardReply reply && reply.getRequestId() == requestId) {
+                return reply;
+            }
+        }
+    }
+
+    /**
+     * Runs transfers between random accounts from several threads for the given time. If a
+     * disruption is given it runs on this thread once the transfers are under way.
+     *
+     * @return number of transfers applied
+     */
+    private long transferFor(ShardedLedger ledger, long millis, Disruption disruption) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong applied = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < TRANSFER_THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int from = random.nextInt(1, ACCOUNTS + 1);
+                    int to = random.nextInt(1, ACCOUNTS + 1);
+                    if (from != to && ledger.transfer(from, to, random.nextLong(1, 500))) {
+                        applied.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        TimeUnit.MILLISECONDS.sleep(millis / 3);
+        if (disruption != null) {
+            disruption.run();
+        }
+        TimeUnit.MILLISECONDS.sleep(millis - millis / 3);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return applied.get();
+    }
+
+    private void checkBalances(ShardedLedger ledger, long total) throws IOException {
+        long sum = 0;
+        for (int account = 1; account <= ACCOUNTS; account++) {
+            check(ledger.contains(account), "#" + account + " is lost");
+            long balance = ledger.balance(account);
+            check(balance >= 0, "#" + account + " is overdrawn");
+            check(ledger.available(account) == balance, "#" + account + " still holds money");
+            sum += balance;
+        }
+        check(sum == total, "total is " + sum + " instead of " + total);
+        int size = 0;
+        for (int shardSize : ledger.getShardSizes().values()) {
+            size += shardSize;
+        }
+        check(size == ACCOUNTS, size + " accounts on the shards instead of " + ACCOUNTS);
+    }
+
+    private boolean allReleased(ShardedLedger ledger) {
+        for (int account = 1; account <= ACCOUNTS; account++) {
+            if (ledger.available(account) != ledger.balance(account)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<Integer, Integer> owners(ShardedLedger ledger) {
+        Map<Integer, Integer> owners = new HashMap<>();
+        for (int account = 1; account <= ACCOUNTS; account++) {
+            owners.put(account, ledger.shardOf(account));
+        }
+        return owners;
+    }
+
+    private void startNode(int port) throws IOException, InterruptedException {
+        Path journal = dir.resolve("shard" + port + ".journal");
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "Bank.ShardNode", String.valueOf(port),
+                journal.toString(), "SYNC")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(dir.resolve("shard" + port + ".log").toFile()))
+                .start();
+        nodes.put(port, process);
+        long deadline = System.currentTimeMillis() + RECOVERY_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                check(process.isAlive() && System.currentTimeMillis() < deadline, "shard node on " + port + " did not start");
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+    }
+
+    private void stopNodes() {
+        for (Process process : nodes.values()) {
+            process.destroyForcibly();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private interface Disruption {
+        void run() throws Exception;
+    }
+}
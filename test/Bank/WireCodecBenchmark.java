@@ -0,0 +1,85 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Compares the WireCodec with the Java serialization a connection falls back to, for the
+ * messages that dominate the traffic: price updates, bids and transfers, catalog pages and
+ * settlement batches. For each it prints the frame size and the time to encode and decode one
+ * frame in both encodings, after a warm-up so the JIT has compiled both paths. It needs no
+ * benchmark library; the numbers are indicative, not a substitute for a profile.
+ * Usage: java -cp &lt;classes&gt; Bank.WireCodecBenchmark [iterations]
+ */
+
+import Auctionhouse.AuctionBidManager;
+import Auctionhouse.AuctionBidManager.BidState;
+import Auctionhouse.CatalogPage;
+import Auctionhouse.LotUpdate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class WireCodecBenchmark {
+    private static final int WARMUP_ITERATIONS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<AuctionBidManager> lots = new ArrayList<>();
+        for (int i = 0; i < CatalogPage.PAGE_SIZE; i++) {
+            lots.add(new AuctionBidManager("item" + i, (long) (i + 1) << 32 | i,
+                    new BidState(50 + i, 10000 + i, 50, 0, false, i)));
+        }
+        List<Settlement> settlements = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            settlements.add(new Settlement(1000L + i, 10000 + i, 20000, 50 + i, 7L << 40 | i));
+        }
+        Object[] messages = {
+                new LotUpdate(5L << 32 | 1, 17, 300, 44444),
+                new ClientMessage(12345, 67890, 250),
+                lots.get(0),
+                new CatalogPage(lots, 64),
+                new SettlementBatch(77, settlements),
+        };
+        System.out.printf("%-16s %12s %12s %14s %14s %8s%n", "message", "binary B", "java B", "binary ns/op",
+                "java ns/op", "speedup");
+        for (Object message : messages) {
+            long binaryBytes = frameBytes(message, true);
+            long javaBytes = frameBytes(message, false);
+            measure(message, true, WARMUP_ITERATIONS);
+            measure(message, false, WARMUP_ITERATIONS);
+            double binaryNanos = measure(message, true, iterations);
+            double javaNanos = measure(message, false, iterations / 10);
+            System.out.printf("%-16s %12d %12d %14.0f %14.0f %7.1fx%n", message.getClass().getSimpleName(),
+                    binaryBytes, javaBytes, binaryNanos, javaNanos, javaNanos / binaryNanos);
+        }
+    }
+
+    private static long frameBytes(Object message, boolean binary) throws Exception {
+        WireCodec.Buffer out = new WireCodec.Buffer();
+        FrameStream.encode(message, binary, out, new ManagedObjectStream());
+        return out.size();
+    }
+
+    /**
+     * Encodes and decodes the message the given number of times.
+     *
+     * @return the average time per round trip in nanoseconds
+     */
+    private static double measure(Object message, boolean binary, int iterations) throws Exception {
+        WireCodec.Buffer out = new WireCodec.Buffer();
+        ManagedObjectStream objects = new ManagedObjectStream();
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            out.reset();
+            FrameStream.encode(message, binary, out, objects);
+            byte[] payload = Arrays.copyOf(out.array(), out.size());
+            checksum ^= FrameStream.decode(payload, 0, payload.length, objects).hashCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 42) {
+            System.out.println("checksum " + checksum);
+        }
+        return (double) elapsed / iterations;
+    }
+}
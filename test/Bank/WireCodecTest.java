@@ -0,0 +1,222 @@
+package Bank;
+
+/**
+ * CS-351L (Distributed Auction)
+ * Sends a sample of every message type the WireCodec knows through the binary frame encoding and
+ * back, and checks that each comes out with the tag of its type and the same fields, that a frame
+ * cut short fails with an IOException, and that every tag declared in WireCodec has a sample, so
+ * a new tag cannot go untested. Fails with an AssertionError.
+ * Usage: java -cp &lt;classes&gt; Bank.WireCodecTest
+ */
+
+import Auctionhouse.AuctionBidManager;
+import Auctionhouse.AuctionBidManager.BidState;
+import Auctionhouse.BidRejection;
+import Auctionhouse.CatalogPage;
+import Auctionhouse.CatalogRequest;
+import Auctionhouse.LotUpdate;
+import Auctionhouse.SettlementNotice;
+import Auctionhouse.SnapshotRequest;
+import Auctionhouse.Subscription;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class WireCodecTest {
+    private final ManagedObjectStream writer = new ManagedObjectStream();
+    private final ManagedObjectStream reader = new ManagedObjectStream();
+    private final TreeSet<Byte> covered = new TreeSet<>();
+
+    public static void main(String[] args) throws Exception {
+        WireCodecTest test = new WireCodecTest();
+        for (Object message : samples()) {
+            test.roundTrip(message);
+        }
+        test.checkEveryTagCovered();
+        System.out.println("WireCodecTest passed (" + test.covered.size() + " tags)");
+    }
+
+    /**
+     * Returns at least one message for every tag, with edge cases such as empty and non-ASCII
+     * strings, empty collections, negative and extreme numbers.
+     */
+    static List<Object> samples() {
+        List<Object> samples = new ArrayList<>();
+        samples.add(null);
+        samples.add("Agent");
+        samples.add("");
+        samples.add("Gemälde – 油画");
+        samples.add(Integer.MIN_VALUE);
+        samples.add(42);
+        samples.add(-0.0);
+        samples.add(1234.56);
+        samples.add(new ClientAdress("10.0.0.105", 5090));
+        samples.add(new ClientMessage(12345, 67890, 250));
+        samples.add(new AuctionBidManager("vase", 50));
+        samples.add(lot("painting", 7L << 32 | 3, 120, 11111, 100, 22222, true, 9));
+        samples.add(new BidRejection(99999, "insufficient funds", "vase"));
+        samples.add(new Settlement(1L, 2, 3, 4, 5L));
+        samples.add(new LotUpdate(5L << 32 | 1, 17, 300, 44444));
+        samples.add(new SnapshotRequest(Long.MAX_VALUE));
+        samples.add(new Subscription(3L << 32 | 8, true));
+        samples.add(new Subscription(3L << 32 | 8, false));
+        List<AuctionBidManager> lots = new ArrayList<>();
+        for (int i = 0; i < CatalogPage.PAGE_SIZE; i++) {
+            lots.add(lot("item" + i, (long) (i + 1) << 32 | i, 50 + i, i, 0, 0, false, i));
+        }
+        samples.add(new CatalogPage(lots, 64));
+        samples.add(new CatalogPage(new ArrayList<>(), 0));
+        samples.add(new CatalogRequest(128));
+        List<Settlement> settlements = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            settlements.add(new Settlement(1000L + i, 10000 + i, 20000, 50 + i, 7L << 40 | i));
+        }
+        samples.add(new SettlementBatch(77, settlements));
+        samples.add(new SettlementBatch(78, new ArrayList<>()));
+        samples.add(new SettlementAck(77, new long[]{1000, 1001}, new boolean[]{true, false}));
+        samples.add(new SettlementNotice("vase", 120, true));
+        samples.add(new SettlementNotice("", 0, false));
+        Map<Integer, ClientAdress> houses = new LinkedHashMap<>();
+        houses.put(11111, new ClientAdress("10.0.0.1", 5090));
+        houses.put(22222, new ClientAdress("house.local", 5091));
+        samples.add(new DirectorySnapshot(12, houses));
+        samples.add(new DirectorySnapshot(0, new LinkedHashMap<>()));
+        samples.add(new DirectoryChange(13, 33333, new ClientAdress("10.0.0.3", 5092)));
+        samples.add(new DirectoryChange(14, 11111, null));
+        samples.add(new DirectoryRequest(12));
+        samples.add(new HoldBatch(5, 30_000, new boolean[]{true, false}, new long[]{9L << 32 | 1, 9L << 32 | 2},
+                new int[]{10001, 10002}, new int[]{75, 0}));
+        samples.add(new HoldResult(5, new long[]{9L << 32 | 1, 9L << 32 | 2}, new boolean[]{true, false}));
+        return samples;
+    }
+
+    private static AuctionBidManager lot(String name, long lotKey, int bid, int bidder, int previousBid,
+                                         int previousBidder, boolean over, long version) {
+        return new AuctionBidManager(name, lotKey, new BidState(bid, bidder, previousBid, previousBidder, over, version));
+    }
+
+    private void roundTrip(Object message) throws Exception {
+        WireCodec.Buffer out = new WireCodec.Buffer();
+        FrameStream.encode(message, true, out, writer);
+        byte[] payload = Arrays.copyOf(out.array(), out.size());
+        byte tag = payload[0];
+        covered.add(tag);
+        if (message != null && !(message instanceof Settlement)) {
+            check(tag != WireCodec.JAVA_OBJECT, describe(message) + " fell back to Java serialization");
+        }
+        Object decoded = FrameStream.decode(payload, 0, payload.length, reader);
+        check(describe(message).equals(describe(decoded)),
+                "tag " + tag + ": sent " + describe(message) + ", got " + describe(decoded));
+        if (tag != WireCodec.JAVA_OBJECT && payload.length > 1) {
+            try {
+                WireCodec.decode(payload, 0, payload.length - 1);
+                check(false, "tag " + tag + ": a truncated frame was decoded");
+            } catch (IOException expected) {
+                // a short frame must be reported as a broken stream, not as a runtime exception
+            }
+        }
+    }
+
+    private void checkEveryTagCovered() throws IllegalAccessException {
+        TreeSet<Byte> declared = new TreeSet<>();
+        for (Field field : WireCodec.class.getDeclaredFields()) {
+            if (field.getType() == byte.class && Modifier.isStatic(field.getModifiers())) {
+                field.setAccessible(true);
+                declared.add(field.getByte(null));
+            }
+        }
+        declared.removeAll(covered);
+        check(declared.isEmpty(), "no sample for tags " + declared);
+    }
+
+    /**
+     * Lists the fields of a message, so a decoded message can be compared with the one sent.
+     */
+    static String describe(Object message) {
+        if (message == null || message instanceof String || message instanceof Integer || message instanceof Double) {
+            return message == null ? "null" : message.getClass().getSimpleName() + ":" + message;
+        } else if (message instanceof ClientAdress address) {
+            return "ClientAdress:" + address.getipAdress() + ":" + address.getPortNumber();
+        } else if (message instanceof ClientMessage transfer) {
+            return "ClientMessage:" + transfer.getAgentAcctNo() + "," + transfer.getAucHouseAccNo() + ","
+                    + transfer.getTransferAmount();
+        } else if (message instanceof AuctionBidManager lot) {
+            return "Lot:" + lot.getAuctionItemName() + "," + lot.getLotKey() + "," + lot.getCurrentBid() + ","
+                    + lot.getCurrentBidderID() + "," + lot.getPreviousBid() + "," + lot.getPreviousBidderId() + ","
+                    + lot.isBidOver() + "," + lot.getVersion();
+        } else if (message instanceof BidRejection rejection) {
+            return "BidRejection:" + rejection.getBankId() + "," + rejection.getMessage() + "," + rejection.getItemName();
+        } else if (message instanceof Settlement settlement) {
+            return "Settlement:" + settlement.getIdempotencyKey() + "," + settlement.getAgentAcctNo() + ","
+                    + settlement.getAucHouseAccNo() + "," + settlement.getTransferAmount() + "," + settlement.getHoldId();
+        } else if (message instanceof LotUpdate update) {
+            return "LotUpdate:" + update.getLotKey() + "," + update.getVersion() + "," + update.getCurrentBid() + ","
+                    + update.getCurrentBidderID();
+        } else if (message instanceof SnapshotRequest request) {
+            return "SnapshotRequest:" + request.getLotKey();
+        } else if (message instanceof Subscription subscription) {
+            return "Subscription:" + subscription.getLotKey() + "," + subscription.isSubscribe();
+        } else if (message instanceof CatalogPage page) {
+            StringBuilder text = new StringBuilder("CatalogPage:" + page.getNextCursor());
+            for (AuctionBidManager lot : page.getLots()) {
+                text.append(';').append(describe(lot));
+            }
+            return text.toString();
+        } else if (message instanceof CatalogRequest request) {
+            return "CatalogRequest:" + request.getCursor();
+        } else if (message instanceof SettlementBatch batch) {
+            StringBuilder text = new StringBuilder("SettlementBatch:" + batch.getBatchId());
+            for (Settlement settlement : batch.getSettlements()) {
+                text.append(';').append(describe(settlement));
+            }
+            return text.toString();
+        } else if (message instanceof SettlementAck ack) {
+            StringBuilder text = new StringBuilder("SettlementAck:" + ack.getBatchId());
+            for (int i = 0; i < ack.size(); i++) {
+                text.append(';').append(ack.getKey(i)).append(',').append(ack.isSettled(i));
+            }
+            return text.toString();
+        } else if (message instanceof SettlementNotice notice) {
+            return "SettlementNotice:" + notice.getItemName() + "," + notice.getAmount() + "," + notice.isSettled();
+        } else if (message instanceof DirectorySnapshot snapshot) {
+            StringBuilder text = new StringBuilder("DirectorySnapshot:" + snapshot.getVersion());
+            for (Map.Entry<Integer, ClientAdress> house : new TreeMap<>(snapshot.getHouses()).entrySet()) {
+                text.append(';').append(house.getKey()).append('=').append(describe(house.getValue()));
+            }
+            return text.toString();
+        } else if (message instanceof DirectoryChange change) {
+            return "DirectoryChange:" + change.getVersion() + "," + change.getAccount() + "," + change.isJoin() + ","
+                    + (change.getAddress() == null ? "null" : describe(change.getAddress()));
+        } else if (message instanceof DirectoryRequest request) {
+            return "DirectoryRequest:" + request.getSinceVersion();
+        } else if (message instanceof HoldBatch batch) {
+            StringBuilder text = new StringBuilder("HoldBatch:" + batch.getBatchId() + "," + batch.getLeaseMillis());
+            for (int i = 0; i < batch.size(); i++) {
+                text.append(';').append(batch.isHold(i)).append(',').append(batch.getHoldId(i)).append(',')
+                        .append(batch.getAgentAcctNo(i)).append(',').append(batch.getAmount(i));
+            }
+            return text.toString();
+        } else if (message instanceof HoldResult result) {
+            StringBuilder text = new StringBuilder("HoldResult:" + result.getBatchId());
+            for (int i = 0; i < result.size(); i++) {
+                text.append(';').append(result.getHoldId(i)).append(',').append(result.isDone(i));
+            }
+            return text.toString();
+        }
+        throw new AssertionError("no description for " + message.getClass().getName());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}